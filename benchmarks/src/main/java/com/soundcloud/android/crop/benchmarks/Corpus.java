@@ -0,0 +1,120 @@
+package com.soundcloud.android.crop.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Synthetic source images, generated from a fixed seed so every run and every branch crops
+ * the same bytes. Sources are named like {@code jpeg-4032x3024-6}: the format, the stored
+ * size and the Exif orientation.
+ */
+final class Corpus {
+
+    private static final long SEED = 20161018L;
+    private static final float SOURCE_QUALITY = 0.92f;
+
+    final String name;
+    final String format;
+    final int width;
+    final int height;
+    final int orientation;
+
+    private Corpus(String name, String format, int width, int height, int orientation) {
+        this.name = name;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.orientation = orientation;
+    }
+
+    static Corpus parse(String name) {
+        final String[] parts = name.split("[-x]");
+        if (parts.length != 4 || !("jpeg".equals(parts[0]) || "png".equals(parts[0]))) {
+            throw new IllegalArgumentException("Not a source like jpeg-4032x3024-6: " + name);
+        }
+        return new Corpus(name, parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                Integer.parseInt(parts[3]));
+    }
+
+    boolean isJpeg() {
+        return "jpeg".equals(format);
+    }
+
+    /**
+     * @return the encoded source, the same bytes for the same name
+     */
+    byte[] generate() throws IOException {
+        final BufferedImage image = isJpeg() ? photo() : screenshot();
+        final byte[] encoded = encode(image, format, SOURCE_QUALITY);
+        return isJpeg() ? JpegExif.insert(encoded, JpegExif.app1(orientation)) : encoded;
+    }
+
+    /**
+     * Encodes like the crop is saved, JPEGs at the given quality
+     */
+    static byte[] encode(BufferedImage image, String format, float quality) throws IOException {
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ImageOutputStream out = ImageIO.createImageOutputStream(bytes);
+        try {
+            final ImageWriteParam param = writer.getDefaultWriteParam();
+            if ("jpeg".equals(format)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    // Smooth gradients with sensor-like noise, which compress about as well as a photo
+    private BufferedImage photo() {
+        final Random random = new Random(SEED ^ name.hashCode());
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int noise = random.nextInt(16);
+                final int r = Math.min(255, x * 240 / width + noise);
+                final int g = Math.min(255, y * 240 / height + noise);
+                final int b = Math.min(255, (int) ((long) (x + y) * 127 / (width + height)) + 64 + noise);
+                row[x] = (r << 16) | (g << 8) | b;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    // Flat blocks of color, like a screen of an app
+    private BufferedImage screenshot() {
+        final Random random = new Random(SEED ^ name.hashCode());
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            for (int i = 0; i < 64; i++) {
+                graphics.setColor(new Color(random.nextInt(0x1000000)));
+                graphics.fillRect(random.nextInt(width), random.nextInt(height),
+                        random.nextInt(width / 2) + 1, random.nextInt(height / 8) + 1);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+}
@@ -0,0 +1,192 @@
+package com.soundcloud.android.crop.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Just enough Exif for the benchmarks: writes an APP1 segment with an orientation, reads
+ * the orientation back and copies the segment from a source to a saved crop. The library
+ * reads orientations with JpegHeaderParser and copies Exif with ExifUtil, which this mirrors;
+ * both live in the Android library, which a plain Java module cannot depend on.
+ */
+final class JpegExif {
+
+    static final int ORIENTATION_NORMAL = 1;
+    static final int ORIENTATION_ROTATE_180 = 3;
+    static final int ORIENTATION_ROTATE_90 = 6;
+    static final int ORIENTATION_ROTATE_270 = 8;
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+    // Offset of the TIFF header in an APP1 segment, after the marker, the length and the Exif header
+    private static final int TIFF_START = 4 + EXIF_HEADER.length;
+
+    private JpegExif() {
+    }
+
+    /**
+     * @return an APP1 segment, marker included, with only an orientation in IFD0
+     */
+    static byte[] app1(int orientation) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeShort(out, 0xFF00 | MARKER_APP1);
+        writeShort(out, 2 + EXIF_HEADER.length + 26);
+        out.write(EXIF_HEADER, 0, EXIF_HEADER.length);
+        // Big endian TIFF header, IFD0 right after it
+        out.write('M');
+        out.write('M');
+        writeShort(out, 42);
+        writeInt(out, 8);
+        // One entry, no next IFD
+        writeShort(out, 1);
+        writeShort(out, TAG_ORIENTATION);
+        writeShort(out, TYPE_SHORT);
+        writeInt(out, 1);
+        writeShort(out, orientation);
+        writeShort(out, 0);
+        writeInt(out, 0);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the rotation in degrees of the Exif orientation, 0 without one
+     */
+    static int getRotation(byte[] jpeg) {
+        switch (getOrientation(jpeg)) {
+            case ORIENTATION_ROTATE_90:
+                return 90;
+            case ORIENTATION_ROTATE_180:
+                return 180;
+            case ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    static int getOrientation(byte[] jpeg) {
+        final int app1 = findApp1(jpeg);
+        if (app1 < 0) {
+            return ORIENTATION_NORMAL;
+        }
+        final int entry = findOrientationEntry(jpeg, app1);
+        return entry < 0 ? ORIENTATION_NORMAL : readShort(jpeg, entry + 8, isLittleEndian(jpeg, app1));
+    }
+
+    /**
+     * Inserts the APP1 segment after the start of image and the JFIF segment, if any
+     */
+    static byte[] insert(byte[] jpeg, byte[] segment) {
+        int offset = 2;
+        if (marker(jpeg, offset) == MARKER_APP0) {
+            offset += 2 + readShort(jpeg, offset + 2, false);
+        }
+        final byte[] out = new byte[jpeg.length + segment.length];
+        System.arraycopy(jpeg, 0, out, 0, offset);
+        System.arraycopy(segment, 0, out, offset, segment.length);
+        System.arraycopy(jpeg, offset, out, offset + segment.length, jpeg.length - offset);
+        return out;
+    }
+
+    /**
+     * Copies the Exif of the source into the saved crop, orientation included, like ExifUtil
+     *
+     * @return the crop with the Exif of the source, the crop itself if the source has none
+     */
+    static byte[] copy(byte[] source, byte[] crop) {
+        final int app1 = findApp1(source);
+        if (app1 < 0 || findApp1(crop) >= 0) {
+            return crop;
+        }
+        final byte[] segment = new byte[2 + readShort(source, app1 + 2, false)];
+        System.arraycopy(source, app1, segment, 0, segment.length);
+        return insert(crop, segment);
+    }
+
+    // Offset of the APP1 marker with Exif, -1 if there is none before the image data
+    private static int findApp1(byte[] jpeg) {
+        if (marker(jpeg, 0) != MARKER_SOI) {
+            return -1;
+        }
+        int offset = 2;
+        while (offset + 4 <= jpeg.length) {
+            final int marker = marker(jpeg, offset);
+            if (marker < 0 || marker == MARKER_SOS) {
+                return -1;
+            }
+            if (marker == MARKER_APP1 && startsWith(jpeg, offset + 4, EXIF_HEADER)) {
+                return offset;
+            }
+            offset += 2 + readShort(jpeg, offset + 2, false);
+        }
+        return -1;
+    }
+
+    // Offset of the orientation entry in IFD0 of the APP1 segment, -1 if there is none
+    private static int findOrientationEntry(byte[] data, int app1) {
+        final int tiff = app1 + TIFF_START;
+        final boolean littleEndian = isLittleEndian(data, app1);
+        final int ifd = tiff + readInt(data, tiff + 4, littleEndian);
+        if (ifd + 2 > data.length) {
+            return -1;
+        }
+        final int count = readShort(data, ifd, littleEndian);
+        for (int i = 0; i < count; i++) {
+            final int entry = ifd + 2 + i * 12;
+            if (entry + 12 > data.length) {
+                return -1;
+            }
+            if (readShort(data, entry, littleEndian) == TAG_ORIENTATION) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isLittleEndian(byte[] data, int app1) {
+        return data[app1 + TIFF_START] == 'I';
+    }
+
+    private static int marker(byte[] data, int offset) {
+        return offset + 1 < data.length && (data[offset] & 0xFF) == 0xFF ? data[offset + 1] & 0xFF : -1;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] prefix) {
+        if (offset + prefix.length > data.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        final int b0 = data[offset] & 0xFF;
+        final int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean littleEndian) {
+        final int high = readShort(data, littleEndian ? offset + 2 : offset, littleEndian);
+        final int low = readShort(data, littleEndian ? offset : offset + 2, littleEndian);
+        return (high << 16) | low;
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value >>> 16);
+        writeShort(out, value & 0xFFFF);
+    }
+}
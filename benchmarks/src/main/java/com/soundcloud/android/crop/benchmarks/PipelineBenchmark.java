@@ -0,0 +1,233 @@
+package com.soundcloud.android.crop.benchmarks;
+
+import com.soundcloud.android.crop.geometry.Affine;
+import com.soundcloud.android.crop.geometry.Box;
+import com.soundcloud.android.crop.geometry.CropSize;
+import com.soundcloud.android.crop.geometry.Rotation;
+import com.soundcloud.android.crop.geometry.Size;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * The stages of a crop, from opening the source to saving the crop with its Exif, timed one
+ * by one over a synthetic corpus. The crop screen shows a 1:1 crop of each source and saves
+ * it at most 1024 pixels large, as JPEG at quality 90.
+ *
+ * The Android codecs do not run on a desktop JVM, so ImageIO decodes and encodes instead.
+ * Its numbers are not those of a device, but every decision about what is decoded, at which
+ * sample size and how it is transformed is made by the same geometry code the library uses,
+ * so a change to those shows up here. Writes JSON to compare branches:
+ * <pre>
+ * ./gradlew :benchmarks:pipeline
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1776;
+    // Largest preview without a known texture size, like CropImageActivity
+    private static final int MAX_IMAGE_SIZE = 2048;
+    private static final int MAX_OUTPUT_SIZE = 1024;
+    private static final float QUALITY = 0.9f;
+
+    /**
+     * Camera photos in all orientations, a panorama, a small photo and a screenshot
+     */
+    @Param({
+            "jpeg-4032x3024-1",
+            "jpeg-4032x3024-6",
+            "jpeg-4032x3024-3",
+            "jpeg-4032x3024-8",
+            "jpeg-8000x2000-1",
+            "jpeg-1024x768-1",
+            "png-1080x1920-1",
+    })
+    public String source;
+
+    private byte[] bytes;
+    private int width;
+    private int height;
+    private int rotation;
+
+    // The crop in the stored source, and the size it is saved at before rotating
+    private final Rectangle region = new Rectangle();
+    private int outWidth;
+    private int outHeight;
+    private int sampleSize;
+
+    // The output of the stage before each stage
+    private BufferedImage decodedRegion;
+    private BufferedImage transformed;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ImageIO.setUseCache(false);
+        bytes = Corpus.parse(source).generate();
+
+        final int[] bounds = probeBounds();
+        width = bounds[0];
+        height = bounds[1];
+        rotation = bounds[2];
+
+        // Same steps as CropProcessor
+        final boolean orientationChanged = Rotation.isTransposed(rotation);
+        final Box rect = new Box();
+        CropSize.centerAspect(orientationChanged ? height : width, orientationChanged ? width : height, 1, 1, rect);
+        final Size outSize = new Size();
+        CropSize.fitOutputSize((int) rect.width(), (int) rect.height(), MAX_OUTPUT_SIZE, MAX_OUTPUT_SIZE, outSize);
+        outWidth = orientationChanged ? outSize.height : outSize.width;
+        outHeight = orientationChanged ? outSize.width : outSize.height;
+        Rotation.toSource(rect, rotation, width, height, rect);
+        region.setBounds((int) rect.left, (int) rect.top, (int) rect.width(), (int) rect.height());
+        sampleSize = CropSize.regionSampleSize(region.width, region.height, outWidth, outHeight);
+
+        decodedRegion = decodeRegion();
+        transformed = transform();
+        encoded = encode();
+    }
+
+    /**
+     * Reads the size and the Exif rotation without decoding pixels
+     */
+    @Benchmark
+    public int[] probeBounds() throws IOException {
+        final ImageReader reader = openReader();
+        try {
+            final int rotation = isJpeg(bytes) ? JpegExif.getRotation(bytes) : 0;
+            return new int[] {reader.getWidth(0), reader.getHeight(0), rotation};
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Decodes the whole source sampled down to the view
+     */
+    @Benchmark
+    public BufferedImage decodePreview() throws IOException {
+        final int previewSampleSize = CropSize.previewSampleSize(width, height, rotation,
+                VIEW_WIDTH, VIEW_HEIGHT, MAX_IMAGE_SIZE);
+        final ImageReader reader = openReader();
+        try {
+            final ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(previewSampleSize, previewSampleSize, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Decodes the crop of the source, sampled down as far as the output size allows
+     */
+    @Benchmark
+    public BufferedImage decodeRegion() throws IOException {
+        final ImageReader reader = openReader();
+        try {
+            final ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(region);
+            param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Scales the decoded crop down to the output size and rotates it upright
+     */
+    @Benchmark
+    public BufferedImage transform() {
+        return transform(decodedRegion);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return Corpus.encode(transformed, "jpeg", QUALITY);
+    }
+
+    @Benchmark
+    public byte[] copyExif() {
+        return JpegExif.copy(bytes, encoded);
+    }
+
+    /**
+     * All stages of saving a crop, without the preview
+     */
+    @Benchmark
+    public byte[] crop() throws IOException {
+        probeBounds();
+        final BufferedImage saved = transform(decodeRegion());
+        return JpegExif.copy(bytes, Corpus.encode(saved, "jpeg", QUALITY));
+    }
+
+    private BufferedImage transform(BufferedImage decoded) {
+        final Affine matrix = new Affine();
+        CropSize.setTransform(matrix, decoded.getWidth(), decoded.getHeight(),
+                outWidth, outHeight, rotation);
+        final Box bounds = new Box(0, 0, decoded.getWidth(), decoded.getHeight());
+        matrix.mapRect(bounds, bounds);
+        if (bounds.left == 0 && bounds.top == 0
+                && bounds.width() == decoded.getWidth() && bounds.height() == decoded.getHeight()) {
+            return decoded;
+        }
+        // Like Bitmap#createBitmap, the transformed crop starts at the origin
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        final float[] values = matrix.getValues(new float[9]);
+
+        final BufferedImage target = new BufferedImage(Math.round(bounds.width()), Math.round(bounds.height()),
+                BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(decoded,
+                    new AffineTransform(values[0], values[3], values[1], values[4], values[2], values[5]), null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private ImageReader openReader() throws IOException {
+        final ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes));
+        final ImageReader reader = ImageIO.getImageReaders(in).next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    private static boolean isJpeg(byte[] data) {
+        return data.length > 1 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8;
+    }
+}
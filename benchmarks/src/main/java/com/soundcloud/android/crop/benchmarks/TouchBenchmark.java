@@ -0,0 +1,166 @@
+package com.soundcloud.android.crop.benchmarks;
+
+import com.soundcloud.android.crop.geometry.Affine;
+import com.soundcloud.android.crop.geometry.Box;
+import com.soundcloud.android.crop.geometry.CropMath;
+import com.soundcloud.android.crop.geometry.ViewLayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work the crop screen does per touch event, replayed on the JVM through the geometry
+ * module: the same calls, in the same order and on the same reused state as HighlightView
+ * and CropImageView make them, without the Android views around them. Drags alternate their
+ * direction so that the crop box stays clear of the image edges.
+ *
+ * Run with the GC profiler to see allocations per event next to the time:
+ * <pre>
+ * ./gradlew :benchmarks:jmh -Pjmh='TouchBenchmark'
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TouchBenchmark {
+
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1776;
+    private static final int IMAGE_WIDTH = 4032;
+    private static final int IMAGE_HEIGHT = 3024;
+    // Finger travel between two ACTION_MOVE events, in pixels
+    private static final float STEP = 6f;
+
+    /**
+     * Width / height of the crop box to keep, 0 for a free aspect ratio
+     */
+    @Param({"0", "1"})
+    public float aspectRatio;
+
+    // The values of the view's Matrix
+    private final float[] matrixValues = new float[9];
+
+    // HighlightView
+    private final Box image = new Box();
+    private final Box crop = new Box();
+    private final Box layout = new Box();
+    private final Box drawRect = new Box();
+    private final Affine highlightMatrix = new Affine();
+
+    // ImageViewTouchBase
+    private final Affine displayMatrix = new Affine();
+    private final Box bounds = new Box();
+
+    private float step = STEP;
+
+    @Setup
+    public void setUp() {
+        image.set(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        ViewLayout.setBaseMatrix(displayMatrix, VIEW_WIDTH, VIEW_HEIGHT, IMAGE_WIDTH, IMAGE_HEIGHT,
+                0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        displayMatrix.getValues(matrixValues);
+
+        // Like the default crop of CropImageActivity, 4/5 of the image
+        float width = IMAGE_WIDTH * 4 / 5;
+        float height = IMAGE_HEIGHT * 4 / 5;
+        if (aspectRatio > 0) {
+            width = Math.min(width, height * aspectRatio);
+            height = width / aspectRatio;
+        }
+        float left = (IMAGE_WIDTH - width) / 2;
+        float top = (IMAGE_HEIGHT - height) / 2;
+        crop.set(left, top, left + width, top + height);
+        computeLayout(drawRect);
+    }
+
+    /**
+     * HighlightView#getHit on ACTION_DOWN
+     */
+    @Benchmark
+    public int hit() {
+        computeLayout(layout);
+        return CropMath.getHit(layout.left, layout.top, layout.right, layout.bottom,
+                layout.centerX(), layout.centerY());
+    }
+
+    /**
+     * HighlightView#handleMotion dragging the whole crop box
+     */
+    @Benchmark
+    public Box move() {
+        float delta = nextStep();
+        return handleMotion(CropMath.MOVE, delta, delta);
+    }
+
+    /**
+     * HighlightView#handleMotion dragging the bottom right corner
+     */
+    @Benchmark
+    public Box grow() {
+        float delta = nextStep();
+        return handleMotion(CropMath.GROW_RIGHT_EDGE | CropMath.GROW_BOTTOM_EDGE, delta, delta);
+    }
+
+    /**
+     * ImageViewTouchBase#center, run after every ACTION_MOVE while not zoomed
+     */
+    @Benchmark
+    public float[] center() {
+        displayMatrix.setValues(matrixValues).mapRect(bounds.set(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT), bounds);
+        // Matrix#postTranslate
+        matrixValues[2] += ViewLayout.centerDelta(bounds.left, bounds.right, VIEW_WIDTH);
+        matrixValues[5] += ViewLayout.centerDelta(bounds.top, bounds.bottom, VIEW_HEIGHT);
+        return matrixValues;
+    }
+
+    /**
+     * CropImageView#ensureVisible, run when a drag ends
+     */
+    @Benchmark
+    public int ensureVisible() {
+        int panDeltaX = ViewLayout.panDelta((int) drawRect.left, (int) drawRect.right, 0, VIEW_WIDTH);
+        int panDeltaY = ViewLayout.panDelta((int) drawRect.top, (int) drawRect.bottom, 0, VIEW_HEIGHT);
+        return panDeltaX + panDeltaY;
+    }
+
+    /**
+     * A whole ACTION_MOVE of CropImageView#onTouchEvent growing the crop box while not zoomed
+     */
+    @Benchmark
+    public float[] moveEvent() {
+        grow();
+        return center();
+    }
+
+    // Same steps as HighlightView#handleMotion
+    private Box handleMotion(int edge, float dx, float dy) {
+        computeLayout(layout);
+        CropMath.handleMotion(edge, dx, dy, layout.width(), layout.height(), crop, image, aspectRatio);
+        computeLayout(drawRect);
+        return drawRect;
+    }
+
+    private void computeLayout(Box screen) {
+        CropMath.computeLayout(highlightMatrix.setValues(matrixValues), crop, screen);
+    }
+
+    // Back and forth, so that the crop box never ends up stuck at the image edges
+    private float nextStep() {
+        step = -step;
+        return step;
+    }
+}
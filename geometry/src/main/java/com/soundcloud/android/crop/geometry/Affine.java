@@ -0,0 +1,207 @@
+package com.soundcloud.android.crop.geometry;
+
+/**
+ * Mutable 2D affine transform, the plain Java counterpart of an android.graphics.Matrix
+ * without perspective. Values are exchanged in the order of Matrix#getValues, so a Matrix
+ * can be copied in and out through a reused float[9]. None of the operations allocate.
+ */
+public final class Affine {
+
+    // Sines and cosines this close to zero are snapped to it, like Skia does for right angles
+    private static final float NEARLY_ZERO = 1f / (1 << 12);
+
+    private float scaleX;
+    private float skewX;
+    private float transX;
+    private float skewY;
+    private float scaleY;
+    private float transY;
+
+    public Affine() {
+        reset();
+    }
+
+    public Affine reset() {
+        scaleX = 1f;
+        skewX = 0f;
+        transX = 0f;
+        skewY = 0f;
+        scaleY = 1f;
+        transY = 0f;
+        return this;
+    }
+
+    public Affine set(Affine other) {
+        scaleX = other.scaleX;
+        skewX = other.skewX;
+        transX = other.transX;
+        skewY = other.skewY;
+        scaleY = other.scaleY;
+        transY = other.transY;
+        return this;
+    }
+
+    /**
+     * @param values at least 9 values in the order of Matrix#getValues, perspective is ignored
+     */
+    public Affine setValues(float[] values) {
+        scaleX = values[0];
+        skewX = values[1];
+        transX = values[2];
+        skewY = values[3];
+        scaleY = values[4];
+        transY = values[5];
+        return this;
+    }
+
+    /**
+     * @param values at least 9 values, filled in the order of Matrix#setValues
+     * @return the values
+     */
+    public float[] getValues(float[] values) {
+        values[0] = scaleX;
+        values[1] = skewX;
+        values[2] = transX;
+        values[3] = skewY;
+        values[4] = scaleY;
+        values[5] = transY;
+        values[6] = 0f;
+        values[7] = 0f;
+        values[8] = 1f;
+        return values;
+    }
+
+    public float getScaleX() {
+        return scaleX;
+    }
+
+    public float getScaleY() {
+        return scaleY;
+    }
+
+    public float getTranslateX() {
+        return transX;
+    }
+
+    public float getTranslateY() {
+        return transY;
+    }
+
+    public Affine postTranslate(float dx, float dy) {
+        transX += dx;
+        transY += dy;
+        return this;
+    }
+
+    public Affine postScale(float sx, float sy) {
+        scaleX *= sx;
+        skewX *= sx;
+        transX *= sx;
+        skewY *= sy;
+        scaleY *= sy;
+        transY *= sy;
+        return this;
+    }
+
+    /**
+     * Scales around the pivot point (px, py)
+     */
+    public Affine postScale(float sx, float sy, float px, float py) {
+        postTranslate(-px, -py);
+        postScale(sx, sy);
+        return postTranslate(px, py);
+    }
+
+    /**
+     * Rotates clockwise around the origin, in screen coordinates where y points down
+     */
+    public Affine postRotate(float degrees) {
+        final double radians = Math.toRadians(degrees);
+        final float sin = snap((float) Math.sin(radians));
+        final float cos = snap((float) Math.cos(radians));
+        return postConcat(cos, -sin, 0f, sin, cos, 0f);
+    }
+
+    /**
+     * Sets the rotation of a width by height image about its center, translated so the
+     * rotated image starts at the origin. Centers are in whole pixels, like RotateBitmap.
+     */
+    public Affine setRotate(int degrees, int width, int height) {
+        reset();
+        if (degrees % 360 == 0) {
+            return this;
+        }
+        final boolean transposed = (degrees / 90) % 2 != 0;
+        postTranslate(-(width / 2), -(height / 2));
+        postRotate(degrees);
+        return postTranslate((transposed ? height : width) / 2, (transposed ? width : height) / 2);
+    }
+
+    /**
+     * Applies the other transform after this one
+     */
+    public Affine postConcat(Affine other) {
+        return postConcat(other.scaleX, other.skewX, other.transX, other.skewY, other.scaleY, other.transY);
+    }
+
+    private Affine postConcat(float sx, float kx, float tx, float ky, float sy, float ty) {
+        final float newScaleX = sx * scaleX + kx * skewY;
+        final float newSkewX = sx * skewX + kx * scaleY;
+        final float newTransX = sx * transX + kx * transY + tx;
+        final float newSkewY = ky * scaleX + sy * skewY;
+        final float newScaleY = ky * skewX + sy * scaleY;
+        final float newTransY = ky * transX + sy * transY + ty;
+        scaleX = newScaleX;
+        skewX = newSkewX;
+        transX = newTransX;
+        skewY = newSkewY;
+        scaleY = newScaleY;
+        transY = newTransY;
+        return this;
+    }
+
+    public float mapX(float x, float y) {
+        return scaleX * x + skewX * y + transX;
+    }
+
+    public float mapY(float x, float y) {
+        return skewY * x + scaleY * y + transY;
+    }
+
+    /**
+     * Maps pairs of x and y in place
+     */
+    public void mapPoints(float[] points) {
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            final float x = points[i];
+            final float y = points[i + 1];
+            points[i] = mapX(x, y);
+            points[i + 1] = mapY(x, y);
+        }
+    }
+
+    /**
+     * Stores the bounds of the mapped source in the destination, which may be the source
+     */
+    public void mapRect(Box src, Box dst) {
+        final float x0 = mapX(src.left, src.top);
+        final float y0 = mapY(src.left, src.top);
+        final float x1 = mapX(src.right, src.top);
+        final float y1 = mapY(src.right, src.top);
+        final float x2 = mapX(src.left, src.bottom);
+        final float y2 = mapY(src.left, src.bottom);
+        final float x3 = mapX(src.right, src.bottom);
+        final float y3 = mapY(src.right, src.bottom);
+        dst.set(Math.min(Math.min(x0, x1), Math.min(x2, x3)), Math.min(Math.min(y0, y1), Math.min(y2, y3)),
+                Math.max(Math.max(x0, x1), Math.max(x2, x3)), Math.max(Math.max(y0, y1), Math.max(y2, y3)));
+    }
+
+    private static float snap(float value) {
+        return Math.abs(value) <= NEARLY_ZERO ? 0f : value;
+    }
+
+    @Override
+    public String toString() {
+        return "Affine[" + scaleX + ", " + skewX + ", " + transX + "][" + skewY + ", " + scaleY + ", " + transY + "]";
+    }
+}
@@ -0,0 +1,121 @@
+package com.soundcloud.android.crop.geometry;
+
+/**
+ * Mutable rectangle with float coordinates, the plain Java counterpart of RectF.
+ * Meant to be reused, none of the operations allocate.
+ */
+public final class Box {
+
+    public float left;
+    public float top;
+    public float right;
+    public float bottom;
+
+    public Box() {
+    }
+
+    public Box(float left, float top, float right, float bottom) {
+        set(left, top, right, bottom);
+    }
+
+    public Box set(float left, float top, float right, float bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        return this;
+    }
+
+    public Box set(Box box) {
+        return set(box.left, box.top, box.right, box.bottom);
+    }
+
+    public float width() {
+        return right - left;
+    }
+
+    public float height() {
+        return bottom - top;
+    }
+
+    public float centerX() {
+        return (left + right) * 0.5f;
+    }
+
+    public float centerY() {
+        return (top + bottom) * 0.5f;
+    }
+
+    public boolean isEmpty() {
+        return left >= right || top >= bottom;
+    }
+
+    public void offset(float dx, float dy) {
+        left += dx;
+        top += dy;
+        right += dx;
+        bottom += dy;
+    }
+
+    /**
+     * Moves the edges inwards by dx and dy, outwards for negative values
+     */
+    public void inset(float dx, float dy) {
+        left += dx;
+        top += dy;
+        right -= dx;
+        bottom -= dy;
+    }
+
+    /**
+     * Shrinks to the part inside the other box, if they overlap
+     *
+     * @return false and left unchanged if they do not overlap
+     */
+    public boolean intersect(Box box) {
+        if (left < box.right && box.left < right && top < box.bottom && box.top < bottom) {
+            left = Math.max(left, box.left);
+            top = Math.max(top, box.top);
+            right = Math.min(right, box.right);
+            bottom = Math.min(bottom, box.bottom);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rounds every edge to the nearest integer
+     */
+    public void round() {
+        left = Math.round(left);
+        top = Math.round(top);
+        right = Math.round(right);
+        bottom = Math.round(bottom);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Box)) {
+            return false;
+        }
+        Box box = (Box) o;
+        return left == box.left && top == box.top && right == box.right && bottom == box.bottom;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Float.floatToIntBits(left);
+        result = 31 * result + Float.floatToIntBits(top);
+        result = 31 * result + Float.floatToIntBits(right);
+        result = 31 * result + Float.floatToIntBits(bottom);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Box(" + left + ", " + top + ", " + right + ", " + bottom + ")";
+    }
+}
@@ -0,0 +1,171 @@
+package com.soundcloud.android.crop.geometry;
+
+/**
+ * Geometry of a crop rectangle being dragged over an image: hit testing its edges on
+ * screen, and moving or growing it in image space while keeping it inside the image.
+ * Rectangles are updated in place, nothing is allocated.
+ */
+public final class CropMath {
+
+    public static final int GROW_NONE        = (1 << 0);
+    public static final int GROW_LEFT_EDGE   = (1 << 1);
+    public static final int GROW_RIGHT_EDGE  = (1 << 2);
+    public static final int GROW_TOP_EDGE    = (1 << 3);
+    public static final int GROW_BOTTOM_EDGE = (1 << 4);
+    public static final int MOVE             = (1 << 5);
+
+    // Touches this close to an edge drag it
+    public static final float HYSTERESIS = 20f;
+    // The crop rectangle is never narrower than this, in image space
+    public static final float MIN_WIDTH = 25f;
+
+    private CropMath() {
+    }
+
+    /**
+     * Determines which edges of the rectangle on screen are hit by touching at (x, y)
+     *
+     * @return a combination of the GROW_* edges, MOVE inside the rectangle or GROW_NONE
+     */
+    public static int getHit(float left, float top, float right, float bottom, float x, float y) {
+        int retval = GROW_NONE;
+
+        // verticalCheck makes sure the position is between the top and
+        // the bottom edge (with some tolerance). Similar for horizCheck.
+        boolean verticalCheck = (y >= top - HYSTERESIS) && (y < bottom + HYSTERESIS);
+        boolean horizCheck = (x >= left - HYSTERESIS) && (x < right + HYSTERESIS);
+
+        // Check whether the position is near some edge(s)
+        if ((Math.abs(left - x) < HYSTERESIS) && verticalCheck) {
+            retval |= GROW_LEFT_EDGE;
+        }
+        if ((Math.abs(right - x) < HYSTERESIS) && verticalCheck) {
+            retval |= GROW_RIGHT_EDGE;
+        }
+        if ((Math.abs(top - y) < HYSTERESIS) && horizCheck) {
+            retval |= GROW_TOP_EDGE;
+        }
+        if ((Math.abs(bottom - y) < HYSTERESIS) && horizCheck) {
+            retval |= GROW_BOTTOM_EDGE;
+        }
+
+        // Not near any edge but inside the rectangle: move
+        if (retval == GROW_NONE && contains(left, top, right, bottom, (int) x, (int) y)) {
+            retval = MOVE;
+        }
+        return retval;
+    }
+
+    /**
+     * Applies a drag of (dx, dy) on screen to the crop rectangle
+     *
+     * @param edge         what is dragged, see {@link #getHit}
+     * @param screenWidth  width of the crop rectangle on screen
+     * @param screenHeight height of the crop rectangle on screen
+     * @param aspectRatio  width / height to keep, 0 for a free aspect ratio
+     */
+    public static void handleMotion(int edge, float dx, float dy, float screenWidth, float screenHeight,
+                                    Box crop, Box image, float aspectRatio) {
+        if (edge == MOVE) {
+            // Convert to image space before sending to moveBy()
+            moveBy(crop, image, dx * (crop.width() / screenWidth), dy * (crop.height() / screenHeight));
+        } else {
+            if (((GROW_LEFT_EDGE | GROW_RIGHT_EDGE) & edge) == 0) {
+                dx = 0;
+            }
+            if (((GROW_TOP_EDGE | GROW_BOTTOM_EDGE) & edge) == 0) {
+                dy = 0;
+            }
+
+            // Convert to image space before sending to growBy()
+            float xDelta = dx * (crop.width() / screenWidth);
+            float yDelta = dy * (crop.height() / screenHeight);
+            growBy(crop, image, (((edge & GROW_LEFT_EDGE) != 0) ? -1 : 1) * xDelta,
+                    (((edge & GROW_TOP_EDGE) != 0) ? -1 : 1) * yDelta, aspectRatio);
+        }
+    }
+
+    /**
+     * Moves the crop rectangle by (dx, dy) in image space, stopping at the image edges
+     */
+    public static void moveBy(Box crop, Box image, float dx, float dy) {
+        crop.offset(dx, dy);
+
+        // Put the cropping rectangle inside image rectangle
+        crop.offset(
+                Math.max(0, image.left - crop.left),
+                Math.max(0, image.top - crop.top));
+
+        crop.offset(
+                Math.min(0, image.right - crop.right),
+                Math.min(0, image.bottom - crop.bottom));
+    }
+
+    /**
+     * Grows the crop rectangle by (dx, dy) on each side in image space
+     *
+     * @param aspectRatio width / height to keep, 0 for a free aspect ratio
+     */
+    public static void growBy(Box crop, Box image, float dx, float dy, float aspectRatio) {
+        final boolean maintainAspectRatio = aspectRatio > 0;
+        if (maintainAspectRatio) {
+            if (dx != 0) {
+                dy = dx / aspectRatio;
+            } else if (dy != 0) {
+                dx = dy * aspectRatio;
+            }
+        }
+
+        // Don't let the cropping rectangle grow too fast.
+        // Grow at most half of the difference between the image rectangle and
+        // the cropping rectangle.
+        if (dx > 0F && crop.width() + 2 * dx > image.width()) {
+            dx = (image.width() - crop.width()) / 2F;
+            if (maintainAspectRatio) {
+                dy = dx / aspectRatio;
+            }
+        }
+        if (dy > 0F && crop.height() + 2 * dy > image.height()) {
+            dy = (image.height() - crop.height()) / 2F;
+            if (maintainAspectRatio) {
+                dx = dy * aspectRatio;
+            }
+        }
+
+        crop.inset(-dx, -dy);
+
+        // Don't let the cropping rectangle shrink too fast
+        if (crop.width() < MIN_WIDTH) {
+            crop.inset(-(MIN_WIDTH - crop.width()) / 2F, 0F);
+        }
+        float heightCap = maintainAspectRatio ? (MIN_WIDTH / aspectRatio) : MIN_WIDTH;
+        if (crop.height() < heightCap) {
+            crop.inset(0F, -(heightCap - crop.height()) / 2F);
+        }
+
+        // Put the cropping rectangle inside the image rectangle
+        if (crop.left < image.left) {
+            crop.offset(image.left - crop.left, 0F);
+        } else if (crop.right > image.right) {
+            crop.offset(-(crop.right - image.right), 0F);
+        }
+        if (crop.top < image.top) {
+            crop.offset(0F, image.top - crop.top);
+        } else if (crop.bottom > image.bottom) {
+            crop.offset(0F, -(crop.bottom - image.bottom));
+        }
+    }
+
+    /**
+     * Maps the crop rectangle from image space to whole screen pixels
+     */
+    public static void computeLayout(Affine matrix, Box crop, Box screen) {
+        matrix.mapRect(crop, screen);
+        screen.round();
+    }
+
+    // Same as Rect#contains, with integer coordinates
+    private static boolean contains(float left, float top, float right, float bottom, int x, int y) {
+        return left < right && top < bottom && x >= left && x < right && y >= top && y < bottom;
+    }
+}
@@ -0,0 +1,101 @@
+package com.soundcloud.android.crop.geometry;
+
+/**
+ * Sizes of a crop on its way from the source to the output: the crop area, the size it is
+ * saved at, the sample size it is decoded with and the transform applied after decoding.
+ */
+public final class CropSize {
+
+    private CropSize() {
+    }
+
+    /**
+     * Sets the largest rectangle with the aspect ratio in the middle of the image
+     */
+    public static void centerAspect(int width, int height, int aspectX, int aspectY, Box out) {
+        int cropWidth = width;
+        int cropHeight = (int) ((long) width * aspectY / aspectX);
+        if (cropHeight > height) {
+            cropHeight = height;
+            cropWidth = (int) ((long) height * aspectX / aspectY);
+        }
+        final int left = (width - cropWidth) / 2;
+        final int top = (height - cropHeight) / 2;
+        out.set(left, top, left + cropWidth, top + cropHeight);
+    }
+
+    /**
+     * Sets the size of a crop scaled down to fit the max size, if there is one
+     */
+    public static void fitOutputSize(int width, int height, int maxWidth, int maxHeight, Size out) {
+        int outWidth = width;
+        int outHeight = height;
+        if (maxWidth > 0 && maxHeight > 0 && (width > maxWidth || height > maxHeight)) {
+            float ratio = (float) width / (float) height;
+            if ((float) maxWidth / (float) maxHeight > ratio) {
+                outHeight = maxHeight;
+                outWidth = (int) ((float) maxHeight * ratio + .5f);
+            } else {
+                outWidth = maxWidth;
+                outHeight = (int) ((float) maxWidth / ratio + .5f);
+            }
+        }
+        out.set(outWidth, outHeight);
+    }
+
+    /**
+     * Largest power of two sample size that still decodes a region of the given size
+     * to at least the requested output size
+     */
+    public static int regionSampleSize(int width, int height, int outWidth, int outHeight) {
+        int sampleSize = 1;
+        if (outWidth <= 0 || outHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize << 1) >= outWidth && height / (sampleSize << 1) >= outHeight) {
+            sampleSize = sampleSize << 1;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Sample size of the preview of an image: only the pixels the view shows, and no more
+     * than the max size in either direction
+     *
+     * @param width    width of the stored image
+     * @param height   height of the stored image
+     * @param rotation rotation of the stored image
+     * @param maxSize  the largest bitmap the view can draw
+     */
+    public static int previewSampleSize(int width, int height, int rotation, int viewWidth, int viewHeight,
+                                        int maxSize) {
+        final boolean orientationChanged = Rotation.isTransposed(rotation);
+        final int displayedWidth = orientationChanged ? height : width;
+        final int displayedHeight = orientationChanged ? width : height;
+        final float fitScale = Math.min((float) viewWidth / displayedWidth, (float) viewHeight / displayedHeight);
+
+        int sampleSize = 1;
+        while ((sampleSize << 1) * fitScale <= 1f) {
+            sampleSize = sampleSize << 1;
+        }
+        while (height / sampleSize > maxSize || width / sampleSize > maxSize) {
+            sampleSize = sampleSize << 1;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Sets the transform that scales a decoded region of the given size down to the maximum
+     * size, then rotates it
+     */
+    public static void setTransform(Affine matrix, int width, int height, int maxWidth, int maxHeight,
+                                    int rotation) {
+        matrix.reset();
+        if (width > maxWidth || height > maxHeight) {
+            matrix.postScale((float) maxWidth / width, (float) maxHeight / height);
+        }
+        if (rotation != 0) {
+            matrix.postRotate(rotation);
+        }
+    }
+}
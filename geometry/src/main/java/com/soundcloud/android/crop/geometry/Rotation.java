@@ -0,0 +1,60 @@
+package com.soundcloud.android.crop.geometry;
+
+/**
+ * Maps rectangles between an image as it is stored and as it is displayed after its Exif
+ * rotation. Rotations are clockwise multiples of 90 degrees.
+ */
+public final class Rotation {
+
+    private Rotation() {
+    }
+
+    /**
+     * @return true if the rotation swaps width and height
+     */
+    public static boolean isTransposed(int rotation) {
+        return (rotation / 90) % 2 != 0;
+    }
+
+    /**
+     * Maps a rectangle of the displayed image to the stored orientation of the source
+     *
+     * @param rect   rectangle in the rotated image
+     * @param width  width of the stored image
+     * @param height height of the stored image
+     * @param out    receives the rectangle in the stored image, may be rect
+     */
+    public static void toSource(Box rect, int rotation, int width, int height, Box out) {
+        final float left = rect.left;
+        final float top = rect.top;
+        final float right = rect.right;
+        final float bottom = rect.bottom;
+        switch (((rotation % 360) + 360) % 360) {
+            case 90:
+                out.set(top, height - right, bottom, height - left);
+                break;
+            case 180:
+                out.set(width - right, height - bottom, width - left, height - top);
+                break;
+            case 270:
+                out.set(width - bottom, left, width - top, right);
+                break;
+            default:
+                out.set(left, top, right, bottom);
+                break;
+        }
+    }
+
+    /**
+     * Maps a rectangle of the stored image to the displayed image, the inverse of
+     * {@link #toSource}
+     *
+     * @param width  width of the stored image
+     * @param height height of the stored image
+     */
+    public static void toDisplayed(Box rect, int rotation, int width, int height, Box out) {
+        final int normalized = ((rotation % 360) + 360) % 360;
+        toSource(rect, 360 - normalized, isTransposed(normalized) ? height : width,
+                isTransposed(normalized) ? width : height, out);
+    }
+}
@@ -0,0 +1,46 @@
+package com.soundcloud.android.crop.geometry;
+
+/**
+ * Mutable size in whole pixels, for sizes that have no position, like the size a crop is
+ * saved at. Meant to be reused like {@link Box}.
+ */
+public final class Size {
+
+    public int width;
+    public int height;
+
+    public Size() {
+    }
+
+    public Size(int width, int height) {
+        set(width, height);
+    }
+
+    public Size set(int width, int height) {
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Size)) {
+            return false;
+        }
+        Size size = (Size) o;
+        return width == size.width && height == size.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * width + height;
+    }
+
+    @Override
+    public String toString() {
+        return "Size(" + width + ", " + height + ")";
+    }
+}
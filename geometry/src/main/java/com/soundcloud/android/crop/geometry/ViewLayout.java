@@ -0,0 +1,93 @@
+package com.soundcloud.android.crop.geometry;
+
+/**
+ * Layout of an image in the crop view: the base transform that fits it into the view,
+ * and the pans that keep it, and the crop rectangle, in view.
+ */
+public final class ViewLayout {
+
+    // Up-scaling is limited, otherwise a small icon would look bad
+    public static final float MAX_FIT_SCALE = 3f;
+
+    private ViewLayout() {
+    }
+
+    /**
+     * Sets the transform that shows the whole image centered in the view
+     *
+     * @param width    width of the image as displayed, after its rotation
+     * @param height   height of the image as displayed, after its rotation
+     * @param rotation rotation of the stored image, 0 to leave it unrotated
+     * @param rawWidth width of the stored image, before its rotation
+     * @param rawHeight height of the stored image, before its rotation
+     */
+    public static void setBaseMatrix(Affine matrix, float viewWidth, float viewHeight, float width, float height,
+                                     int rotation, int rawWidth, int rawHeight) {
+        setBaseMatrix(matrix, viewWidth, viewHeight, width, height, rotation, rawWidth, rawHeight, width, height);
+    }
+
+    /**
+     * Sets the transform that shows the whole image centered in the view, for a bitmap that is
+     * a sampled preview of a larger image. The image is fitted by its own size, so previews of
+     * any sample size of the same image land on the same place on screen.
+     *
+     * @param contentWidth  width of the image the bitmap is a preview of, after its rotation
+     * @param contentHeight height of the image the bitmap is a preview of, after its rotation
+     */
+    public static void setBaseMatrix(Affine matrix, float viewWidth, float viewHeight, float width, float height,
+                                     int rotation, int rawWidth, int rawHeight,
+                                     float contentWidth, float contentHeight) {
+        float widthScale = Math.min(viewWidth / contentWidth, MAX_FIT_SCALE);
+        float heightScale = Math.min(viewHeight / contentHeight, MAX_FIT_SCALE);
+        float scale = Math.min(widthScale, heightScale);
+
+        matrix.setRotate(rotation, rawWidth, rawHeight);
+        matrix.postScale(contentWidth / width * scale, contentHeight / height * scale);
+        matrix.postTranslate((viewWidth - contentWidth * scale) / 2F, (viewHeight - contentHeight * scale) / 2F);
+    }
+
+    /**
+     * Centers an image smaller than the view along one axis, and pans an image larger than
+     * the view back in if it is translated out of it
+     *
+     * @param start    start of the image on screen
+     * @param end      end of the image on screen
+     * @param viewSize size of the view along the same axis
+     * @return the translation to apply
+     */
+    public static float centerDelta(float start, float end, float viewSize) {
+        final float size = end - start;
+        if (size < viewSize) {
+            return (viewSize - size) / 2 - start;
+        } else if (start > 0) {
+            return -start;
+        } else if (end < viewSize) {
+            return viewSize - end;
+        }
+        return 0f;
+    }
+
+    /**
+     * @param start     start of the crop rectangle on screen
+     * @param end       end of the crop rectangle on screen
+     * @param viewStart start of the view
+     * @param viewEnd   end of the view
+     * @return the pan along one axis that brings the start, or else the end, of the crop
+     * rectangle into view
+     */
+    public static int panDelta(int start, int end, int viewStart, int viewEnd) {
+        final int startDelta = Math.max(0, viewStart - start);
+        final int endDelta = Math.min(0, viewEnd - end);
+        return startDelta != 0 ? startDelta : endDelta;
+    }
+
+    /**
+     * @return the zoom that makes the crop rectangle take up 60% of the view, at least 1
+     */
+    public static float zoomToFit(float cropWidth, float cropHeight, float viewWidth, float viewHeight,
+                                  float currentScale) {
+        float z1 = viewWidth / cropWidth * .6f;
+        float z2 = viewHeight / cropHeight * .6f;
+        return Math.max(1f, Math.min(z1, z2) * currentScale);
+    }
+}
@@ -0,0 +1,68 @@
+package com.soundcloud.android.crop.geometry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AffineTest {
+
+    private static final float DELTA = 1e-4f;
+
+    @Test
+    public void valuesRoundTrip() {
+        float[] values = {2f, 0.5f, 10f, -0.5f, 3f, 20f, 0f, 0f, 1f};
+
+        float[] copy = new Affine().setValues(values).getValues(new float[9]);
+
+        assertArrayEquals(values, copy, 0f);
+    }
+
+    @Test
+    public void rotatesClockwiseOnScreen() {
+        Affine affine = new Affine().postRotate(90);
+
+        assertEquals(0f, affine.mapX(1f, 0f), 0f);
+        assertEquals(1f, affine.mapY(1f, 0f), 0f);
+    }
+
+    @Test
+    public void rotatedImageStartsAtOrigin() {
+        Box bounds = new Box(0, 0, 400, 300);
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            new Affine().setRotate(rotation, 400, 300).mapRect(bounds, bounds);
+
+            boolean transposed = Rotation.isTransposed(rotation);
+            assertEquals(new Box(0, 0, transposed ? 300 : 400, transposed ? 400 : 300), bounds);
+            bounds.set(0, 0, 400, 300);
+        }
+    }
+
+    @Test
+    public void postConcatAppliesOtherTransformAfter() {
+        Affine scale = new Affine().postScale(2f, 2f);
+        Affine translate = new Affine().postTranslate(5f, 7f);
+
+        scale.postConcat(translate);
+
+        assertEquals(7f, scale.mapX(1f, 1f), DELTA);
+        assertEquals(9f, scale.mapY(1f, 1f), DELTA);
+    }
+
+    @Test
+    public void scalesAroundPivot() {
+        Affine affine = new Affine().postScale(2f, 2f, 10f, 10f);
+
+        assertEquals(10f, affine.mapX(10f, 10f), DELTA);
+        assertEquals(30f, affine.mapX(20f, 10f), DELTA);
+    }
+
+    @Test
+    public void mapsRectToBoundsInPlace() {
+        Box box = new Box(0, 0, 10, 20);
+
+        new Affine().postRotate(90).mapRect(box, box);
+
+        assertEquals(new Box(-20, 0, 0, 10), box);
+    }
+}
@@ -0,0 +1,101 @@
+package com.soundcloud.android.crop.geometry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class CropMathTest {
+
+    private static final float DELTA = 1e-3f;
+
+    private final Box image = new Box(0, 0, 1000, 800);
+
+    @Test
+    public void hitsEdgesCornersAndInside() {
+        // Edge hits keep the GROW_NONE bit they start from
+        assertEquals(CropMath.GROW_NONE | CropMath.GROW_LEFT_EDGE, CropMath.getHit(100, 100, 300, 300, 105, 200));
+        assertEquals(CropMath.GROW_NONE | CropMath.GROW_RIGHT_EDGE | CropMath.GROW_BOTTOM_EDGE,
+                CropMath.getHit(100, 100, 300, 300, 295, 310));
+        assertEquals(CropMath.MOVE, CropMath.getHit(100, 100, 300, 300, 200, 200));
+        assertEquals(CropMath.GROW_NONE, CropMath.getHit(100, 100, 300, 300, 500, 500));
+    }
+
+    @Test
+    public void movingStopsAtImageEdges() {
+        Box crop = new Box(100, 100, 300, 300);
+
+        CropMath.moveBy(crop, image, -500, 2000);
+
+        assertEquals(new Box(0, 600, 200, 800), crop);
+    }
+
+    @Test
+    public void growingKeepsAspectRatio() {
+        Box crop = new Box(100, 100, 300, 200);
+
+        CropMath.growBy(crop, image, 50, 0, 2f);
+
+        assertEquals(2f, crop.width() / crop.height(), DELTA);
+        assertEquals(300f, crop.width(), DELTA);
+    }
+
+    @Test
+    public void shrinkingStopsAtMinimumWidth() {
+        Box crop = new Box(100, 100, 300, 300);
+
+        CropMath.growBy(crop, image, -500, 0, 0f);
+
+        assertEquals(CropMath.MIN_WIDTH, crop.width(), DELTA);
+    }
+
+    @Test
+    public void motionIsConvertedToImageSpace() {
+        Box crop = new Box(100, 100, 300, 300);
+
+        // Shown at half size, so a drag of 10 on screen moves 20 in the image
+        CropMath.handleMotion(CropMath.MOVE, 10, 0, 100, 100, crop, image, 0f);
+
+        assertEquals(120f, crop.left, DELTA);
+    }
+
+    @Test
+    public void layoutIsRoundedToScreenPixels() {
+        Box screen = new Box();
+
+        CropMath.computeLayout(new Affine().postScale(0.333f, 0.333f), new Box(10, 10, 20, 20), screen);
+
+        assertEquals(new Box(3, 3, 7, 7), screen);
+    }
+
+    @Test
+    public void randomDragsKeepCropInsideImage() {
+        Random random = new Random(42);
+        int[] edges = {
+                CropMath.MOVE, CropMath.GROW_LEFT_EDGE, CropMath.GROW_RIGHT_EDGE, CropMath.GROW_TOP_EDGE,
+                CropMath.GROW_BOTTOM_EDGE, CropMath.GROW_LEFT_EDGE | CropMath.GROW_TOP_EDGE,
+                CropMath.GROW_RIGHT_EDGE | CropMath.GROW_BOTTOM_EDGE
+        };
+        for (int run = 0; run < 200; run++) {
+            boolean fixedAspect = random.nextBoolean();
+            Box crop = new Box(200, 200, 600, 500);
+            float aspect = fixedAspect ? crop.width() / crop.height() : 0f;
+            for (int step = 0; step < 500; step++) {
+                int edge = edges[random.nextInt(edges.length)];
+                float dx = (random.nextFloat() - 0.5f) * 200;
+                float dy = (random.nextFloat() - 0.5f) * 200;
+                CropMath.handleMotion(edge, dx, dy, crop.width(), crop.height(), crop, image, aspect);
+
+                assertFalse(crop.isEmpty());
+                assertTrue(crop.toString(), crop.left >= image.left - DELTA && crop.top >= image.top - DELTA);
+                assertTrue(crop.toString(), crop.right <= image.right + DELTA && crop.bottom <= image.bottom + DELTA);
+                if (fixedAspect) {
+                    assertEquals(aspect, crop.width() / crop.height(), 0.01f);
+                }
+            }
+        }
+    }
+}
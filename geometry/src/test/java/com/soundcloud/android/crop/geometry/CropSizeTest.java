@@ -0,0 +1,89 @@
+package com.soundcloud.android.crop.geometry;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CropSizeTest {
+
+    private static final float DELTA = 1e-3f;
+
+    @Test
+    public void centersLargestAreaWithAspect() {
+        Box crop = new Box();
+
+        CropSize.centerAspect(4000, 3000, 1, 1, crop);
+        assertEquals(new Box(500, 0, 3500, 3000), crop);
+
+        CropSize.centerAspect(3000, 4000, 16, 9, crop);
+        assertEquals(new Box(0, 1156, 3000, 2843), crop);
+    }
+
+    @Test
+    public void fitsOutputIntoMaxSize() {
+        Size size = new Size();
+
+        CropSize.fitOutputSize(4000, 3000, 1000, 1000, size);
+        assertEquals(new Size(1000, 750), size);
+
+        CropSize.fitOutputSize(3000, 4000, 1000, 1000, size);
+        assertEquals(new Size(750, 1000), size);
+    }
+
+    @Test
+    public void keepsSizeWithoutOrBelowMaxSize() {
+        Size size = new Size();
+
+        CropSize.fitOutputSize(4000, 3000, 0, 0, size);
+        assertEquals(new Size(4000, 3000), size);
+
+        CropSize.fitOutputSize(400, 300, 1000, 1000, size);
+        assertEquals(new Size(400, 300), size);
+    }
+
+    @Test
+    public void samplesDownToAtLeastOutputSize() {
+        assertEquals(1, CropSize.regionSampleSize(4000, 3000, 0, 0));
+        assertEquals(1, CropSize.regionSampleSize(4000, 3000, 2001, 1000));
+        assertEquals(2, CropSize.regionSampleSize(4000, 3000, 2000, 1500));
+        assertEquals(4, CropSize.regionSampleSize(4000, 3000, 1000, 750));
+        assertEquals(4, CropSize.regionSampleSize(4000, 3000, 999, 700));
+    }
+
+    @Test
+    public void samplesPreviewDownToView() {
+        assertEquals(2, CropSize.previewSampleSize(4000, 3000, 0, 1080, 1776, 4096));
+        // Fits the width of the rotated image into the view
+        assertEquals(2, CropSize.previewSampleSize(4000, 3000, 90, 1080, 1776, 4096));
+        assertEquals(1, CropSize.previewSampleSize(1000, 750, 0, 1080, 1776, 4096));
+    }
+
+    @Test
+    public void samplesPreviewDownToMaxSize() {
+        assertEquals(4, CropSize.previewSampleSize(16000, 1000, 0, 16000, 16000, 4096));
+    }
+
+    @Test
+    public void scalesThenRotatesDecodedRegion() {
+        Affine matrix = new Affine();
+        Box bounds = new Box(0, 0, 2000, 1000);
+
+        CropSize.setTransform(matrix, 2000, 1000, 1000, 500, 90);
+        matrix.mapRect(bounds, bounds);
+
+        assertEquals(-500f, bounds.left, DELTA);
+        assertEquals(0f, bounds.top, DELTA);
+        assertEquals(0f, bounds.right, DELTA);
+        assertEquals(1000f, bounds.bottom, DELTA);
+    }
+
+    @Test
+    public void leavesSmallRegionUnscaled() {
+        Affine matrix = new Affine();
+
+        CropSize.setTransform(matrix, 500, 400, 1000, 1000, 0);
+
+        assertEquals(1f, matrix.getScaleX(), DELTA);
+        assertEquals(1f, matrix.getScaleY(), DELTA);
+    }
+}
@@ -0,0 +1,58 @@
+package com.soundcloud.android.crop.geometry;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class RotationTest {
+
+    @Test
+    public void mapsToStoredOrientation() {
+        Box out = new Box();
+
+        Rotation.toSource(new Box(10, 20, 110, 70), 90, 400, 300, out);
+
+        assertEquals(new Box(20, 190, 70, 290), out);
+    }
+
+    @Test
+    public void matchesRotatingTheRectangleBack() {
+        Random random = new Random(42);
+        Box rect = new Box();
+        Box expected = new Box();
+        Box actual = new Box();
+        for (int i = 0; i < 1000; i++) {
+            int width = 1 + random.nextInt(5000);
+            int height = 1 + random.nextInt(5000);
+            int rotation = 90 * random.nextInt(4);
+            int displayedWidth = Rotation.isTransposed(rotation) ? height : width;
+            int displayedHeight = Rotation.isTransposed(rotation) ? width : height;
+            int left = random.nextInt(displayedWidth);
+            int top = random.nextInt(displayedHeight);
+            rect.set(left, top, left + 1 + random.nextInt(displayedWidth - left),
+                    top + 1 + random.nextInt(displayedHeight - top));
+
+            // What the crop screen did with a rotation matrix
+            new Affine().postRotate(-rotation).mapRect(rect, expected);
+            expected.offset(expected.left < 0 ? width : 0, expected.top < 0 ? height : 0);
+            Rotation.toSource(rect, rotation, width, height, actual);
+
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void displayedIsInverseOfSource() {
+        Box rect = new Box(10, 20, 110, 70);
+        Box source = new Box();
+        Box displayed = new Box();
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            Rotation.toSource(rect, rotation, 400, 300, source);
+            Rotation.toDisplayed(source, rotation, 400, 300, displayed);
+
+            assertEquals(rect, displayed);
+        }
+    }
+}
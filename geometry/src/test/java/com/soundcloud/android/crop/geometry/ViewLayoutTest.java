@@ -0,0 +1,80 @@
+package com.soundcloud.android.crop.geometry;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ViewLayoutTest {
+
+    private static final float DELTA = 1e-3f;
+
+    @Test
+    public void fitsImageCenteredInView() {
+        Affine matrix = new Affine();
+        Box bounds = new Box(0, 0, 2000, 1000);
+
+        ViewLayout.setBaseMatrix(matrix, 1000, 1000, 2000, 1000, 0, 2000, 1000);
+        matrix.mapRect(bounds, bounds);
+
+        assertEquals(new Box(0, 250, 1000, 750), bounds);
+    }
+
+    @Test
+    public void limitsUpScaling() {
+        Affine matrix = new Affine();
+
+        ViewLayout.setBaseMatrix(matrix, 1000, 1000, 10, 10, 0, 10, 10);
+
+        assertEquals(ViewLayout.MAX_FIT_SCALE, matrix.getScaleX(), DELTA);
+    }
+
+    @Test
+    public void fitsRotatedImage() {
+        Affine matrix = new Affine();
+        Box bounds = new Box(0, 0, 2000, 1000);
+
+        ViewLayout.setBaseMatrix(matrix, 1000, 1000, 1000, 2000, 90, 2000, 1000);
+        matrix.mapRect(bounds, bounds);
+
+        assertEquals(250f, bounds.left, DELTA);
+        assertEquals(0f, bounds.top, DELTA);
+        assertEquals(750f, bounds.right, DELTA);
+        assertEquals(1000f, bounds.bottom, DELTA);
+    }
+
+    @Test
+    public void fitsPreviewsOfAnySampleSizeToTheSamePlace() {
+        Affine coarse = new Affine();
+        Affine sharp = new Affine();
+        Box coarseBounds = new Box(0, 0, 125, 100);
+        Box sharpBounds = new Box(0, 0, 500, 400);
+
+        // Fitted by its own size, the coarse preview would be capped at MAX_FIT_SCALE
+        ViewLayout.setBaseMatrix(coarse, 1080, 1776, 100, 125, 90, 125, 100, 800, 1000);
+        ViewLayout.setBaseMatrix(sharp, 1080, 1776, 400, 500, 90, 500, 400, 800, 1000);
+        coarse.mapRect(coarseBounds, coarseBounds);
+        sharp.mapRect(sharpBounds, sharpBounds);
+
+        assertEquals(sharpBounds.left, coarseBounds.left, DELTA);
+        assertEquals(sharpBounds.top, coarseBounds.top, DELTA);
+        assertEquals(sharpBounds.right, coarseBounds.right, DELTA);
+        assertEquals(sharpBounds.bottom, coarseBounds.bottom, DELTA);
+        assertEquals(1080f, sharpBounds.width(), DELTA);
+    }
+
+    @Test
+    public void centersSmallImageAndPansLargeImageBack() {
+        assertEquals(25f, ViewLayout.centerDelta(0, 50, 100), DELTA);
+        assertEquals(-10f, ViewLayout.centerDelta(10, 210, 100), DELTA);
+        assertEquals(20f, ViewLayout.centerDelta(-120, 80, 100), DELTA);
+        assertEquals(0f, ViewLayout.centerDelta(-50, 150, 100), DELTA);
+    }
+
+    @Test
+    public void pansStartOfCropIntoViewFirst() {
+        assertEquals(10, ViewLayout.panDelta(-10, 50, 0, 100));
+        assertEquals(-20, ViewLayout.panDelta(30, 120, 0, 100));
+        assertEquals(10, ViewLayout.panDelta(-10, 120, 0, 100));
+        assertEquals(0, ViewLayout.panDelta(10, 90, 0, 100));
+    }
+}
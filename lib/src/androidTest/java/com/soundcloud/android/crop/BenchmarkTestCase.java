@@ -0,0 +1,38 @@
+package com.soundcloud.android.crop;
+
+import android.os.Build;
+import android.os.Bundle;
+import android.test.InstrumentationTestRunner;
+
+/**
+ * Tests that also time the code on a device. The timing tests, named testBenchmark*, take
+ * long and only log their results, so they are skipped unless asked for:
+ * <pre>
+ * adb shell am instrument -w -e benchmarks true com.soundcloud.android.crop.test/android.test.InstrumentationTestRunner
+ * </pre>
+ */
+public abstract class BenchmarkTestCase extends BaseTestCase {
+
+    private static final String BENCHMARK_PREFIX = "testBenchmark";
+    private static final String ARGUMENT_BENCHMARKS = "benchmarks";
+    private static final int VERSION_CODES_JELLY_BEAN_MR2 = 18;
+
+    @Override
+    protected void runTest() throws Throwable {
+        if (getName().startsWith(BENCHMARK_PREFIX) && !isBenchmarking()) {
+            Log.d("Skipped " + getName() + ", run with -e " + ARGUMENT_BENCHMARKS + " true");
+            return;
+        }
+        super.runTest();
+    }
+
+    private boolean isBenchmarking() {
+        // The arguments of the runner can only be read from Jelly Bean MR2 on
+        if (Build.VERSION.SDK_INT < VERSION_CODES_JELLY_BEAN_MR2
+                || !(getInstrumentation() instanceof InstrumentationTestRunner)) {
+            return false;
+        }
+        final Bundle arguments = ((InstrumentationTestRunner) getInstrumentation()).getArguments();
+        return arguments != null && Boolean.parseBoolean(arguments.getString(ARGUMENT_BENCHMARKS));
+    }
+}
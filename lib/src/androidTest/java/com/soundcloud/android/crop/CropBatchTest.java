@@ -0,0 +1,97 @@
+package com.soundcloud.android.crop;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CropBatchTest extends BaseTestCase {
+
+    private static final int COUNT = 6;
+
+    private Context context;
+    private File source;
+    private final List<File> destinations = new ArrayList<>();
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        context = getInstrumentation().getTargetContext();
+        source = new File(context.getCacheDir(), "batch_source.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(800, 600, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.BLUE);
+        FileOutputStream out = new FileOutputStream(source);
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        out.close();
+        bitmap.recycle();
+        for (int i = 0; i < COUNT; i++) {
+            destinations.add(new File(context.getCacheDir(), "batch_" + i + ".jpg"));
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        source.delete();
+        for (File destination : destinations) {
+            destination.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testEmitsEveryCropWithStats() throws Exception {
+        CropBatch batch = CropBatch.with(context).withMaxSize(200, 200);
+        for (File destination : destinations) {
+            batch.add(Uri.fromFile(source), Uri.fromFile(destination), 1, 1);
+        }
+
+        List<CropBatch.Item> items = batch.toObservable().toList().toBlocking().single();
+
+        assertThat(items).hasSize(COUNT);
+        for (CropBatch.Item item : items) {
+            assertThat(item.getError()).isNull();
+            assertThat(item.getResult().getWidth()).isEqualTo(200);
+            assertThat(item.getResult().getHeight()).isEqualTo(200);
+        }
+        CropBatch.Stats stats = items.get(COUNT - 1).getStats();
+        assertThat(stats.getCompleted()).isEqualTo(COUNT);
+        assertThat(stats.getFailed()).isEqualTo(0);
+        assertThat(stats.getPeakBytes()).isGreaterThan(0);
+        Log.d("Batch " + stats);
+    }
+
+    public void testReportsFailedCropsAndCarriesOn() throws Exception {
+        List<CropBatch.Item> items = CropBatch.with(context)
+                .add(Uri.fromFile(new File(context.getCacheDir(), "missing.jpg")), Uri.fromFile(destinations.get(0)), 1, 1)
+                .add(Uri.fromFile(source), Uri.fromFile(destinations.get(1)), new Rect(0, 0, 100, 100))
+                .toObservable().toList().toBlocking().single();
+
+        assertThat(items).hasSize(2);
+        assertThat(items.get(1).getStats().getFailed()).isEqualTo(1);
+    }
+
+    public void testReservedBytesAreHeldUntilReleased() {
+        MemoryBudget memoryBudget = new MemoryBudget(1000);
+
+        assertThat(memoryBudget.reserve(600)).isTrue();
+        assertThat(memoryBudget.fits(600)).isFalse();
+        assertThat(memoryBudget.reserve(600)).isFalse();
+        memoryBudget.release(1200);
+        assertThat(memoryBudget.getAvailableBytes()).isEqualTo(1000);
+    }
+
+    public void testThreadsBoundedByMemoryBudget() {
+        long budget = 64L * 1024 * 1024;
+
+        assertThat(CropBatch.getThreads(budget, 8, 512, 512)).isEqualTo(8);
+        assertThat(CropBatch.getThreads(budget, 8, 1024, 1024)).isEqualTo(3);
+        assertThat(CropBatch.getThreads(budget, 8, 8192, 8192)).isEqualTo(1);
+    }
+}
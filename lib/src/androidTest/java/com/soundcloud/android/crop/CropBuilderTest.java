@@ -11,6 +11,8 @@ import android.content.Intent;
 import android.net.Uri;
 import android.provider.MediaStore;
 
+import java.util.List;
+
 public class CropBuilderTest extends BaseTestCase {
 
     private Activity activity;
@@ -63,6 +65,90 @@ public class CropBuilderTest extends BaseTestCase {
         assertThat(intent.getIntExtra("max_y", 0)).isEqualTo(300);
     }
 
+    public void testTargetBytesSetAsExtras() {
+        builder.withTargetBytes(200 * 1024);
+
+        Intent intent = builder.getIntent(activity);
+
+        assertThat(intent.getLongExtra("target_bytes", 0)).isEqualTo(200 * 1024);
+    }
+
+    public void testOutputFormatSetAsExtras() {
+        builder.withOutputFormat(OutputFormat.WEBP_LOSSLESS, OutputFormat.Profile.FAST);
+
+        Intent intent = builder.getIntent(activity);
+
+        assertThat(intent.getStringExtra("output_format")).isEqualTo("WEBP_LOSSLESS");
+        assertThat(intent.getStringExtra("output_profile")).isEqualTo("FAST");
+    }
+
+    public void testOutputsSetAsExtras() {
+        builder.withOutputs(new CropOutput(Uri.parse("file:///small.jpg"), 320),
+                new CropOutput(Uri.parse("file:///tiny.webp"), 96, OutputFormat.WEBP, 80));
+
+        Intent intent = builder.getIntent(activity);
+        List<CropOutput> outputs = CropOutput.fromExtras(intent.getExtras());
+
+        assertThat(outputs).hasSize(2);
+        assertThat(outputs.get(0).getUri()).isEqualTo(Uri.parse("file:///small.jpg"));
+        assertThat(outputs.get(0).getMaxSize()).isEqualTo(320);
+        assertThat(outputs.get(1).getFormat()).isEqualTo(OutputFormat.WEBP);
+        assertThat(outputs.get(1).getQuality()).isEqualTo(80);
+    }
+
+    public void testRejectsOutputsWithTargetBytes() {
+        builder.withOutputs(new CropOutput(Uri.parse("file:///small.jpg"), 320)).withTargetBytes(100000);
+
+        try {
+            builder.getIntent(activity);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            assertThat(expected.getMessage()).contains("byte budget");
+        }
+    }
+
+    public void testRejectsRegionsWithMetadataOnly() {
+        builder.withRegions(new CropRegion("cover", Uri.parse("file:///cover.jpg"), 16, 9)).asMetadataOnly();
+
+        try {
+            builder.getIntent(activity);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            assertThat(expected.getMessage()).contains("metadata only");
+        }
+    }
+
+    public void testRegionsSetAsExtras() {
+        builder.withRegions(new CropRegion("cover", Uri.parse("file:///cover.jpg"), 16, 9),
+                new CropRegion("avatar", Uri.parse("file:///avatar.jpg"), 1, 1, 200, 200));
+
+        Intent intent = builder.getIntent(activity);
+        List<CropRegion> regions = CropRegion.fromExtras(intent.getExtras());
+
+        assertThat(regions).hasSize(2);
+        assertThat(regions.get(0).getName()).isEqualTo("cover");
+        assertThat(regions.get(0).getAspectX()).isEqualTo(16);
+        assertThat(regions.get(0).getAspectY()).isEqualTo(9);
+        assertThat(regions.get(1).getUri()).isEqualTo(Uri.parse("file:///avatar.jpg"));
+        assertThat(regions.get(1).getMaxWidth()).isEqualTo(200);
+    }
+
+    public void testLosslessSetAsExtras() {
+        builder.asLossless();
+
+        Intent intent = builder.getIntent(activity);
+
+        assertThat(intent.getBooleanExtra("lossless", false)).isTrue();
+    }
+
+    public void testMetadataOnlySetAsExtras() {
+        builder.asMetadataOnly();
+
+        Intent intent = builder.getIntent(activity);
+
+        assertThat(intent.getBooleanExtra("metadata_only", false)).isTrue();
+    }
+
     public void testBuildsIntentWithMultipleOptions() {
         builder.asSquare().withMaxSize(200, 200);
 
@@ -0,0 +1,119 @@
+package com.soundcloud.android.crop;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+public class CropProcessorTest extends BaseTestCase {
+
+    private Context context;
+    private File source;
+    private File destination;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        context = getInstrumentation().getTargetContext();
+        source = new File(context.getCacheDir(), "processor_source.jpg");
+        destination = new File(context.getCacheDir(), "processor_destination");
+        Bitmap bitmap = Bitmap.createBitmap(800, 600, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.RED);
+        FileOutputStream out = new FileOutputStream(source);
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        out.close();
+        bitmap.recycle();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        source.delete();
+        destination.delete();
+        super.tearDown();
+    }
+
+    public void testCropsAndScalesDownToMaxSize() throws Exception {
+        CropProcessor.Result result = CropProcessor.of(context, Uri.fromFile(source), Uri.fromFile(destination))
+                .withRect(new Rect(100, 100, 500, 400))
+                .withMaxSize(200, 200)
+                .process();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(destination.getPath(), options);
+        assertThat(result.getWidth()).isEqualTo(200);
+        assertThat(result.getHeight()).isEqualTo(150);
+        assertThat(options.outWidth).isEqualTo(200);
+        assertThat(options.outHeight).isEqualTo(150);
+        assertThat(result.getBytes()).isEqualTo(destination.length());
+    }
+
+    public void testSavesWholeImageWithoutRect() throws Exception {
+        CropProcessor.Result result = CropProcessor.of(context, Uri.fromFile(source), Uri.fromFile(destination))
+                .withOutputFormat(OutputFormat.PNG)
+                .process();
+
+        assertThat(result.getWidth()).isEqualTo(800);
+        assertThat(result.getHeight()).isEqualTo(600);
+        assertThat(result.getMimeType()).isEqualTo("image/png");
+    }
+
+    public void testCopiesSelectionOnePixelShortOnEachEdgeAsWholeImage() throws Exception {
+        CropProcessor.Result result = CropProcessor.of(context, Uri.fromFile(source), Uri.fromFile(destination))
+                .withRect(new Rect(1, 1, 799, 599))
+                .process();
+
+        assertThat(result.getWidth()).isEqualTo(800);
+        assertThat(result.getHeight()).isEqualTo(600);
+        assertThat(result.getQuality()).isEqualTo(-1);
+        assertThat(result.getBytes()).isEqualTo(source.length());
+        assertThat(destination.length()).isEqualTo(source.length());
+    }
+
+    public void testSavesWholeImageOverSourceWithoutTruncatingIt() throws Exception {
+        CropProcessor.Result result = CropProcessor.of(context, Uri.fromFile(source), Uri.fromFile(source))
+                .process();
+
+        assertThat(result.getWidth()).isEqualTo(800);
+        Bitmap saved = BitmapFactory.decodeFile(source.getPath());
+        assertThat(saved).isNotNull();
+        assertThat(saved.getWidth()).isEqualTo(800);
+        assertThat(saved.getHeight()).isEqualTo(600);
+        saved.recycle();
+    }
+
+    public void testRotatesByOverrideAndCanRunAgain() throws Exception {
+        CropProcessor processor = CropProcessor.of(context, Uri.fromFile(source), Uri.fromFile(destination))
+                .withRotation(-90);
+
+        assertThat(processor.process().getWidth()).isEqualTo(600);
+        assertThat(processor.process().getHeight()).isEqualTo(800);
+    }
+
+    public void testRejectsRotationNotMultipleOf90() throws Exception {
+        try {
+            CropProcessor.of(context, Uri.fromFile(source), Uri.fromFile(destination)).withRotation(45);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            assertThat(expected.getMessage()).contains("45");
+        }
+    }
+
+    public void testObservableEmitsResult() throws Exception {
+        CropProcessor.Result result = CropProcessor.of(context, Uri.fromFile(source), Uri.fromFile(destination))
+                .withRect(new Rect(0, 0, 300, 300))
+                .toObservable()
+                .toBlocking()
+                .single();
+
+        assertThat(result.getUri()).isEqualTo(Uri.fromFile(destination));
+        assertThat(result.getWidth()).isEqualTo(300);
+    }
+}
@@ -0,0 +1,124 @@
+package com.soundcloud.android.crop;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.os.SystemClock;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Compares encode time and size of every output format and profile, on a photo-like image
+ * with gradients and noise and on a flat graphic like a screenshot. Results are logged.
+ * The benchmark only runs when asked for, see {@link BenchmarkTestCase}.
+ */
+public class EncodeBenchmarkTest extends BenchmarkTestCase {
+
+    private static final int WIDTH = 2000;
+    private static final int HEIGHT = 1500;
+    private static final int QUALITY = 90;
+    private static final int RUNS = 3;
+
+    private Bitmap photo;
+    private Bitmap graphic;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        photo = createPhoto();
+        graphic = createGraphic();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        photo.recycle();
+        graphic.recycle();
+        super.tearDown();
+    }
+
+    public void testMimeTypeMatchesEncodedBytes() throws Exception {
+        Bitmap small = Bitmap.createScaledBitmap(photo, 64, 48, true);
+        for (OutputFormat format : OutputFormat.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            small.compress(format.getCompressFormat(),
+                    format.getCompressQuality(QUALITY), out);
+            byte[] bytes = out.toByteArray();
+
+            String mimeType = format.getMimeType();
+            if (mimeType.equals("image/jpeg")) {
+                assertThat(bytes[0] & 0xFF).isEqualTo(0xFF);
+                assertThat(bytes[1] & 0xFF).isEqualTo(0xD8);
+            } else if (mimeType.equals("image/png")) {
+                assertThat(new String(bytes, 1, 3, "US-ASCII")).isEqualTo("PNG");
+            } else {
+                assertThat(new String(bytes, 8, 4, "US-ASCII")).isEqualTo("WEBP");
+            }
+        }
+        small.recycle();
+    }
+
+    public void testBenchmarkOutputFormats() throws Exception {
+        benchmark("photo", photo);
+        benchmark("graphic", graphic);
+    }
+
+    private void benchmark(String name, Bitmap bitmap) throws Exception {
+        for (OutputFormat format : OutputFormat.values()) {
+            // Other formats encode the same bytes with every profile
+            final OutputFormat.Profile[] profiles = format == OutputFormat.WEBP_LOSSLESS
+                    ? OutputFormat.Profile.values() : new OutputFormat.Profile[] {OutputFormat.Profile.BALANCED};
+            for (OutputFormat.Profile profile : profiles) {
+                Bitmap.CompressFormat compressFormat = format.getCompressFormat();
+                int quality = format.getCompressQuality(QUALITY, profile);
+                long best = Long.MAX_VALUE;
+                long bytes = 0;
+                for (int i = 0; i < RUNS; i++) {
+                    CountingOutputStream out = new CountingOutputStream(null);
+                    long start = SystemClock.elapsedRealtime();
+                    assertThat(bitmap.compress(compressFormat, quality, out)).isTrue();
+                    best = Math.min(best, SystemClock.elapsedRealtime() - start);
+                    bytes = out.getCount();
+                }
+                Log.d(String.format("Encoded %s as %s %s (%s, %d): %dms, %d bytes", name, format, profile,
+                        format.getMimeType(), quality, best, bytes));
+            }
+        }
+    }
+
+    private static Bitmap createPhoto() {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setShader(new LinearGradient(0, 0, WIDTH, HEIGHT, Color.BLUE, Color.YELLOW, Shader.TileMode.CLAMP));
+        canvas.drawPaint(paint);
+        paint.setShader(null);
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            paint.setColor(random.nextInt() | 0xFF000000);
+            canvas.drawCircle(random.nextInt(WIDTH), random.nextInt(HEIGHT), 2 + random.nextInt(20), paint);
+        }
+        return bitmap;
+    }
+
+    private static Bitmap createGraphic() {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(32);
+        Random random = new Random(42);
+        for (int y = 0; y < HEIGHT; y += 120) {
+            paint.setColor(Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            canvas.drawRect(40, y + 20, WIDTH - 40, y + 60, paint);
+            paint.setColor(Color.DKGRAY);
+            canvas.drawText("Row " + y + " of a flat graphic with text", 60, y + 100, paint);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,116 @@
+package com.soundcloud.android.crop;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Shader;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+/**
+ * Compares decoding a large crop rectangle in a single region decoder call with decoding
+ * it in tiles on all cores. Timings are logged, run on 4 and 8 core devices to compare.
+ * The benchmark only runs when asked for, see {@link BenchmarkTestCase}.
+ */
+public class RegionDecodeBenchmarkTest extends BenchmarkTestCase {
+
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+    private static final int RUNS = 3;
+
+    private File file;
+    private ImageSource source;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Context context = getInstrumentation().getTargetContext();
+        file = new File(context.getCacheDir(), "benchmark.jpg");
+        writeTestImage(file);
+        source = ImageSource.open(context.getContentResolver(), Uri.fromFile(file));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        source.release();
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testParallelDecodeHasSameSizeAsSingleCall() throws Exception {
+        Rect rect = new Rect(123, 45, 3877, 2901);
+
+        Bitmap single = source.decodeRegion(rect, options(2));
+        Bitmap parallel = source.decodeRegionParallel(rect, options(2), 4);
+
+        assertThat(parallel.getWidth()).isEqualTo(single.getWidth());
+        assertThat(parallel.getHeight()).isEqualTo(single.getHeight());
+        single.recycle();
+        parallel.recycle();
+    }
+
+    public void testBenchmarkParallelDecode() throws Exception {
+        Rect rect = new Rect(0, 0, WIDTH, HEIGHT);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        long single = bestOf(rect, 1);
+        Log.d("Single call decode of " + rect + ": " + single + "ms");
+        for (int threads = 2; threads <= cores; threads *= 2) {
+            long parallel = bestOf(rect, threads);
+            Log.d(String.format("Parallel decode on %d of %d cores: %dms, %.2fx", threads, cores, parallel,
+                    (float) single / parallel));
+        }
+    }
+
+    private long bestOf(Rect rect, int threads) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = SystemClock.elapsedRealtime();
+            Bitmap bitmap = threads == 1 ? source.decodeRegion(rect, options(1))
+                    : source.decodeRegionParallel(rect, options(1), threads);
+            best = Math.min(best, SystemClock.elapsedRealtime() - start);
+            assertThat(bitmap).isNotNull();
+            bitmap.recycle();
+        }
+        return best;
+    }
+
+    private static BitmapFactory.Options options(int sampleSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        return options;
+    }
+
+    // Gradients with noise, so the JPEG does not compress to nothing
+    private static void writeTestImage(File file) throws Exception {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, WIDTH, HEIGHT, Color.BLUE, Color.YELLOW, Shader.TileMode.CLAMP));
+        canvas.drawPaint(paint);
+        paint.setShader(null);
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            paint.setColor(random.nextInt() | 0xFF000000);
+            canvas.drawCircle(random.nextInt(WIDTH), random.nextInt(HEIGHT), 2 + random.nextInt(20), paint);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+    }
+}
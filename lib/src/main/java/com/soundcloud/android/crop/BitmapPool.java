@@ -0,0 +1,225 @@
+package com.soundcloud.android.crop;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.Build;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of mutable bitmaps of a crop session, bucketed by allocation size. Bitmaps
+ * that are done with are put back here instead of being recycled, and are reused
+ * as inBitmap for region decodes and as destination of transforms.
+ *
+ * On KitKat and later any pooled bitmap that is large enough is reconfigured to
+ * the requested size; before that only exact size matches can be reused.
+ */
+class BitmapPool {
+
+    // Do not hand out bitmaps that waste more than this factor of memory
+    private static final int MAX_SIZE_MULTIPLE = 2;
+
+    private final TreeMap<Integer, LinkedList<Bitmap>> buckets = new TreeMap<>();
+    private final int maxBytes;
+    private final MemoryBudget memoryBudget;
+    private int currentBytes;
+
+    public BitmapPool(int maxBytes) {
+        this(maxBytes, null);
+    }
+
+    /**
+     * @param memoryBudget budget new bitmaps of this pool are tracked against, pooled bitmaps stay tracked
+     */
+    public BitmapPool(int maxBytes, @Nullable MemoryBudget memoryBudget) {
+        this.maxBytes = maxBytes;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return a mutable bitmap of the given size and config with undefined content, or null
+     */
+    @Nullable
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || width <= 0 || height <= 0) {
+            return null;
+        }
+        final int bytes = getByteCount(width, height, config);
+        final boolean canReconfigure = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        final Map<Integer, LinkedList<Bitmap>> candidates = canReconfigure
+                ? buckets.subMap(bytes, true, (int) Math.min(Integer.MAX_VALUE, (long) bytes * MAX_SIZE_MULTIPLE), true)
+                : buckets.subMap(bytes, true, bytes, true);
+
+        for (Iterator<Map.Entry<Integer, LinkedList<Bitmap>>> entries = candidates.entrySet().iterator(); entries.hasNext(); ) {
+            final Map.Entry<Integer, LinkedList<Bitmap>> bucket = entries.next();
+            Bitmap found = null;
+            for (Iterator<Bitmap> it = bucket.getValue().iterator(); it.hasNext() && found == null; ) {
+                Bitmap bitmap = it.next();
+                if (bitmap.isRecycled()) {
+                    // Recycled by someone else while pooled
+                    it.remove();
+                    currentBytes -= bucket.getKey();
+                } else if (canReconfigure || matches(bitmap, width, height, config)) {
+                    it.remove();
+                    currentBytes -= bucket.getKey();
+                    found = bitmap;
+                }
+            }
+            if (bucket.getValue().isEmpty()) {
+                entries.remove();
+            }
+            if (found != null) {
+                if (canReconfigure) {
+                    reconfigure(found, width, height, config);
+                }
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hands a bitmap back to the pool, recycles it if it cannot be pooled
+     */
+    public synchronized void put(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        final int size = getAllocationByteCount(bitmap);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || !bitmap.isMutable() || size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        LinkedList<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new LinkedList<>();
+            buckets.put(size, bucket);
+        }
+        if (bucket.contains(bitmap)) {
+            return;
+        }
+        bucket.addLast(bitmap);
+        currentBytes += size;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Makes a region decode return a bitmap that can be pooled afterwards, and lets it
+     * reuse a pooled bitmap when the decoded size is known exactly, that is when the
+     * region is a multiple of the sample size.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void setInBitmap(BitmapFactory.Options options, Rect region) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        options.inMutable = true;
+        // The region decoder supports inBitmap from Jelly Bean on
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN || options.inBitmap != null) {
+            return;
+        }
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        if (region.width() % sampleSize != 0 || region.height() % sampleSize != 0) {
+            return;
+        }
+        final Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        options.inBitmap = get(region.width() / sampleSize, region.height() / sampleSize, config);
+    }
+
+    /**
+     * @return the bitmap the options decode into, always null before Honeycomb which has no inBitmap
+     */
+    @Nullable
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static Bitmap getInBitmap(BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return null;
+        }
+        return options.inBitmap;
+    }
+
+    /**
+     * Makes the options decode into a new bitmap again
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static void clearInBitmap(BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            options.inBitmap = null;
+        }
+    }
+
+    /**
+     * @return a transparent bitmap of the given size and config, pooled if possible
+     */
+    public Bitmap obtain(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+            if (memoryBudget != null) {
+                memoryBudget.track(bitmap);
+            }
+        } else {
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+        return bitmap;
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private void trimToSize(int size) {
+        while (currentBytes > size && !buckets.isEmpty()) {
+            // Drop the largest bitmaps first, they are the least likely to fit again
+            Map.Entry<Integer, LinkedList<Bitmap>> largest = buckets.lastEntry();
+            Bitmap bitmap = largest.getValue().removeFirst();
+            if (largest.getValue().isEmpty()) {
+                buckets.remove(largest.getKey());
+            }
+            currentBytes -= largest.getKey();
+            bitmap.recycle();
+        }
+    }
+
+    private static boolean matches(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        return bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void reconfigure(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        if (!matches(bitmap, width, height, config)) {
+            bitmap.reconfigure(width, height, config);
+        }
+    }
+
+    /**
+     * @return the bytes allocated for the bitmap, which can be more than its size after a reconfigure
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static int getAllocationByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    static int getByteCount(int width, int height, Bitmap.Config config) {
+        return width * height * getBytesPerPixel(config);
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
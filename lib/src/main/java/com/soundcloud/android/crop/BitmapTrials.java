@@ -0,0 +1,106 @@
+package com.soundcloud.android.crop;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Quality search trials of a bitmap, encoded into a {@link CountingOutputStream} that
+ * discards the bytes. Large bitmaps get a first guess from trials on a half size proxy,
+ * run in parallel.
+ */
+class BitmapTrials implements QualitySearch.Trials {
+
+    // Bitmaps smaller than this are searched at full size straight away
+    private static final int PROXY_MIN_PIXELS = 1024 * 1024;
+    private static final int PROXY_QUALITY_STEP = 10;
+
+    private final Bitmap bitmap;
+    private final Bitmap.CompressFormat format;
+
+    public BitmapTrials(Bitmap bitmap, Bitmap.CompressFormat format) {
+        this.bitmap = bitmap;
+        this.format = format;
+    }
+
+    @Override
+    public long getEncodedSize(int quality) throws IOException {
+        return encodedSize(bitmap, quality);
+    }
+
+    /**
+     * Estimates the fitting quality from parallel trials on a half size proxy. A proxy has more
+     * detail per pixel than the full size bitmap, so the guess errs on the low side.
+     */
+    @Override
+    public int guess(long targetBytes, int minQuality, int maxQuality) throws IOException {
+        if ((long) bitmap.getWidth() * bitmap.getHeight() < PROXY_MIN_PIXELS) {
+            return -1;
+        }
+        final Bitmap proxy;
+        try {
+            proxy = Bitmap.createScaledBitmap(bitmap, bitmap.getWidth() / 2, bitmap.getHeight() / 2, true);
+        } catch (OutOfMemoryError e) {
+            Log.e("OOM creating quality search proxy", e);
+            return -1;
+        }
+
+        final List<Integer> qualities = new ArrayList<>();
+        for (int quality = maxQuality; quality >= minQuality; quality -= PROXY_QUALITY_STEP) {
+            qualities.add(quality);
+        }
+        final List<Callable<Long>> tasks = new ArrayList<>();
+        for (final int quality : qualities) {
+            tasks.add(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return encodedSize(proxy, quality);
+                }
+            });
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            final List<Future<Long>> results = executor.invokeAll(tasks);
+            for (int i = 0; i < qualities.size(); i++) {
+                if (results.get(i).get() * 4 <= targetBytes) {
+                    return qualities.get(i);
+                }
+            }
+            return minQuality;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted searching quality");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+            proxy.recycle();
+        }
+    }
+
+    private long encodedSize(Bitmap bitmap, int quality) throws IOException {
+        final CountingOutputStream out = new CountingOutputStream(null);
+        if (!bitmap.compress(format, quality, out)) {
+            throw new IOException("Cannot encode " + format + " at quality " + quality);
+        }
+        return out.getCount();
+    }
+}
@@ -0,0 +1,56 @@
+package com.soundcloud.android.crop;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written through it, to an underlying stream or nowhere
+ */
+class CountingOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private long count;
+
+    /**
+     * @param out stream to write through to, or null to only count
+     */
+    public CountingOutputStream(@Nullable OutputStream out) {
+        this.out = out;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (out != null) {
+            out.write(b);
+        }
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (out != null) {
+            out.write(b, off, len);
+        }
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+}
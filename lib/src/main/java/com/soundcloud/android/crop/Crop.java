@@ -6,11 +6,14 @@ import android.app.Fragment;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Rect;
 import android.net.Uri;
 import android.os.Build;
 import android.provider.MediaStore;
 import android.widget.Toast;
 
+import java.util.ArrayList;
+
 /**
  * Builder for crop Intents and utils for handling result
  */
@@ -24,6 +27,23 @@ public class Crop {
     public static final String EXTRA_LOOPBACK_DATA = "loopbackdata";
     public static final String EXTRA_DATA_WIDTH = "width";
     public static final String EXTRA_DATA_HEIGHT = "height";
+    public static final String EXTRA_DATA_QUALITY = "quality";
+    public static final String EXTRA_DATA_BYTES = "bytes";
+    public static final String EXTRA_DATA_MIME_TYPE = "mime_type";
+    public static final String EXTRA_DATA_CROP_RECT = "crop_rect";
+    public static final String EXTRA_OUTPUT_NAMES = "output_names";
+    public static final String EXTRA_OUTPUT_URIS = "output_uris";
+    public static final String EXTRA_OUTPUT_WIDTHS = "output_widths";
+    public static final String EXTRA_OUTPUT_HEIGHTS = "output_heights";
+    public static final String EXTRA_OUTPUT_BYTES = "output_bytes";
+    public static final String EXTRA_FALLBACK = "fallback";
+    public static final String EXTRA_OVER_TARGET = "over_target";
+
+    // Fallbacks taken when decoding ran out of memory, from cheapest to most degraded
+    public static final String FALLBACK_NONE = "none";
+    public static final String FALLBACK_SAMPLE_SIZE = "sample_size";
+    public static final String FALLBACK_RGB_565 = "rgb_565";
+    public static final String FALLBACK_STRIPS = "strips";
 
     interface Extra {
         String LAYOUT_ID = "layout_id";
@@ -35,6 +55,11 @@ public class Crop {
         String MAX_X = "max_x";
         String MAX_Y = "max_y";
         String JPG_QUALITY = "jpg_quality";
+        String LOSSLESS = "lossless";
+        String METADATA_ONLY = "metadata_only";
+        String TARGET_BYTES = "target_bytes";
+        String OUTPUT_FORMAT = "output_format";
+        String OUTPUT_PROFILE = "output_profile";
         String ERROR = "error";
     }
 
@@ -117,6 +142,91 @@ public class Crop {
         return this;
     }
 
+    /**
+     * Set the format of the saved image, JPEG by default. Lossy WebP uses the quality
+     * set with {@link #withJpgQuality(int)} as well.
+     *
+     * @param format Output format
+     */
+    public Crop withOutputFormat(OutputFormat format) {
+        return withOutputFormat(format, OutputFormat.Profile.BALANCED);
+    }
+
+    /**
+     * Set the format of the saved image and, for lossless WebP, how much time its encoder may
+     * take to make it smaller. Other formats ignore the profile, see {@link OutputFormat.Profile}.
+     *
+     * @param format  Output format
+     * @param profile Speed/size trade-off of the lossless WebP encoder
+     */
+    public Crop withOutputFormat(OutputFormat format, OutputFormat.Profile profile) {
+        cropIntent.putExtra(Extra.OUTPUT_FORMAT, format.name());
+        cropIntent.putExtra(Extra.OUTPUT_PROFILE, profile.name());
+        return this;
+    }
+
+    /**
+     * Save smaller renditions of the crop as well, scaled down from the same decode.
+     * Renditions are encoded in parallel, each at its own quality, so they cannot be combined
+     * with {@link #withTargetBytes(long)} or {@link #asLossless()}.
+     *
+     * @param outputs Renditions to save besides the destination
+     */
+    public Crop withOutputs(CropOutput... outputs) {
+        CropOutput.putExtras(cropIntent, outputs);
+        return this;
+    }
+
+    /**
+     * Let the user adjust several named crop areas on one preview, each with its own aspect
+     * ratio and Uri, instead of a single one. The destination is not written, results list
+     * the regions in the given order. Cannot be combined with {@link #asMetadataOnly()}.
+     *
+     * @param regions Crop areas to save
+     */
+    public Crop withRegions(CropRegion... regions) {
+        CropRegion.putExtras(cropIntent, regions);
+        return this;
+    }
+
+    /**
+     * Keep the saved image under a byte budget, with the highest quality that fits.
+     * The quality set with {@link #withJpgQuality(int)} is the upper bound of the search.
+     * Lossless output formats are saved as they are. Cannot be combined with
+     * {@link #withOutputs(CropOutput...)}.
+     *
+     * @param bytes Maximum size of the saved image
+     */
+    public Crop withTargetBytes(long bytes) {
+        if (bytes > 0) {
+            cropIntent.putExtra(Extra.TARGET_BYTES, bytes);
+        }
+        return this;
+    }
+
+    /**
+     * Crop baseline JPEGs without re-encoding them, by copying their compressed blocks.
+     * The crop area is grown to the 8 or 16 pixel block grid of the source. Other sources,
+     * and crops that have to be scaled down to the max size, are re-encoded as usual.
+     * Cannot be combined with {@link #withOutputs(CropOutput...)}.
+     */
+    public Crop asLossless() {
+        cropIntent.putExtra(Extra.LOSSLESS, true);
+        return this;
+    }
+
+    /**
+     * Only report where the crop is, without decoding or saving anything. The result holds
+     * the crop area in the coordinates of the stored source image, see {@link #getCropRect(Intent)},
+     * and its EXIF rotation, see {@link #EXTRA_META_EXIF_ROTATION}. The width and height are
+     * those the crop would be saved at, within {@link #withMaxSize(int, int)}. The destination
+     * may be null. Cannot be combined with {@link #withRegions(CropRegion...)}.
+     */
+    public Crop asMetadataOnly() {
+        cropIntent.putExtra(Extra.METADATA_ONLY, true);
+        return this;
+    }
+
     /**
      * Set a Tag with metadata that will be available back with onResult
      *
@@ -194,8 +304,17 @@ public class Crop {
      *
      * @param context Context
      * @return Intent for CropImageActivity
+     * @throws IllegalStateException if outputs are combined with a byte budget or a lossless crop,
+     * or regions with metadata only
      */
     public Intent getIntent(Context context) {
+        if (CropOutput.hasExtras(cropIntent)
+                && (cropIntent.hasExtra(Extra.TARGET_BYTES) || cropIntent.hasExtra(Extra.LOSSLESS))) {
+            throw new IllegalStateException("Outputs cannot be combined with a byte budget or a lossless crop");
+        }
+        if (CropRegion.hasExtras(cropIntent) && cropIntent.getBooleanExtra(Extra.METADATA_ONLY, false)) {
+            throw new IllegalStateException("Regions cannot be combined with metadata only");
+        }
         cropIntent.setClass(context, CropImageActivity.class);
         return cropIntent;
     }
@@ -219,6 +338,117 @@ public class Crop {
         return (Throwable) result.getSerializableExtra(Extra.ERROR);
     }
 
+    /**
+     * Retrieve the most degraded fallback loading or saving had to take to fit in memory
+     *
+     * @param result Result Intent
+     * @return One of the FALLBACK_ constants, {@link #FALLBACK_NONE} if decoding never ran out of memory
+     */
+    public static String getFallback(Intent result) {
+        String fallback = result.getStringExtra(EXTRA_FALLBACK);
+        return fallback != null ? fallback : FALLBACK_NONE;
+    }
+
+    /**
+     * Retrieve whether the crop is larger than the byte budget set with {@link #withTargetBytes(long)},
+     * which happens when even the lowest quality does not fit. It is saved at that quality anyway.
+     *
+     * @param result Result Intent
+     * @return true if the saved image exceeds the byte budget
+     */
+    public static boolean isOverTarget(Intent result) {
+        return result.getBooleanExtra(EXTRA_OVER_TARGET, false);
+    }
+
+    /**
+     * Retrieve the JPG quality the crop was saved with
+     *
+     * @param result Result Intent
+     * @return The quality, -1 if the crop was copied without re-encoding it
+     */
+    public static int getQuality(Intent result) {
+        return result.getIntExtra(EXTRA_DATA_QUALITY, -1);
+    }
+
+    /**
+     * Retrieve the size of the saved image
+     *
+     * @param result Result Intent
+     * @return The size in bytes, -1 if unknown
+     */
+    public static long getBytes(Intent result) {
+        return result.getLongExtra(EXTRA_DATA_BYTES, -1);
+    }
+
+    /**
+     * Retrieve the MIME type of the saved image, which may differ from the requested format
+     * on devices that cannot encode it
+     *
+     * @param result Result Intent
+     * @return The MIME type, e.g. image/webp
+     */
+    public static String getMimeType(Intent result) {
+        return result.getStringExtra(EXTRA_DATA_MIME_TYPE);
+    }
+
+    /**
+     * Retrieve the crop area in pixels of the source as it is stored, before its EXIF
+     * rotation is applied
+     *
+     * @param result Result Intent
+     * @return The crop area, or null if it was not requested with {@link #asMetadataOnly()}
+     */
+    public static Rect getCropRect(Intent result) {
+        return result.getParcelableExtra(EXTRA_DATA_CROP_RECT);
+    }
+
+    /**
+     * Retrieve the names of the saved regions, in the order of {@link #getOutputUris(Intent)}
+     *
+     * @param result Result Intent
+     * @return The names, null if no regions were requested
+     */
+    public static String[] getOutputNames(Intent result) {
+        return result.getStringArrayExtra(EXTRA_OUTPUT_NAMES);
+    }
+
+    /**
+     * Retrieve the Uris of all saved renditions or regions, the destination first
+     *
+     * @param result Result Intent
+     * @return The Uris, null if no renditions were requested
+     */
+    public static ArrayList<Uri> getOutputUris(Intent result) {
+        return result.getParcelableArrayListExtra(EXTRA_OUTPUT_URIS);
+    }
+
+    /**
+     * Retrieve the widths of all saved renditions, in the order of {@link #getOutputUris(Intent)}
+     *
+     * @param result Result Intent
+     */
+    public static int[] getOutputWidths(Intent result) {
+        return result.getIntArrayExtra(EXTRA_OUTPUT_WIDTHS);
+    }
+
+    /**
+     * Retrieve the heights of all saved renditions, in the order of {@link #getOutputUris(Intent)}
+     *
+     * @param result Result Intent
+     */
+    public static int[] getOutputHeights(Intent result) {
+        return result.getIntArrayExtra(EXTRA_OUTPUT_HEIGHTS);
+    }
+
+    /**
+     * Retrieve the sizes in bytes of all saved renditions, in the order of {@link #getOutputUris(Intent)}
+     *
+     * @param result Result Intent
+     */
+    public static long[] getOutputBytes(Intent result) {
+        return result.getLongArrayExtra(EXTRA_OUTPUT_BYTES);
+    }
+
     /**
      * Pick image from an Activity
      *
@@ -0,0 +1,363 @@
+package com.soundcloud.android.crop;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Crops many images with the same settings, e.g. on import, on a pool of workers sized by the
+ * cores and the memory budget. All workers count their bitmaps against one budget, so the
+ * decode fallbacks of {@link CropProcessor} kick in for the whole batch rather than per image.
+ *
+ * <pre>
+ * CropBatch.with(context)
+ *         .add(source, destination, 1, 1)
+ *         .withMaxSize(1024, 1024)
+ *         .toObservable()
+ *         .subscribe(...);
+ * </pre>
+ */
+public class CropBatch {
+
+    // Assumed for crops without a max size, a 12 megapixel image
+    private static final long DEFAULT_JOB_BYTES = 12L * 1024 * 1024 * 4;
+    // A sampled region is at most twice the output size each way, and is scaled into the output
+    private static final int JOB_COPIES = 5;
+    private static final long UNSUBSCRIBE_POLL_MILLIS = 100;
+
+    /**
+     * A finished crop, emitted in the order the crops finish
+     */
+    public static class Item {
+        private final int index;
+        private final Uri source;
+        private final CropProcessor.Result result;
+        private final Throwable error;
+        private final Stats stats;
+
+        Item(int index, Uri source, @Nullable CropProcessor.Result result, @Nullable Throwable error, Stats stats) {
+            this.index = index;
+            this.source = source;
+            this.result = result;
+            this.error = error;
+            this.stats = stats;
+        }
+
+        /**
+         * @return the position the crop was added at
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public Uri getSource() {
+            return source;
+        }
+
+        /**
+         * @return what was saved, null if the crop failed
+         */
+        @Nullable
+        public CropProcessor.Result getResult() {
+            return result;
+        }
+
+        /**
+         * @return why the crop failed, null if it was saved
+         */
+        @Nullable
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return the throughput of the batch so far, the whole batch for the last item
+         */
+        public Stats getStats() {
+            return stats;
+        }
+    }
+
+    public static class Stats {
+        private final int completed;
+        private final int failed;
+        private final int threads;
+        private final long elapsedMillis;
+        private final long peakBytes;
+
+        Stats(int completed, int failed, int threads, long elapsedMillis, long peakBytes) {
+            this.completed = completed;
+            this.failed = failed;
+            this.threads = threads;
+            this.elapsedMillis = elapsedMillis;
+            this.peakBytes = peakBytes;
+        }
+
+        /**
+         * @return the number of finished crops, including failed ones
+         */
+        public int getCompleted() {
+            return completed;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public float getImagesPerSecond() {
+            return elapsedMillis > 0 ? completed * 1000f / elapsedMillis : 0f;
+        }
+
+        /**
+         * @return the most bitmap memory the batch held at once
+         */
+        public long getPeakBytes() {
+            return peakBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d images (%d failed) on %d threads in %dms, %.1f/s, peak %dKB",
+                    completed, failed, threads, elapsedMillis, getImagesPerSecond(), peakBytes / 1024);
+        }
+    }
+
+    private static class Job {
+        final Uri source;
+        final Uri destination;
+        final Rect rect;
+        final int aspectX;
+        final int aspectY;
+
+        Job(Uri source, Uri destination, @Nullable Rect rect, int aspectX, int aspectY) {
+            this.source = source;
+            this.destination = destination;
+            this.rect = rect;
+            this.aspectX = aspectX;
+            this.aspectY = aspectY;
+        }
+    }
+
+    private final Context context;
+    private final List<Job> jobs = new ArrayList<>();
+    private int maxX;
+    private int maxY;
+    private int quality = 90;
+    private OutputFormat outputFormat = OutputFormat.JPEG;
+    private OutputFormat.Profile outputProfile = OutputFormat.Profile.BALANCED;
+    private int maxThreads = Runtime.getRuntime().availableProcessors();
+
+    public static CropBatch with(Context context) {
+        return new CropBatch(context);
+    }
+
+    private CropBatch(Context context) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+    }
+
+    /**
+     * Add a crop of a known area
+     *
+     * @param rect Crop area, in pixels of the source as it is displayed after its Exif rotation
+     */
+    public CropBatch add(Uri source, Uri destination, Rect rect) {
+        jobs.add(new Job(source, destination, new Rect(rect), 0, 0));
+        return this;
+    }
+
+    /**
+     * Add a crop of the largest area with the aspect ratio around the center
+     *
+     * @param aspectX Aspect X
+     * @param aspectY Aspect Y
+     */
+    public CropBatch add(Uri source, Uri destination, int aspectX, int aspectY) {
+        jobs.add(new Job(source, destination, null, aspectX, aspectY));
+        return this;
+    }
+
+    /**
+     * Set maximum crop size
+     *
+     * @param width  Max width
+     * @param height Max height
+     */
+    public CropBatch withMaxSize(int width, int height) {
+        this.maxX = width;
+        this.maxY = height;
+        return this;
+    }
+
+    /**
+     * Set JPG quality
+     *
+     * @param quality JPG quality (10< q <100)
+     */
+    public CropBatch withJpgQuality(int quality) {
+        this.quality = quality;
+        return this;
+    }
+
+    /**
+     * Save in another format than JPEG, see {@link Crop#withOutputFormat(OutputFormat)}
+     */
+    public CropBatch withOutputFormat(OutputFormat format) {
+        return withOutputFormat(format, OutputFormat.Profile.BALANCED);
+    }
+
+    /**
+     * Save in another format than JPEG, with a profile for lossless WebP, see
+     * {@link Crop#withOutputFormat(OutputFormat, OutputFormat.Profile)}
+     */
+    public CropBatch withOutputFormat(OutputFormat format, OutputFormat.Profile profile) {
+        this.outputFormat = format;
+        this.outputProfile = profile;
+        return this;
+    }
+
+    /**
+     * Use at most this many workers, the number of cores by default
+     */
+    public CropBatch withMaxThreads(int threads) {
+        this.maxThreads = threads;
+        return this;
+    }
+
+    /**
+     * Crops on the io scheduler when subscribed to and emits every crop as it finishes.
+     * Failed crops are emitted with their error, the batch carries on with the others.
+     * Unsubscribing drops the crops that have not started yet right away. Crops that are
+     * already running are interrupted, but decoding and encoding do not stop for that, so
+     * they usually finish in the background; their results are not emitted.
+     */
+    public Observable<Item> toObservable() {
+        final List<Job> jobs = new ArrayList<>(this.jobs);
+        return Observable.create(new Observable.OnSubscribe<Item>() {
+            @Override
+            public void call(Subscriber<? super Item> subscriber) {
+                run(jobs, subscriber);
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+
+    private void run(List<Job> jobs, Subscriber<? super Item> subscriber) {
+        final MemoryBudget memoryBudget = MemoryBudget.fromContext(context);
+        final int threads = getThreads(memoryBudget.getBudgetBytes(), maxThreads, maxX, maxY);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        subscriber.add(Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                executor.shutdownNow();
+            }
+        }));
+        final CompletionService<Item> completion = new ExecutorCompletionService<>(executor);
+        final long start = SystemClock.elapsedRealtime();
+        try {
+            for (int i = 0; i < jobs.size(); i++) {
+                final int index = i;
+                final Job job = jobs.get(i);
+                completion.submit(new Callable<Item>() {
+                    @Override
+                    public Item call() {
+                        try {
+                            return new Item(index, job.source, newProcessor(job, memoryBudget).process(), null, null);
+                        } catch (Exception e) {
+                            Log.e("Error cropping " + job.source + ": " + e.getMessage(), e);
+                            return new Item(index, job.source, null, e, null);
+                        } catch (OutOfMemoryError e) {
+                            Log.e("OOM cropping " + job.source + ": " + e.getMessage(), e);
+                            return new Item(index, job.source, null, e, null);
+                        }
+                    }
+                });
+            }
+
+            int failed = 0;
+            Stats stats = new Stats(0, 0, threads, 0, 0);
+            for (int completed = 1; completed <= jobs.size(); completed++) {
+                // Dropped crops never complete, so keep an eye on unsubscription while waiting
+                Future<Item> next;
+                while ((next = completion.poll(UNSUBSCRIBE_POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                    if (subscriber.isUnsubscribed()) {
+                        return;
+                    }
+                }
+                final Item done = next.get();
+                if (done.error != null) {
+                    failed++;
+                }
+                stats = new Stats(completed, failed, threads, SystemClock.elapsedRealtime() - start,
+                        memoryBudget.getPeakBytes());
+                if (subscriber.isUnsubscribed()) {
+                    return;
+                }
+                subscriber.onNext(new Item(done.index, done.source, done.result, done.error, stats));
+            }
+            Log.d("Cropped " + stats);
+            subscriber.onCompleted();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!subscriber.isUnsubscribed()) {
+                subscriber.onError(new InterruptedIOException("Interrupted cropping batch"));
+            }
+        } catch (ExecutionException e) {
+            // Jobs catch their own failures
+            subscriber.onError(e.getCause());
+        } catch (RejectedExecutionException e) {
+            // Unsubscribed while the crops were submitted, which shut the workers down
+            if (!subscriber.isUnsubscribed()) {
+                subscriber.onError(e);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private CropProcessor newProcessor(Job job, MemoryBudget memoryBudget) {
+        // The batch already runs a crop per core, tiling each one across the cores as well would oversubscribe them
+        final CropProcessor processor = CropProcessor.of(context, job.source, job.destination)
+                .withMemoryBudget(memoryBudget)
+                .withDecodeThreads(1)
+                .withMaxSize(maxX, maxY)
+                .withJpgQuality(quality)
+                .withOutputFormat(outputFormat, outputProfile);
+        return job.rect != null ? processor.withRect(job.rect) : processor.withAspect(job.aspectX, job.aspectY);
+    }
+
+    /**
+     * @return as many workers as there are cores, or as fit in the budget if fewer
+     */
+    static int getThreads(long budgetBytes, int maxThreads, int maxX, int maxY) {
+        final long jobBytes = maxX > 0 && maxY > 0 ? (long) maxX * maxY * 4 * JOB_COPIES : DEFAULT_JOB_BYTES;
+        return (int) Math.max(1, Math.min(maxThreads, budgetBytes / jobBytes));
+    }
+}
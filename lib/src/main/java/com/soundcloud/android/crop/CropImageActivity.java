@@ -18,12 +18,11 @@ package com.soundcloud.android.crop;
 
 import android.Manifest;
 import android.annotation.TargetApi;
-import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
+import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.net.Uri;
@@ -37,17 +36,22 @@ import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
 
-import org.bonnyfone.brdcompat.BitmapRegionDecoderCompat;
+import com.soundcloud.android.crop.geometry.CropSize;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
 import rx.Observable;
 import rx.Subscriber;
-import rx.functions.Action0;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.schedulers.Schedulers;
 
 /*
  * Modified from original in AOSP.
@@ -76,6 +80,13 @@ public class CropImageActivity extends MonitoredActivity {
     private int maxX;
     private int maxY;
     private int exifRotation;
+    private boolean lossless;
+    private boolean metadataOnly;
+    private long targetBytes;
+    private OutputFormat outputFormat = OutputFormat.JPEG;
+    private OutputFormat.Profile outputProfile = OutputFormat.Profile.BALANCED;
+    private List<CropOutput> outputs = Collections.emptyList();
+    private List<CropRegion> regions = Collections.emptyList();
 
     private Uri sourceUri;
     private Uri saveUri;
@@ -86,9 +97,13 @@ public class CropImageActivity extends MonitoredActivity {
 
     private boolean isSaving;
     private boolean isLoaded=false;
+    private Subscription loadSubscription;
 
-    private int sampleSize;
+    private ImageSource imageSource;
+    private MemoryBudget memoryBudget;
+    private BitmapPool bitmapPool;
     private RotateBitmap rotateBitmap;
+    private DecodeLadder.Rung fallback = DecodeLadder.Rung.NONE;
     private CropImageView imageView;
     private HighlightView cropView;
 
@@ -100,11 +115,16 @@ public class CropImageActivity extends MonitoredActivity {
         super.onCreate(icicle);
         this.setupWindowFlags();
 
+        // Bitmaps the session is done with are kept for reuse, up to a quarter of the budget
+        memoryBudget = MemoryBudget.fromContext(this);
+        bitmapPool = new BitmapPool((int) Math.min(Integer.MAX_VALUE, memoryBudget.getBudgetBytes() / 4), memoryBudget);
+        memoryBudget.setBitmapPool(bitmapPool);
+
         this.loadExtras();
         this.setupViews();
 
         canRead=checkUriReadable(sourceUri);
-        canWrite=checkUriWritableAndClean(saveUri);
+        canWrite=metadataOnly || checkUriWritableAndClean(saveUri);
 
     }
 
@@ -147,7 +167,7 @@ public class CropImageActivity extends MonitoredActivity {
 
         //canRead and canWrite may have changed after onRequestPermissionsResult
         canRead=checkUriReadable(sourceUri);
-        canWrite=checkUriWritableAndClean(saveUri);
+        canWrite=metadataOnly || checkUriWritableAndClean(saveUri);
 
         if (!canRead)
             setResultException(new Exception("Permition required for"+sourceUri.toString()));
@@ -156,21 +176,13 @@ public class CropImageActivity extends MonitoredActivity {
             setResultException(new Exception("Permition required for"+saveUri.toString()));
 
         if (!isLoaded)
-            this.loadInput()
-                    .doOnCompleted(new Action0() {
+            loadSubscription = this.loadInput()
+                    .subscribe(new Subscriber<LoadedPreview>() {
                         @Override
-                        public void call() {
+                        public void onCompleted() {
                             if (rotateBitmap == null) {
                                 finish();
-                                return;
                             }
-                            startCrop();
-                        }
-                    })
-                    .subscribe(new Subscriber<Void>() {
-                        @Override
-                        public void onCompleted() {
-
                         }
 
                         @Override
@@ -181,8 +193,8 @@ public class CropImageActivity extends MonitoredActivity {
                         }
 
                         @Override
-                        public void onNext(Void aVoid) {
-
+                        public void onNext(LoadedPreview loaded) {
+                            onPreviewLoaded(loaded);
                         }
                     });
         isLoaded=true;
@@ -213,6 +225,15 @@ public class CropImageActivity extends MonitoredActivity {
             this.maxX = extras.getInt(Crop.Extra.MAX_X);
             this.maxY = extras.getInt(Crop.Extra.MAX_Y);
             this.saveUri = extras.getParcelable(MediaStore.EXTRA_OUTPUT);
+            this.lossless = extras.getBoolean(Crop.Extra.LOSSLESS);
+            this.metadataOnly = extras.getBoolean(Crop.Extra.METADATA_ONLY);
+            this.targetBytes = extras.getLong(Crop.Extra.TARGET_BYTES);
+            this.outputs = CropOutput.fromExtras(extras);
+            this.regions = CropRegion.fromExtras(extras);
+            if (extras.containsKey(Crop.Extra.OUTPUT_FORMAT)) {
+                this.outputFormat = OutputFormat.valueOf(extras.getString(Crop.Extra.OUTPUT_FORMAT));
+                this.outputProfile = OutputFormat.Profile.valueOf(extras.getString(Crop.Extra.OUTPUT_PROFILE));
+            }
 
             // load data for the usage of custom layouts
             this.layoutResId = extras.getInt(Crop.Extra.LAYOUT_ID, R.layout.crop__activity_crop);
@@ -238,8 +259,7 @@ public class CropImageActivity extends MonitoredActivity {
         this.imageView.setRecycler(new ImageViewTouchBase.Recycler() {
             @Override
             public void recycle(Bitmap b) {
-                b.recycle();
-                System.gc();
+                bitmapPool.put(b);
             }
         });
 
@@ -257,68 +277,160 @@ public class CropImageActivity extends MonitoredActivity {
         });
     }
 
+    /**
+     * A preview and the source it was decoded from, so the source reaches the main thread
+     * with the first preview instead of through a field written on the io thread
+     */
+    private static class LoadedPreview {
+        final ImageSource source;
+        final RotateBitmap preview;
+
+        LoadedPreview(ImageSource source, RotateBitmap preview) {
+            this.source = source;
+            this.preview = preview;
+        }
+    }
+
     /**
      * load the bitmap from the given source Uri,
      * get all the intent extras & setup the aspect ratio for the cropping,
-     * define the maximum of the image size
+     * define the maximum of the image size.
+     * A coarse preview is emitted first when the full preview takes a while to decode.
+     * Once a preview is emitted the activity owns the source, until then loading does and
+     * releases it when unsubscribed.
      */
-    private Observable<Void> loadInput() {
+    private Observable<LoadedPreview> loadInput() {
+        // Views may only be read on the main thread
+        final int viewWidth = getPreviewViewWidth();
+        final int viewHeight = getPreviewViewHeight();
+        final int maxImageSize = getMaxImageSize();
 
-        final Context context = this;
-        return Observable.create(new Observable.OnSubscribe<Void>() {
+        return Observable.create(new Observable.OnSubscribe<LoadedPreview>() {
             @Override
-            public void call(Subscriber<? super Void> subscriber) {
+            public void call(Subscriber<? super LoadedPreview> subscriber) {
 
                 if (sourceUri != null) {
-                    final File exifUri = RealPathUtil.getFile(context, sourceUri);// CropUtil.getPath(this, this.sourceUri);
-                    if (exifUri == null) {
-                        exifRotation = 0;
-                    } else {
-                        exifRotation = CropUtil.getExifRotation(exifUri);// CropUtil.getExifRotation(CropUtil.getFromMediaUri(context, getContentResolver(), exifUri));
-                    }
-
-                    InputStream is = null;
+                    ImageSource source = null;
+                    boolean hasPreview = false;
                     try {
-                        sampleSize = calculateBitmapSampleSize(sourceUri);
-                        is = getContentResolver().openInputStream(sourceUri);
-                        final BitmapFactory.Options option = new BitmapFactory.Options();
-                        option.inSampleSize = sampleSize;
-                        option.inPreferredConfig = Bitmap.Config.ARGB_8888;
-                        rotateBitmap = new RotateBitmap(BitmapFactory.decodeStream(is, null, option), exifRotation);
+                        source = ImageSource.open(getContentResolver(), sourceUri);
+                        source.setBitmapPool(bitmapPool);
+                        source.setMemoryBudget(memoryBudget);
+                        final int rotation = source.getExifRotation();
+                        final int sampleSize = memoryBudget.fitSampleSize(source.getWidth(), source.getHeight(),
+                                CropSize.previewSampleSize(source.getWidth(), source.getHeight(),
+                                        rotation, viewWidth, viewHeight, maxImageSize),
+                                Bitmap.Config.ARGB_8888, 1);
+
+                        Bitmap coarse = null;
+                        try {
+                            coarse = source.decodeCoarsePreview(sampleSize);
+                        } catch (OutOfMemoryError e) {
+                            Log.e("OOM reading coarse preview: " + e.getMessage(), e);
+                        }
+                        if (coarse != null) {
+                            if (!emitPreview(subscriber, source, coarse, rotation)) {
+                                return;
+                            }
+                            hasPreview = true;
+                        }
+                        if (subscriber.isUnsubscribed()) {
+                            return;
+                        }
+
+                        final BitmapFactory.Options options = new BitmapFactory.Options();
+                        options.inSampleSize = sampleSize;
+                        final DecodeLadder ladder = new DecodeLadder(source);
+                        Bitmap preview = ladder.decode(
+                                new Rect(0, 0, source.getWidth(), source.getHeight()), options);
+                        reportFallback(ladder.getRung());
+                        if (preview != null) {
+                            if (!emitPreview(subscriber, source, preview, rotation)) {
+                                return;
+                            }
+                            hasPreview = true;
+                        }
                     } catch (IOException e) {
                         Log.e("Error reading image: " + e.getMessage(), e);
-                        setResultException(e);
+                        if (!hasPreview) setResultException(e);
                     } catch (OutOfMemoryError e) {
+                        // Keep cropping on the coarse preview if there is one
                         Log.e("OOM reading image: " + e.getMessage(), e);
-                        setResultException(e);
+                        if (!hasPreview) setResultException(e);
                     } finally {
-                        CropUtil.closeSilently(is);
+                        if (source != null && !hasPreview) {
+                            source.release();
+                        }
                     }
                 }
                 subscriber.onCompleted();
 
             }
-        });
+        }).subscribeOn(Schedulers.io()).observeOn(AndroidSchedulers.mainThread());
 
     }
 
-    private int calculateBitmapSampleSize(Uri bitmapUri) throws IOException {
-        InputStream is = null;
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        try {
-            is = getContentResolver().openInputStream(bitmapUri);
-            BitmapFactory.decodeStream(is, null, options); // Just get image size
-        } finally {
-            CropUtil.closeSilently(is);
+    /**
+     * @return false if the preview was recycled instead, because loading was unsubscribed
+     */
+    private static boolean emitPreview(Subscriber<? super LoadedPreview> subscriber, ImageSource source,
+                                       Bitmap bitmap, int rotation) {
+        if (subscriber.isUnsubscribed()) {
+            source.recycle(bitmap);
+            return false;
+        }
+        subscriber.onNext(new LoadedPreview(source, new RotateBitmap(bitmap, rotation)));
+        return true;
+    }
+
+    private void onPreviewLoaded(LoadedPreview loaded) {
+        if (imageSource == null) {
+            imageSource = loaded.source;
+            exifRotation = imageSource.getExifRotation();
+        }
+        showPreview(loaded.preview);
+    }
+
+    private void showPreview(RotateBitmap preview) {
+        if (isFinishing() || isSaving) {
+            preview.recycle();
+            return;
+        }
+        if (rotateBitmap == null) {
+            rotateBitmap = preview;
+            startCrop();
+        } else {
+            refinePreview(preview);
         }
+    }
 
-        int maxSize = getMaxImageSize();
-        int sampleSize = 1;
-        while (options.outHeight / sampleSize > maxSize || options.outWidth / sampleSize > maxSize) {
-            sampleSize = sampleSize << 1;
+    /**
+     * Swaps in a sharper preview without resetting the crop rectangle or the zoom
+     */
+    private void refinePreview(RotateBitmap preview) {
+        // Both previews cover the whole source, so each axis scales by its own ratio
+        final float scaleX = (float) preview.getWidth() / rotateBitmap.getWidth();
+        final float scaleY = (float) preview.getHeight() / rotateBitmap.getHeight();
+        rotateBitmap = preview;
+        imageView.setImageRotateBitmapResetBase(preview, false);
+
+        final Rect imageRect = new Rect(0, 0, preview.getWidth(), preview.getHeight());
+        for (HighlightView hv : imageView.highlightViews) {
+            hv.rescale(imageView.getUnrotatedMatrix(), imageRect, scaleX, scaleY);
         }
-        return sampleSize;
+        imageView.invalidate();
+    }
+
+    // The preview only needs the pixels the view shows, zoomed in detail is decoded on demand.
+    // Before the view is laid out, it is at most as large as the screen.
+    private int getPreviewViewWidth() {
+        final int width = imageView.getWidth();
+        return width > 0 && imageView.getHeight() > 0 ? width : getResources().getDisplayMetrics().widthPixels;
+    }
+
+    private int getPreviewViewHeight() {
+        final int height = imageView.getHeight();
+        return height > 0 && imageView.getWidth() > 0 ? height : getResources().getDisplayMetrics().heightPixels;
     }
 
     private int getMaxImageSize() {
@@ -341,6 +453,8 @@ public class CropImageActivity extends MonitoredActivity {
         if (isFinishing()) {
             return;
         }
+        imageView.setImageSource(imageSource);
+        imageView.setContentSize(imageSource.getWidth(), imageSource.getHeight());
         imageView.setImageRotateBitmapResetBase(rotateBitmap, true);
         CropUtil.startBackgroundJob(this, null, getResources().getString(R.string.crop__wait),
                 new Runnable() {
@@ -371,7 +485,15 @@ public class CropImageActivity extends MonitoredActivity {
             if (rotateBitmap == null) {
                 return;
             }
+            if (regions.isEmpty()) {
+                makeDefault(aspectX, aspectY);
+            }
+            for (CropRegion region : regions) {
+                makeDefault(region.getAspectX(), region.getAspectY());
+            }
+        }
 
+        private void makeDefault(int aspectX, int aspectY) {
             HighlightView hv = new HighlightView(imageView);
             final int width = rotateBitmap.getWidth();
             final int height = rotateBitmap.getHeight();
@@ -404,7 +526,7 @@ public class CropImageActivity extends MonitoredActivity {
                 public void run() {
                     makeDefault();
                     imageView.invalidate();
-                    if (imageView.highlightViews.size() == 1) {
+                    if (!imageView.highlightViews.isEmpty()) {
                         cropView = imageView.highlightViews.get(0);
                         cropView.setFocus(true);
                     }
@@ -419,206 +541,158 @@ public class CropImageActivity extends MonitoredActivity {
         }
         isSaving = true;
 
-        Bitmap croppedImage;
-        Rect r = cropView.getScaledCropRect(sampleSize);
-        int width = r.width();
-        int height = r.height();
-
-        int outWidth = width;
-        int outHeight = height;
-        if (maxX > 0 && maxY > 0 && (width > maxX || height > maxY)) {
-            float ratio = (float) width / (float) height;
-            if ((float) maxX / (float) maxY > ratio) {
-                outHeight = maxY;
-                outWidth = (int) ((float) maxY * ratio + .5f);
-            } else {
-                outWidth = maxX;
-                outHeight = (int) ((float) maxX / ratio + .5f);
+        // Preview coordinates to source coordinates
+        final float previewScale = Math.min((float) imageSource.getWidth() / rotateBitmap.getBitmap().getWidth(),
+                (float) imageSource.getHeight() / rotateBitmap.getBitmap().getHeight());
+        if (metadataOnly) {
+            if (!regions.isEmpty()) {
+                // Crop rejects this, but the Intent may have been built by hand
+                setResultException(new IllegalStateException("Regions cannot be combined with metadata only"));
+                finish();
+                return;
             }
+            saveMetadata(cropView.getScaledCropRect(previewScale));
+            return;
         }
-
-        try {
-            croppedImage = decodeRegionCrop(r, outWidth, outHeight);
-        } catch (IllegalArgumentException e) {
-            setResultException(e);
-            finish();
+        if (!regions.isEmpty()) {
+            onSaveRegions(previewScale);
             return;
         }
+        final Rect cropRect = cropView.getScaledCropRect(previewScale);
 
-        /*if (croppedImage != null) {
-            imageView.setImageRotateBitmapResetBase(new RotateBitmap(croppedImage, exifRotation), true);
-            imageView.center();
-            imageView.highlightViews.clear();
-        }*/
+        // Release the preview before the region is decoded at full resolution
         clearImageView();
         imageView.highlightViews.clear();
-        saveImage(croppedImage);
-    }
 
-    private void saveImage(Bitmap croppedImage) {
-        if (croppedImage != null) {
-            final Bitmap b = croppedImage;
-            CropUtil.startBackgroundJob(this, null, getResources().getString(R.string.crop__saving),
-                    new Runnable() {
-                        public void run() {
-                            saveOutput(b);
-                        }
-                    }, handler
-            );
-        } else {
-            finish();
-        }
+        CropUtil.startBackgroundJob(this, null, getResources().getString(R.string.crop__saving_decoding),
+                new CropUtil.ProgressJob() {
+                    public void run(CropUtil.Progress progress) {
+                        saveCrop(cropRect, progress);
+                    }
+                }, handler
+        );
     }
 
     /**
-     * will attempt to create a region decoder. If it fails due difficult encoding, return null
-     *
-     * @param sourceUri the source Uri of the image
-     * @return the decoder or null
+     * Reports the crop area in source coordinates and the size the crop would be saved at,
+     * nothing is decoded or written
      */
-    @Nullable
-    private BitmapRegionDecoderCompat loadBitmapRegionDecoder(final Uri sourceUri) {
+    private void saveMetadata(Rect rect) {
+        final Rect sourceRect = CropProcessor.toSourceRect(rect, exifRotation,
+                imageSource.getWidth(), imageSource.getHeight());
+        final Point outSize = CropProcessor.fitOutputSize(rect.width(), rect.height(), maxX, maxY);
+        setResultUri(new CropProcessor.Result(saveUri, outSize.x, outSize.y, exifRotation, -1, -1,
+                OutputFormat.JPEG.getMimeType(), fallback.value, Collections.<CropProcessor.Result>emptyList()),
+                null, sourceRect);
+        Log.d("Crop area " + sourceRect.toShortString() + ", rotation " + exifRotation);
+        finish();
+    }
 
-        InputStream is = null;
-        BitmapRegionDecoderCompat decoder = null;
-        try {
-            is = this.getContentResolver().openInputStream(sourceUri);
-            decoder = BitmapRegionDecoderCompat.newInstance(is, false);
-        } catch (IOException e) {
-            // we know this error, meh
-        } finally {
-            CropUtil.closeSilently(is);
+    private void onSaveRegions(float previewScale) {
+        final List<Rect> rects = new ArrayList<>();
+        for (int i = 0; i < regions.size(); i++) {
+            rects.add(imageView.highlightViews.get(i).getScaledCropRect(previewScale));
         }
-        return decoder;
 
+        clearImageView();
+        imageView.highlightViews.clear();
+
+        CropUtil.startBackgroundJob(this, null, getResources().getString(R.string.crop__saving_decoding),
+                new CropUtil.ProgressJob() {
+                    public void run(CropUtil.Progress progress) {
+                        saveRegions(rects, progress);
+                    }
+                }, handler
+        );
     }
 
     /**
-     * will attempt to load the bitmap completely.
-     *
-     * @param sourceUri the source Uri of the image
-     * @return the loaded bitmap or null if it fails to load the image
+     * Saves the crop off the UI thread, from the source the preview was decoded from
      */
-    @Nullable
-    private Bitmap loadOriginalImage(final Uri sourceUri) {
-
-        InputStream is = null;
-        try {
-            final int sampleSize = calculateBitmapSampleSize(sourceUri);
-            is = this.getContentResolver().openInputStream(sourceUri);
-            final BitmapFactory.Options option = new BitmapFactory.Options();
-            option.inPreferredConfig = Bitmap.Config.ARGB_8888;
-            option.inSampleSize = sampleSize;
-            return BitmapFactory.decodeStream(is, null, option);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            CropUtil.closeSilently(is);
-        }
-        return null;
-
-    }
-
-    @Nullable
-    private Bitmap decodeRegionCrop(Rect rect, int outWidth, int outHeight) {
-
-        // Release memory now
-        //clearImageView();
-
-        Bitmap originalImage = null;
-        Bitmap croppedImage = null;
-        BitmapRegionDecoderCompat decoder;
-
-        // try to create the bitmap decoder
-        decoder = loadBitmapRegionDecoder(sourceUri);
-        if (decoder == null) {
-            // if the decoder creation fails, load the image completely instead
-            originalImage = loadOriginalImage(sourceUri);
-            if (originalImage == null) {
-                return null;
-            }
+    private void saveCrop(Rect rect, CropUtil.Progress progress) {
+        if (saveUri == null && outputs.isEmpty()) {
+            finish();
+            return;
         }
-
         try {
-            final int width;
-            final int height;
-            if (decoder != null) {
-                width = decoder.getWidth();
-                height = decoder.getHeight();
-            } else {
-                width = originalImage.getWidth();
-                height = originalImage.getHeight();
-            }
-
-            final boolean orientationChanged = (exifRotation / 90) % 2 != 0;
-            if (orientationChanged) {
-                final int tmp = outWidth;
-                outWidth = outHeight;
-                outHeight = tmp;
-            }
-
-            if (exifRotation != 0) {
-                // Adjust crop area to account for image rotation
-                Matrix matrix = new Matrix();
-                matrix.setRotate(-exifRotation);
-
-                RectF adjusted = new RectF();
-                matrix.mapRect(adjusted, new RectF(rect));
-
-                // Adjust to account for origin at 0,0
-                adjusted.offset(adjusted.left < 0 ? width : 0, adjusted.top < 0 ? height : 0);
-                rect = new Rect((int) adjusted.left, (int) adjusted.top, (int) adjusted.right, (int) adjusted.bottom);
-            }
-
-            try {
-                if (decoder != null) {
-                    croppedImage = decoder.decodeRegion(rect, new BitmapFactory.Options());
-                } else {
-                    croppedImage = Bitmap.createBitmap(originalImage, rect.left, rect.top, rect.right - rect.left, rect.bottom - rect.top);
-                    if (originalImage != croppedImage) {
-                        originalImage.recycle();
-                    }
-                }
-                Matrix matrix = new Matrix();
-                boolean needsCreateBitmap = false;
-                if (exifRotation != 0) {
-                    matrix.postRotate(exifRotation);
-                    needsCreateBitmap = true;
-                }
-                if (croppedImage != null && (rect.width() > outWidth || rect.height() > outHeight)) {
-                    matrix.postScale((float) outWidth / rect.width(), (float) outHeight / rect.height());
-                    needsCreateBitmap = true;
-                }
-                if (needsCreateBitmap) {
-                    croppedImage = Bitmap.createBitmap(croppedImage, 0, 0, croppedImage.getWidth(), croppedImage.getHeight(), matrix, true);
-                }
-            } catch (IllegalArgumentException e) {
-                // Rethrow with some extra information
-                throw new IllegalArgumentException("Rectangle " + rect + " is outside of the image ("
-                        + width + "," + height + "," + exifRotation + ")", e);
-            }
+            setResultUri(newProcessor(saveUri, rect)
+                    .withMaxSize(maxX, maxY)
+                    .withOutputs(outputs)
+                    .process(progress), null, null);
         } catch (Exception e) {
-            //Log.e("Error cropping image: " + e.getMessage(), e);
             Log.e("Error cropping image: " + e.getMessage(), e);
             setResultException(e);
         } catch (OutOfMemoryError e) {
             Log.e("OOM cropping image: " + e.getMessage(), e);
             setResultException(e);
         }
-        return croppedImage;
+        finish();
+    }
+
+    /**
+     * Cuts every region from the shared region decoder in turn and saves it to its own Uri
+     */
+    private void saveRegions(List<Rect> rects, CropUtil.Progress progress) {
+        final List<CropProcessor.Result> results = new ArrayList<>();
+        final String[] names = new String[regions.size()];
+        for (int i = 0; i < regions.size(); i++) {
+            final CropRegion region = regions.get(i);
+            names[i] = region.getName();
+            try {
+                results.add(newProcessor(region.getUri(), rects.get(i))
+                        .withMaxSize(region.getMaxWidth(), region.getMaxHeight())
+                        .process(progress));
+            } catch (Exception e) {
+                Log.e("Error saving region " + region.getName() + ": " + e.getMessage(), e);
+                setResultException(e);
+                finish();
+                return;
+            } catch (OutOfMemoryError e) {
+                Log.e("OOM saving region " + region.getName() + ": " + e.getMessage(), e);
+                setResultException(e);
+                finish();
+                return;
+            }
+        }
+
+        final CropProcessor.Result first = results.get(0);
+        DecodeLadder.Rung rung = DecodeLadder.Rung.NONE;
+        boolean overTarget = false;
+        for (CropProcessor.Result result : results) {
+            rung = DecodeLadder.Rung.max(rung, DecodeLadder.Rung.of(result.getFallback()));
+            overTarget |= result.isOverTarget();
+        }
+        setResultUri(new CropProcessor.Result(first.getUri(), first.getWidth(), first.getHeight(), first.getRotation(),
+                first.getQuality(), first.getBytes(), first.getMimeType(), rung.value, results, overTarget), names, null);
+        Log.d("Saved " + regions.size() + " regions, " + memoryBudget);
+        finish();
+    }
+
+    private CropProcessor newProcessor(Uri destination, Rect rect) {
+        final CropProcessor processor = CropProcessor.of(this, sourceUri, destination)
+                .withImageSource(imageSource)
+                .withRect(rect)
+                .withRotation(exifRotation)
+                .withJpgQuality(getJpegQuality())
+                .withTargetBytes(targetBytes)
+                .withOutputFormat(outputFormat, outputProfile);
+        return lossless ? processor.asLossless() : processor;
+    }
+
+    private synchronized void reportFallback(DecodeLadder.Rung rung) {
+        fallback = DecodeLadder.Rung.max(fallback, rung);
     }
 
     private void clearImageView() {
+        // The recycler hands the displayed preview back to the pool
         imageView.clear();
         if (rotateBitmap != null) {
-            rotateBitmap.recycle();
+            rotateBitmap.setBitmap(null);
         }
-        System.gc();
     }
 
 
-    private void saveOutput(Bitmap croppedImage) {
-
+    private int getJpegQuality() {
         int jpgQuality = 90;
         Intent intent = getIntent();
         Bundle extras = intent.getExtras();
@@ -627,47 +701,27 @@ public class CropImageActivity extends MonitoredActivity {
                 jpgQuality = extras.getInt(Crop.Extra.JPG_QUALITY);
             }
         }
-
-        if (saveUri != null) {
-            OutputStream outputStream = null;
-            try {
-                outputStream = getContentResolver().openOutputStream(saveUri);
-                if (outputStream != null) {
-                    croppedImage.compress(Bitmap.CompressFormat.JPEG, jpgQuality, outputStream);
-                }
-            } catch (IOException e) {
-                setResultException(e);
-                Log.e("Cannot open file: " + saveUri, e);
-            } finally {
-                CropUtil.closeSilently(outputStream);
-            }
-
-            try {
-                ExifUtil.copyExif(RealPathUtil.getPath(this, sourceUri),RealPathUtil.getPath(this, saveUri));
-            } catch (Exception e) {
-                Log.e("Error copying Exif data", e);
-            }
-
-            setResultUri(this.saveUri, this.exifRotation, croppedImage.getWidth(), croppedImage.getHeight());
-        }
-
-        final Bitmap b = croppedImage;
-        handler.post(new Runnable() {
-            public void run() {
-                imageView.clear();
-                b.recycle();
-            }
-        });
-
-        finish();
+        return jpgQuality;
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (loadSubscription != null) {
+            loadSubscription.unsubscribe();
+        }
         if (rotateBitmap != null) {
             rotateBitmap.recycle();
         }
+        if (imageView != null) {
+            imageView.setImageSource(null);
+        }
+        if (imageSource != null) {
+            imageSource.release();
+        }
+        if (bitmapPool != null) {
+            bitmapPool.clear();
+        }
     }
 
     @Override
@@ -679,14 +733,44 @@ public class CropImageActivity extends MonitoredActivity {
         return isSaving;
     }
 
-    private void setResultUri(final Uri uri, final int rotation, final int width, final int height) {
+    private void setResultUri(CropProcessor.Result saved, @Nullable String[] outputNames, @Nullable Rect cropRect) {
+        final Intent result = new Intent();
+        final List<CropProcessor.Result> outputs = saved.getOutputs();
+        if (!outputs.isEmpty()) {
+            final ArrayList<Uri> uris = new ArrayList<>();
+            final int[] widths = new int[outputs.size()];
+            final int[] heights = new int[outputs.size()];
+            final long[] bytes = new long[outputs.size()];
+            for (int i = 0; i < outputs.size(); i++) {
+                uris.add(outputs.get(i).getUri());
+                widths[i] = outputs.get(i).getWidth();
+                heights[i] = outputs.get(i).getHeight();
+                bytes[i] = outputs.get(i).getBytes();
+            }
+            if (outputNames != null) {
+                result.putExtra(Crop.EXTRA_OUTPUT_NAMES, outputNames);
+            }
+            result.putParcelableArrayListExtra(Crop.EXTRA_OUTPUT_URIS, uris)
+                    .putExtra(Crop.EXTRA_OUTPUT_WIDTHS, widths)
+                    .putExtra(Crop.EXTRA_OUTPUT_HEIGHTS, heights)
+                    .putExtra(Crop.EXTRA_OUTPUT_BYTES, bytes);
+        }
+        if (cropRect != null) {
+            result.putExtra(Crop.EXTRA_DATA_CROP_RECT, cropRect);
+        }
+        final DecodeLadder.Rung rung = DecodeLadder.Rung.max(fallback, DecodeLadder.Rung.of(saved.getFallback()));
         setResult(
-                RESULT_OK, new Intent()
-                        .putExtra(MediaStore.EXTRA_OUTPUT, uri)
-                        .putExtra(Crop.EXTRA_META_EXIF_ROTATION, rotation)
+                RESULT_OK, result
+                        .putExtra(MediaStore.EXTRA_OUTPUT, saved.getUri())
+                        .putExtra(Crop.EXTRA_META_EXIF_ROTATION, saved.getRotation())
                         .putExtra(Crop.EXTRA_LOOPBACK_DATA, loopbackTag)
-                        .putExtra(Crop.EXTRA_DATA_WIDTH, width)
-                        .putExtra(Crop.EXTRA_DATA_HEIGHT, height)
+                        .putExtra(Crop.EXTRA_DATA_WIDTH, saved.getWidth())
+                        .putExtra(Crop.EXTRA_DATA_HEIGHT, saved.getHeight())
+                        .putExtra(Crop.EXTRA_DATA_QUALITY, saved.getQuality())
+                        .putExtra(Crop.EXTRA_DATA_BYTES, saved.getBytes())
+                        .putExtra(Crop.EXTRA_DATA_MIME_TYPE, saved.getMimeType())
+                        .putExtra(Crop.EXTRA_FALLBACK, rung.value)
+                        .putExtra(Crop.EXTRA_OVER_TARGET, saved.isOverTarget())
         );
     }
 
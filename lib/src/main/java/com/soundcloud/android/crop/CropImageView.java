@@ -1,12 +1,16 @@
 package com.soundcloud.android.crop;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.support.annotation.NonNull;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 
+import com.soundcloud.android.crop.geometry.ViewLayout;
+
 import java.util.ArrayList;
 
 public class CropImageView extends ImageViewTouchBase {
@@ -20,6 +24,14 @@ public class CropImageView extends ImageViewTouchBase {
     private int motionEdge;
     private int validPointerId;
 
+    // The preview is only decoded at display size, zoomed in detail is rendered in tiles
+    private TileRenderer tileRenderer;
+    private final Runnable tileUpdateRunnable = new Runnable() {
+        public void run() {
+            updateTiles();
+        }
+    };
+
     public CropImageView(Context context) {
         super(context);
     }
@@ -32,6 +44,31 @@ public class CropImageView extends ImageViewTouchBase {
         super(context, attrs, defStyle);
     }
 
+    /**
+     * Source the displayed preview was sampled from. Used to allow zooming up to the
+     * source resolution and to render the visible part in tiles when zoomed in. Without a
+     * region decoder every tile would decode the whole source, so zoom stays capped at the
+     * preview resolution instead.
+     */
+    public void setImageSource(ImageSource imageSource) {
+        releaseTiles();
+        if (imageSource != null && imageSource.canDecodeInStrips()) {
+            // Tiles never take more than an eighth of the heap, or a quarter of the session budget
+            long cacheBytes = Runtime.getRuntime().maxMemory() / 8;
+            MemoryBudget memoryBudget = imageSource.getMemoryBudget();
+            if (memoryBudget != null) {
+                cacheBytes = Math.min(cacheBytes, memoryBudget.getBudgetBytes() / 4);
+            }
+            tileRenderer = new TileRenderer(this, imageSource, (int) Math.min(Integer.MAX_VALUE, cacheBytes));
+        }
+    }
+
+    @Override
+    public void clear() {
+        releaseTiles();
+        super.clear();
+    }
+
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         super.onLayout(changed, left, top, right, bottom);
@@ -45,6 +82,13 @@ public class CropImageView extends ImageViewTouchBase {
                 }
             }
         }
+        scheduleTileUpdate();
+    }
+
+    @Override
+    protected float calculateMaxZoom() {
+        // Allow zooming in relative to the source rather than the sampled preview
+        return super.calculateMaxZoom() * getPreviewSampleScale();
     }
 
     @Override
@@ -54,6 +98,7 @@ public class CropImageView extends ImageViewTouchBase {
             hv.matrix.set(getUnrotatedMatrix());
             hv.invalidate();
         }
+        scheduleTileUpdate();
     }
 
     @Override
@@ -63,6 +108,7 @@ public class CropImageView extends ImageViewTouchBase {
             hv.matrix.set(getUnrotatedMatrix());
             hv.invalidate();
         }
+        scheduleTileUpdate();
     }
 
     @Override
@@ -72,6 +118,7 @@ public class CropImageView extends ImageViewTouchBase {
             hv.matrix.set(getUnrotatedMatrix());
             hv.invalidate();
         }
+        scheduleTileUpdate();
     }
 
     @Override
@@ -81,6 +128,55 @@ public class CropImageView extends ImageViewTouchBase {
             hv.matrix.postTranslate(deltaX, deltaY);
             hv.invalidate();
         }
+        scheduleTileUpdate();
+    }
+
+    // Source pixels per preview pixel
+    private float getPreviewSampleScale() {
+        Bitmap preview = bitmapDisplayed.getBitmap();
+        if (tileRenderer == null || preview == null) {
+            return 1f;
+        }
+        return Math.min((float) tileRenderer.getSource().getWidth() / preview.getWidth(),
+                (float) tileRenderer.getSource().getHeight() / preview.getHeight());
+    }
+
+    // Maps source coordinates to the screen
+    private Matrix getSourceMatrix() {
+        Matrix matrix = new Matrix(getImageViewMatrix());
+        Bitmap preview = bitmapDisplayed.getBitmap();
+        if (tileRenderer != null && preview != null) {
+            // The preview is stretched over the whole source, see setContentSize()
+            matrix.preScale((float) preview.getWidth() / tileRenderer.getSource().getWidth(),
+                    (float) preview.getHeight() / tileRenderer.getSource().getHeight());
+        }
+        return matrix;
+    }
+
+    private void scheduleTileUpdate() {
+        if (tileRenderer == null) {
+            return;
+        }
+        // Coalesce the matrix changes of one frame into a single update
+        handler.removeCallbacks(tileUpdateRunnable);
+        handler.post(tileUpdateRunnable);
+    }
+
+    private void updateTiles() {
+        if (tileRenderer == null || bitmapDisplayed.getBitmap() == null || getWidth() <= 0) {
+            return;
+        }
+        tileRenderer.update(getSourceMatrix(), getWidth(), getHeight(), getPreviewSampleScale());
+        invalidate();
+    }
+
+    private void releaseTiles() {
+        handler.removeCallbacks(tileUpdateRunnable);
+        if (tileRenderer != null) {
+            tileRenderer.release();
+            tileRenderer = null;
+        }
+        invalidate();
     }
 
     @Override
@@ -97,6 +193,7 @@ public class CropImageView extends ImageViewTouchBase {
                 if (edge != HighlightView.GROW_NONE) {
                     motionEdge = edge;
                     motionHighlightView = hv;
+                    focus(hv);
                     lastX = event.getX();
                     lastY = event.getY();
                     // Prevent multiple touches from interfering with crop area re-sizing
@@ -139,14 +236,8 @@ public class CropImageView extends ImageViewTouchBase {
     private void ensureVisible(HighlightView hv) {
         Rect r = hv.drawRect;
 
-        int panDeltaX1 = Math.max(0, getLeft() - r.left);
-        int panDeltaX2 = Math.min(0, getRight() - r.right);
-
-        int panDeltaY1 = Math.max(0, getTop() - r.top);
-        int panDeltaY2 = Math.min(0, getBottom() - r.bottom);
-
-        int panDeltaX = panDeltaX1 != 0 ? panDeltaX1 : panDeltaX2;
-        int panDeltaY = panDeltaY1 != 0 ? panDeltaY1 : panDeltaY2;
+        int panDeltaX = ViewLayout.panDelta(r.left, r.right, getLeft(), getRight());
+        int panDeltaY = ViewLayout.panDelta(r.top, r.bottom, getTop(), getBottom());
 
         if (panDeltaX != 0 || panDeltaY != 0) {
             panBy(panDeltaX, panDeltaY);
@@ -158,18 +249,7 @@ public class CropImageView extends ImageViewTouchBase {
     private void centerBasedOnHighlightView(HighlightView hv) {
         Rect drawRect = hv.drawRect;
 
-        float width = drawRect.width();
-        float height = drawRect.height();
-
-        float thisWidth = getWidth();
-        float thisHeight = getHeight();
-
-        float z1 = thisWidth / width * .6f;
-        float z2 = thisHeight / height * .6f;
-
-        float zoom = Math.min(z1, z2);
-        zoom = zoom * this.getScale();
-        zoom = Math.max(1f, zoom);
+        float zoom = ViewLayout.zoomToFit(drawRect.width(), drawRect.height(), getWidth(), getHeight(), getScale());
 
         if ((Math.abs(zoom - getScale()) / zoom) > .1) {
             float[] coordinates = new float[] { hv.cropRect.centerX(), hv.cropRect.centerY() };
@@ -183,11 +263,28 @@ public class CropImageView extends ImageViewTouchBase {
     @Override
     protected void onDraw(@NonNull Canvas canvas) {
         super.onDraw(canvas);
+        if (tileRenderer != null && bitmapDisplayed.getBitmap() != null) {
+            canvas.save();
+            canvas.translate(getPaddingLeft(), getPaddingTop());
+            tileRenderer.draw(canvas, getSourceMatrix());
+            canvas.restore();
+        }
         for (HighlightView highlightView : highlightViews) {
             highlightView.draw(canvas);
         }
     }
 
+    // With several crop areas, the touched one is highlighted
+    private void focus(HighlightView focused) {
+        if (focused.hasFocus()) {
+            return;
+        }
+        for (HighlightView hv : highlightViews) {
+            hv.setFocus(hv == focused);
+        }
+        invalidate();
+    }
+
     public void add(HighlightView hv) {
         highlightViews.add(hv);
         invalidate();
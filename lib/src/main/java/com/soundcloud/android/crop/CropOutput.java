@@ -0,0 +1,100 @@
+package com.soundcloud.android.crop;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Additional rendition of a crop, scaled down from the same decode as the main output
+ */
+public class CropOutput {
+
+    private static final String EXTRA_URIS = "outputs_uris";
+    private static final String EXTRA_MAX_SIZES = "outputs_max_sizes";
+    private static final String EXTRA_FORMATS = "outputs_formats";
+    private static final String EXTRA_QUALITIES = "outputs_qualities";
+
+    private final Uri uri;
+    private final int maxSize;
+    private final OutputFormat format;
+    private final int quality;
+
+    /**
+     * JPEG rendition with the default quality
+     *
+     * @param uri     Uri for saving the rendition
+     * @param maxSize Maximum width and height
+     */
+    public CropOutput(Uri uri, int maxSize) {
+        this(uri, maxSize, OutputFormat.JPEG, 90);
+    }
+
+    /**
+     * @param uri     Uri for saving the rendition
+     * @param maxSize Maximum width and height
+     * @param format  Output format
+     * @param quality Quality of lossy formats (10< q <100)
+     */
+    public CropOutput(Uri uri, int maxSize, OutputFormat format, int quality) {
+        this.uri = uri;
+        this.maxSize = maxSize;
+        this.format = format;
+        this.quality = quality;
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public OutputFormat getFormat() {
+        return format;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    static void putExtras(Intent intent, CropOutput... outputs) {
+        final ArrayList<Uri> uris = new ArrayList<>();
+        final int[] maxSizes = new int[outputs.length];
+        final String[] formats = new String[outputs.length];
+        final int[] qualities = new int[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            uris.add(outputs[i].uri);
+            maxSizes[i] = outputs[i].maxSize;
+            formats[i] = outputs[i].format.name();
+            qualities[i] = outputs[i].quality;
+        }
+        intent.putParcelableArrayListExtra(EXTRA_URIS, uris);
+        intent.putExtra(EXTRA_MAX_SIZES, maxSizes);
+        intent.putExtra(EXTRA_FORMATS, formats);
+        intent.putExtra(EXTRA_QUALITIES, qualities);
+    }
+
+    static boolean hasExtras(Intent intent) {
+        return intent.hasExtra(EXTRA_URIS);
+    }
+
+    static List<CropOutput> fromExtras(Bundle extras) {
+        final ArrayList<Uri> uris = extras.getParcelableArrayList(EXTRA_URIS);
+        if (uris == null) {
+            return Collections.emptyList();
+        }
+        final int[] maxSizes = extras.getIntArray(EXTRA_MAX_SIZES);
+        final String[] formats = extras.getStringArray(EXTRA_FORMATS);
+        final int[] qualities = extras.getIntArray(EXTRA_QUALITIES);
+        final List<CropOutput> outputs = new ArrayList<>();
+        for (int i = 0; i < uris.size(); i++) {
+            outputs.add(new CropOutput(uris.get(i), maxSizes[i], OutputFormat.valueOf(formats[i]), qualities[i]));
+        }
+        return outputs;
+    }
+}
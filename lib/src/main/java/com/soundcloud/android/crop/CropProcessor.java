@@ -0,0 +1,825 @@
+package com.soundcloud.android.crop;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.support.annotation.Nullable;
+
+import com.soundcloud.android.crop.geometry.Box;
+import com.soundcloud.android.crop.geometry.CropSize;
+import com.soundcloud.android.crop.geometry.Rotation;
+import com.soundcloud.android.crop.geometry.Size;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+/**
+ * Crops an image without a UI: decodes the crop area, scales it down to the max size,
+ * rotates it and saves it with its Exif data. {@link CropImageActivity} saves with it too,
+ * so a background service gets the same engine as the crop screen.
+ *
+ * <pre>
+ * CropProcessor.Result result = CropProcessor.of(context, source, destination)
+ *         .withRect(rect)
+ *         .withMaxSize(1024, 1024)
+ *         .process();
+ * </pre>
+ */
+public class CropProcessor {
+
+    private static final int DEFAULT_QUALITY = 90;
+
+    /**
+     * What was saved, with the same values as the result Intent of the crop screen
+     */
+    public static class Result {
+        private final Uri uri;
+        private final int width;
+        private final int height;
+        private final int rotation;
+        private final int quality;
+        private final long bytes;
+        private final String mimeType;
+        private final String fallback;
+        private final List<Result> outputs;
+        private final boolean overTarget;
+
+        Result(Uri uri, int width, int height, int rotation, int quality, long bytes, String mimeType,
+               String fallback, List<Result> outputs) {
+            this(uri, width, height, rotation, quality, bytes, mimeType, fallback, outputs, false);
+        }
+
+        Result(Uri uri, int width, int height, int rotation, int quality, long bytes, String mimeType,
+               String fallback, List<Result> outputs, boolean overTarget) {
+            this.uri = uri;
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+            this.quality = quality;
+            this.bytes = bytes;
+            this.mimeType = mimeType;
+            this.fallback = fallback;
+            this.outputs = outputs;
+            this.overTarget = overTarget;
+        }
+
+        /**
+         * @return where the image was saved, null if only {@link CropOutput}s were requested;
+         * then the size is that of the crop they were scaled from, and nothing was encoded
+         */
+        @Nullable
+        public Uri getUri() {
+            return uri;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return the Exif rotation of the source, which has been applied to the saved image
+         */
+        public int getRotation() {
+            return rotation;
+        }
+
+        /**
+         * @return the quality the image was encoded with, -1 if it was copied
+         */
+        public int getQuality() {
+            return quality;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * @return one of the Crop.FALLBACK_* values
+         */
+        public String getFallback() {
+            return fallback;
+        }
+
+        /**
+         * @return the destination and every {@link CropOutput} in the order they were given,
+         * empty if no outputs were requested
+         */
+        public List<Result> getOutputs() {
+            return outputs;
+        }
+
+        /**
+         * @return true if a byte budget was set and the image is larger even at the lowest quality
+         */
+        public boolean isOverTarget() {
+            return overTarget;
+        }
+    }
+
+    private final Context context;
+    private final Uri source;
+    private final Uri destination;
+    private Rect rect;
+    private int aspectX;
+    private int aspectY;
+    private int maxX;
+    private int maxY;
+    private int quality = DEFAULT_QUALITY;
+    private int rotation = -1;
+    private boolean lossless;
+    private long targetBytes;
+    private OutputFormat outputFormat = OutputFormat.JPEG;
+    private OutputFormat.Profile outputProfile = OutputFormat.Profile.BALANCED;
+    private List<CropOutput> outputs = Collections.emptyList();
+
+    private int decodeThreads = Runtime.getRuntime().availableProcessors();
+
+    // Shared with a crop session or other crops, otherwise each run opens its own
+    private ImageSource sharedSource;
+    private MemoryBudget sharedBudget;
+
+    /**
+     * Create a processor with source and destination image Uris
+     *
+     * @param source      Uri for image to crop
+     * @param destination Uri for saving the cropped image, null to only save {@link CropOutput}s
+     */
+    public static CropProcessor of(Context context, Uri source, @Nullable Uri destination) {
+        return new CropProcessor(context, source, destination);
+    }
+
+    private CropProcessor(Context context, Uri source, @Nullable Uri destination) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.source = source;
+        this.destination = destination;
+    }
+
+    /**
+     * Set the crop area, in pixels of the source as it is displayed after its rotation.
+     * The whole image is saved if no area is set.
+     */
+    public CropProcessor withRect(Rect rect) {
+        this.rect = new Rect(rect);
+        return this;
+    }
+
+    /**
+     * Crop the largest area with this aspect ratio around the center, if no area is set
+     *
+     * @param x Aspect X
+     * @param y Aspect Y
+     */
+    public CropProcessor withAspect(int x, int y) {
+        this.aspectX = x;
+        this.aspectY = y;
+        return this;
+    }
+
+    /**
+     * Set maximum crop size
+     *
+     * @param width  Max width
+     * @param height Max height
+     */
+    public CropProcessor withMaxSize(int width, int height) {
+        this.maxX = width;
+        this.maxY = height;
+        return this;
+    }
+
+    /**
+     * Set JPG quality
+     *
+     * @param quality JPG quality (10< q <100)
+     */
+    public CropProcessor withJpgQuality(int quality) {
+        this.quality = quality;
+        return this;
+    }
+
+    /**
+     * Rotate by this many degrees instead of the Exif rotation of the source
+     *
+     * @param degrees A multiple of 90
+     * @throws IllegalArgumentException if the degrees are not a multiple of 90
+     */
+    public CropProcessor withRotation(int degrees) {
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90: " + degrees);
+        }
+        this.rotation = ((degrees % 360) + 360) % 360;
+        return this;
+    }
+
+    /**
+     * Crop baseline JPEGs without re-encoding them, see {@link Crop#asLossless()}.
+     * Cannot be combined with {@link #withOutputs(CropOutput...)}.
+     */
+    public CropProcessor asLossless() {
+        this.lossless = true;
+        return this;
+    }
+
+    /**
+     * Keep the saved image under a byte budget, see {@link Crop#withTargetBytes(long)}.
+     * Cannot be combined with {@link #withOutputs(CropOutput...)}.
+     */
+    public CropProcessor withTargetBytes(long bytes) {
+        this.targetBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Save in another format than JPEG, see {@link Crop#withOutputFormat(OutputFormat)}
+     */
+    public CropProcessor withOutputFormat(OutputFormat format) {
+        return withOutputFormat(format, OutputFormat.Profile.BALANCED);
+    }
+
+    /**
+     * Save in another format than JPEG, with a profile for lossless WebP, see
+     * {@link Crop#withOutputFormat(OutputFormat, OutputFormat.Profile)}
+     */
+    public CropProcessor withOutputFormat(OutputFormat format, OutputFormat.Profile profile) {
+        this.outputFormat = format;
+        this.outputProfile = profile;
+        return this;
+    }
+
+    /**
+     * Also save smaller renditions, see {@link Crop#withOutputs(CropOutput...)}. All renditions
+     * are encoded at their quality, so neither a byte budget nor a lossless crop can be set.
+     */
+    public CropProcessor withOutputs(CropOutput... outputs) {
+        return withOutputs(Arrays.asList(outputs));
+    }
+
+    CropProcessor withOutputs(List<CropOutput> outputs) {
+        this.outputs = outputs;
+        return this;
+    }
+
+    /**
+     * Crops from an open source, which is left open, instead of opening the source Uri again
+     */
+    CropProcessor withImageSource(ImageSource imageSource) {
+        this.sharedSource = imageSource;
+        return this;
+    }
+
+    /**
+     * Counts the bitmaps of the crop against a budget shared with other crops, when the
+     * source is not shared
+     */
+    CropProcessor withMemoryBudget(MemoryBudget memoryBudget) {
+        this.sharedBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * Decodes large crops in tiles on at most this many threads, all cores by default
+     */
+    CropProcessor withDecodeThreads(int threads) {
+        this.decodeThreads = threads;
+        return this;
+    }
+
+    /**
+     * Crops on the io scheduler when subscribed to. A crop that does not fit in memory even
+     * with the fallbacks fails with an IOException caused by the OutOfMemoryError, which Rx
+     * would otherwise rethrow on the io thread.
+     */
+    public Observable<Result> toObservable() {
+        return Observable.fromCallable(new Callable<Result>() {
+            @Override
+            public Result call() throws IOException {
+                try {
+                    return process();
+                } catch (OutOfMemoryError e) {
+                    throw new IOException("Out of memory cropping " + source, e);
+                }
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Crops on the calling thread, which should not be the UI thread
+     *
+     * @throws OutOfMemoryError if the crop does not fit in memory even with the fallbacks
+     */
+    public Result process() throws IOException {
+        return process(null);
+    }
+
+    Result process(@Nullable CropUtil.Progress progress) throws IOException {
+        if (destination == null && outputs.isEmpty()) {
+            throw new IllegalStateException("Nothing to save, set a destination or outputs");
+        }
+        if (!outputs.isEmpty() && (targetBytes > 0 || lossless)) {
+            throw new IllegalStateException("Outputs cannot be combined with a byte budget or a lossless crop");
+        }
+        final boolean owned = sharedSource == null;
+        final ImageSource imageSource = owned ? ImageSource.open(context.getContentResolver(), source) : sharedSource;
+        try {
+            if (owned) {
+                imageSource.setMemoryBudget(sharedBudget != null ? sharedBudget : MemoryBudget.fromContext(context));
+            } else if (imageSource.getMemoryBudget() == null) {
+                imageSource.setMemoryBudget(MemoryBudget.fromContext(context));
+            }
+            return new Run(imageSource).crop(progress);
+        } finally {
+            if (owned) {
+                imageSource.release();
+            }
+        }
+    }
+
+    /**
+     * State of one run of the crop, so the processor itself can be run again
+     */
+    private class Run {
+        private final ImageSource imageSource;
+        private final MemoryBudget memoryBudget;
+        private DecodeLadder.Rung fallback = DecodeLadder.Rung.NONE;
+
+        Run(ImageSource imageSource) {
+            this.imageSource = imageSource;
+            this.memoryBudget = imageSource.getMemoryBudget();
+        }
+
+        /**
+         * Runs the whole save pipeline (decode, transform, encode, Exif).
+         * Crops that do not fit the memory budget as a bitmap are streamed to the output in strips.
+         */
+        private Result crop(@Nullable CropUtil.Progress progress) throws IOException {
+            final int exifRotation = imageSource.getExifRotation();
+            final int rotation = CropProcessor.this.rotation >= 0 ? CropProcessor.this.rotation : exifRotation;
+            final boolean orientationChanged = (rotation / 90) % 2 != 0;
+            final Rect bounds = orientationChanged ? new Rect(0, 0, imageSource.getHeight(), imageSource.getWidth())
+                    : new Rect(0, 0, imageSource.getWidth(), imageSource.getHeight());
+            Rect rect = CropProcessor.this.rect;
+            if (rect == null) {
+                rect = bounds;
+                if (aspectX > 0 && aspectY > 0) {
+                    rect = centerAspect(rect.width(), rect.height(), aspectX, aspectY);
+                }
+            } else if (isWholeImage(rect, bounds.width(), bounds.height())) {
+                // Sized, copied and reported as the whole image
+                rect = bounds;
+            }
+
+            // Decoded large enough for the largest rendition
+            int boxX = maxX;
+            int boxY = maxY;
+            for (CropOutput output : outputs) {
+                if (output.getMaxSize() <= 0) {
+                    boxX = 0;
+                    boxY = 0;
+                } else if (boxX > 0 && boxY > 0) {
+                    boxX = Math.max(boxX, output.getMaxSize());
+                    boxY = Math.max(boxY, output.getMaxSize());
+                }
+            }
+            final Point outSize = fitOutputSize(rect.width(), rect.height(), boxX, boxY);
+            final int outWidth = orientationChanged ? outSize.y : outSize.x;
+            final int outHeight = orientationChanged ? outSize.x : outSize.y;
+            rect = toSourceRect(rect, rotation, imageSource.getWidth(), imageSource.getHeight());
+
+            // Copies cannot be fitted to a byte budget, and only JPEG sources can be copied to JPEG outputs
+            final boolean jpegOutput = outputFormat.getCompressFormat() == Bitmap.CompressFormat.JPEG;
+            final boolean reencode = targetBytes > 0 || !jpegOutput || !outputs.isEmpty();
+            // The copy keeps the Exif rotation of the source, so it is only upright when neither
+            // that nor an override rotates it
+            if (!reencode && rotation == 0 && exifRotation == 0 && imageSource.isJpeg()
+                    && isWholeImage(rect, imageSource.getWidth(), imageSource.getHeight())
+                    && outWidth >= imageSource.getWidth() && outHeight >= imageSource.getHeight()) {
+                final Result result = savePassthrough(progress);
+                if (result != null) {
+                    return result;
+                }
+            }
+            if (lossless && !reencode && outWidth >= rect.width() && outHeight >= rect.height()) {
+                final Result result = saveLossless(rect, rotation, progress);
+                if (result != null) {
+                    return result;
+                }
+            }
+
+            final BitmapFactory.Options options = createDecodeOptions(rect, outWidth, outHeight);
+
+            // Only JPEGs can be encoded strip by strip, and only sources with a region decoder decoded that way.
+            // A byte budget needs trial encodes of a bitmap, so those crops fall back to a smaller decode instead.
+            if (destination != null && jpegOutput && outputs.isEmpty() && targetBytes <= 0
+                    && imageSource.canDecodeInStrips()
+                    && !memoryBudget.fits(rect.width(), rect.height(), options.inSampleSize,
+                    options.inPreferredConfig, 1)) {
+                return saveStreaming(rect, options, outWidth, outHeight, rotation, progress);
+            }
+            // Held until the decode is tracked, so crops sharing the budget do not plan with the same memory
+            final long decodeBytes = getDecodeBytes(options, rect, outWidth, outHeight);
+            if (!memoryBudget.reserve(decodeBytes)) {
+                Log.d("Crop no longer fits " + memoryBudget + ", leaving it to the decode fallbacks");
+            }
+            final Bitmap croppedImage;
+            try {
+                croppedImage = decodeRegionCrop(rect, options, outWidth, outHeight, rotation, progress);
+            } finally {
+                memoryBudget.release(decodeBytes);
+            }
+            try {
+                return outputs.isEmpty()
+                        ? saveOutput(croppedImage, rotation, progress)
+                        : saveRenditions(croppedImage, rotation, progress);
+            } finally {
+                imageSource.recycle(croppedImage);
+            }
+        }
+
+        /**
+         * Lets the decoder drop whole pixels instead of scaling a full size region down
+         */
+        private BitmapFactory.Options createDecodeOptions(Rect rect, int outWidth, int outHeight) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = CropUtil.calculateRegionSampleSize(rect.width(), rect.height(), outWidth, outHeight);
+            if (imageSource.canDecodeInStrips()) {
+                // Rotation and scaling are applied while decoding, so the region is the only full size bitmap
+                options.inPreferredConfig = memoryBudget.fitConfig(
+                        rect.width(), rect.height(), options.inSampleSize, imageSource.isOpaque(), 1);
+            } else {
+                fitWholeSourceDecode(options, rect, outWidth, outHeight);
+            }
+            return options;
+        }
+
+        /**
+         * Without region decoder the whole source is decoded and the crop is drawn from it into a
+         * bitmap of its own, so both have to fit. Falls back to RGB_565 for opaque sources, then
+         * samples down further.
+         */
+        private void fitWholeSourceDecode(BitmapFactory.Options options, Rect rect, int outWidth, int outHeight) {
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            if (imageSource.isOpaque()
+                    && !memoryBudget.fits(getWholeSourceDecodeBytes(options, rect, outWidth, outHeight))) {
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+            }
+            final int sampleSize = options.inSampleSize;
+            while (!memoryBudget.fits(getWholeSourceDecodeBytes(options, rect, outWidth, outHeight))
+                    && (imageSource.getWidth() / options.inSampleSize > 1
+                    || imageSource.getHeight() / options.inSampleSize > 1)) {
+                options.inSampleSize = options.inSampleSize << 1;
+            }
+            if (options.inSampleSize != sampleSize) {
+                Log.d("Crop sampled down to fit " + memoryBudget);
+            }
+        }
+
+        private long getDecodeBytes(BitmapFactory.Options options, Rect rect, int outWidth, int outHeight) {
+            if (imageSource.canDecodeInStrips()) {
+                final int sampleSize = options.inSampleSize;
+                return BitmapPool.getByteCount(rect.width() / sampleSize, rect.height() / sampleSize,
+                        options.inPreferredConfig);
+            }
+            return getWholeSourceDecodeBytes(options, rect, outWidth, outHeight);
+        }
+
+        private long getWholeSourceDecodeBytes(BitmapFactory.Options options, Rect rect, int outWidth, int outHeight) {
+            final int sampleSize = options.inSampleSize;
+            final long source = BitmapPool.getByteCount(imageSource.getWidth() / sampleSize,
+                    imageSource.getHeight() / sampleSize, options.inPreferredConfig);
+            // The crop is only ever scaled down to the output size
+            final long crop = BitmapPool.getByteCount(Math.min(rect.width() / sampleSize, outWidth),
+                    Math.min(rect.height() / sampleSize, outHeight), options.inPreferredConfig);
+            return source + crop;
+        }
+
+        private Bitmap decodeRegionCrop(Rect rect, BitmapFactory.Options options, int outWidth, int outHeight,
+                                        int rotation, @Nullable CropUtil.Progress progress) throws IOException {
+            // Scaling and rotating happen while decoding, so a transformed crop is reported as one stage
+            final boolean transformed = rotation != 0 || outWidth < rect.width() / options.inSampleSize
+                    || outHeight < rect.height() / options.inSampleSize;
+            setMessage(progress, transformed ? R.string.crop__saving_transforming : R.string.crop__saving_decoding);
+            final Bitmap croppedImage;
+            try {
+                // Only the residual scale is left once the decoder has sampled the region
+                // Large crops are decoded in tiles on the decode threads
+                final DecodeLadder ladder = new DecodeLadder(imageSource, decodeThreads);
+                croppedImage = ladder.decode(rect, options, outWidth, outHeight, rotation);
+                fallback = DecodeLadder.Rung.max(fallback, ladder.getRung());
+            } catch (IllegalArgumentException e) {
+                throw outsideOfImage(rect, rotation, e);
+            }
+            if (croppedImage == null) {
+                throw new IOException("Cannot decode " + rect + " of " + source);
+            }
+            return croppedImage;
+        }
+
+        /**
+         * Decodes, transforms and encodes the crop strip by strip straight into the output,
+         * for crops too large to be held as a bitmap. Only used without a byte budget; lossless
+         * crops get here once they could not be copied, and JPEG has no output profile.
+         */
+        private Result saveStreaming(Rect rect, BitmapFactory.Options options, int outWidth, int outHeight,
+                                     int rotation, @Nullable CropUtil.Progress progress) throws IOException {
+            Log.d("Crop does not fit " + memoryBudget + ", streaming it");
+            setMessage(progress, R.string.crop__saving);
+            final Point size;
+            final long bytes;
+            final OutputStream outputStream = openOutputStream(destination);
+            try {
+                final CountingOutputStream counted = new CountingOutputStream(new BufferedOutputStream(outputStream));
+                size = new StripWriter(imageSource)
+                        .write(rect, options, outWidth, outHeight, rotation, quality, counted);
+                bytes = counted.getCount();
+            } catch (IllegalArgumentException e) {
+                throw outsideOfImage(rect, rotation, e);
+            } finally {
+                CropUtil.closeSilently(outputStream);
+            }
+
+            copyExif(progress, destination);
+            Log.d("Saved crop, " + memoryBudget);
+            final boolean overTarget = targetBytes > 0 && bytes > targetBytes;
+            return new Result(destination, size.x, size.y, rotation, quality, bytes,
+                    OutputFormat.JPEG.getMimeType(), fallback.value, Collections.<Result>emptyList(), overTarget);
+        }
+
+        /**
+         * Copies the source to the output as it is, for crops of the whole image that need no transform
+         *
+         * @return null if the copy failed and the crop has to be re-encoded
+         */
+        @Nullable
+        private Result savePassthrough(@Nullable CropUtil.Progress progress) {
+            if (CropUtil.isSameFile(source, destination)) {
+                // Opening the destination would truncate the source before it is read
+                Log.d("Saving over the source, re-encoding instead of copying");
+                return null;
+            }
+            setMessage(progress, R.string.crop__saving);
+            final long bytes;
+            try {
+                bytes = CropUtil.copy(context.getContentResolver(), source, destination);
+                Log.d("Copied whole image, " + bytes + " bytes");
+            } catch (IOException e) {
+                Log.e("Cannot copy whole image, re-encoding: " + e.getMessage(), e);
+                return null;
+            } catch (SecurityException e) {
+                Log.e("Cannot copy whole image, re-encoding: " + e.getMessage(), e);
+                return null;
+            }
+            // The copy carries the Exif data of the source already
+            return new Result(destination, imageSource.getWidth(), imageSource.getHeight(), 0, -1, bytes,
+                    OutputFormat.JPEG.getMimeType(), fallback.value, Collections.<Result>emptyList());
+        }
+
+        /**
+         * Copies the compressed blocks of the crop into the output, rotated by the Exif rotation
+         *
+         * @return null if the source cannot be cropped losslessly and has to be re-encoded
+         */
+        @Nullable
+        private Result saveLossless(Rect rect, int rotation, @Nullable CropUtil.Progress progress) throws IOException {
+            final JpegLosslessCrop crop;
+            final int[] snapped;
+            try {
+                // The whole source is held while the crop is copied, next to its coefficients
+                byte[] data = imageSource.readBytes(memoryBudget.getAvailableBytes());
+                crop = JpegLosslessCrop.parse(data);
+                snapped = crop.snap(rect.left, rect.top, rect.right, rect.bottom, rotation);
+                if (snapped == null || rotation % 90 != 0 || !memoryBudget.fits(data.length
+                        + crop.getCoefficientBytes(snapped[2] - snapped[0], snapped[3] - snapped[1]))) {
+                    Log.d("Crop " + rect + " cannot be copied losslessly, re-encoding it");
+                    return null;
+                }
+            } catch (IOException e) {
+                Log.d("Cannot crop losslessly, re-encoding: " + e.getMessage());
+                return null;
+            } catch (OutOfMemoryError e) {
+                Log.e("OOM reading source for a lossless crop, re-encoding", e);
+                return null;
+            }
+
+            setMessage(progress, R.string.crop__saving);
+            final boolean transposed = (rotation / 90) % 2 != 0;
+            final int width = snapped[2] - snapped[0];
+            final int height = snapped[3] - snapped[1];
+            final long bytes;
+            final OutputStream outputStream = openOutputStream(destination);
+            try {
+                final CountingOutputStream counted = new CountingOutputStream(new BufferedOutputStream(outputStream));
+                crop.write(snapped[0], snapped[1], snapped[2], snapped[3], rotation, counted);
+                bytes = counted.getCount();
+            } finally {
+                CropUtil.closeSilently(outputStream);
+            }
+
+            copyExif(progress, destination);
+            Log.d("Saved lossless crop, " + memoryBudget);
+            return new Result(destination, transposed ? height : width, transposed ? width : height, rotation,
+                    -1, bytes, OutputFormat.JPEG.getMimeType(), fallback.value, Collections.<Result>emptyList());
+        }
+
+        private Result saveOutput(Bitmap croppedImage, int rotation, @Nullable CropUtil.Progress progress)
+                throws IOException {
+            setMessage(progress, R.string.crop__saving);
+            final Bitmap.CompressFormat format = outputFormat.getCompressFormat();
+            int quality = outputFormat.getCompressQuality(CropProcessor.this.quality, outputProfile);
+            boolean overTarget = false;
+            if (targetBytes > 0 && !outputFormat.isLossless()) {
+                // Only the final encode is written to the output
+                setMessage(progress, R.string.crop__saving_fitting);
+                final QualitySearch search = new QualitySearch(new BitmapTrials(croppedImage, format));
+                final QualitySearch.Result fitted = search.search(targetBytes, quality);
+                quality = fitted.getQuality();
+                overTarget = !fitted.fits();
+                Log.d("Quality " + quality + (overTarget ? " does not fit " : " fits ") + targetBytes + " bytes with "
+                        + fitted.getBytes() + " bytes, after " + search.getTrialCount() + " trials");
+                setMessage(progress, R.string.crop__saving);
+            }
+            final long bytes;
+            final OutputStream outputStream = openOutputStream(destination);
+            try {
+                final CountingOutputStream counted = new CountingOutputStream(outputStream);
+                if (!croppedImage.compress(format, quality, counted)) {
+                    throw new IOException("Cannot encode " + format + " to " + destination);
+                }
+                bytes = counted.getCount();
+            } finally {
+                CropUtil.closeSilently(outputStream);
+            }
+
+            final String mimeType = OutputFormat.getMimeType(format);
+            copyMetadata(progress, destination, mimeType);
+            Log.d("Saved crop, " + memoryBudget);
+            return new Result(destination, croppedImage.getWidth(), croppedImage.getHeight(), rotation, quality, bytes,
+                    mimeType, fallback.value, Collections.<Result>emptyList(), overTarget);
+        }
+
+        /**
+         * Saves the destination and all renditions from the one decoded crop
+         */
+        private Result saveRenditions(Bitmap croppedImage, int rotation, @Nullable CropUtil.Progress progress)
+                throws IOException {
+            setMessage(progress, R.string.crop__saving);
+            final List<RenditionEncoder.Rendition> renditions = new ArrayList<>();
+            if (destination != null) {
+                renditions.add(new RenditionEncoder.Rendition(destination, maxX, maxY, outputFormat.getCompressFormat(),
+                        outputFormat.getCompressQuality(quality, outputProfile)));
+            }
+            for (CropOutput output : outputs) {
+                final OutputFormat format = output.getFormat();
+                renditions.add(new RenditionEncoder.Rendition(output.getUri(), output.getMaxSize(), output.getMaxSize(),
+                        format.getCompressFormat(),
+                        format.getCompressQuality(output.getQuality())));
+            }
+
+            final List<RenditionEncoder.Result> encoded =
+                    new RenditionEncoder(context.getContentResolver(), memoryBudget)
+                    .encode(croppedImage, renditions, Runtime.getRuntime().availableProcessors());
+
+            final List<Result> results = new ArrayList<>();
+            for (int i = 0; i < encoded.size(); i++) {
+                final RenditionEncoder.Result saved = encoded.get(i);
+                final RenditionEncoder.Rendition rendition = renditions.get(i);
+                final String mimeType = OutputFormat.getMimeType(rendition.format);
+                copyMetadata(progress, saved.uri, mimeType);
+                results.add(new Result(saved.uri, saved.width, saved.height, rotation, rendition.quality, saved.bytes,
+                        mimeType, fallback.value, Collections.<Result>emptyList()));
+            }
+            Log.d("Saved " + renditions.size() + " renditions, " + memoryBudget);
+
+            if (destination != null) {
+                final Result main = results.get(0);
+                return new Result(destination, main.width, main.height, rotation, main.quality, main.bytes,
+                        main.mimeType, fallback.value, results);
+            }
+            // Nothing was saved as the main image, so it describes the crop all outputs were scaled from
+            return new Result(null, croppedImage.getWidth(), croppedImage.getHeight(), rotation, -1, -1,
+                    null, fallback.value, results);
+        }
+
+        private IllegalArgumentException outsideOfImage(Rect rect, int rotation, IllegalArgumentException e) {
+            // Rethrow with some extra information
+            return new IllegalArgumentException("Rectangle " + rect + " is outside of the image ("
+                    + imageSource.getWidth() + "," + imageSource.getHeight() + "," + rotation + ")", e);
+        }
+    }
+
+    private OutputStream openOutputStream(Uri uri) throws IOException {
+        final OutputStream outputStream = context.getContentResolver().openOutputStream(uri);
+        if (outputStream == null) {
+            throw new IOException("Cannot open file: " + uri);
+        }
+        return outputStream;
+    }
+
+    private void copyMetadata(@Nullable CropUtil.Progress progress, Uri uri, String mimeType) {
+        if (mimeType.equals(OutputFormat.getMimeType(Bitmap.CompressFormat.JPEG))) {
+            copyExif(progress, uri);
+        } else {
+            updateMimeType(uri, mimeType);
+        }
+    }
+
+    /**
+     * Lets the media store know the output is not the JPEG it may have been created as
+     */
+    private void updateMimeType(Uri uri, String mimeType) {
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())
+                || !MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+            return;
+        }
+        try {
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.MediaColumns.MIME_TYPE, mimeType);
+            context.getContentResolver().update(uri, values, null, null);
+        } catch (Exception e) {
+            Log.e("Cannot set MIME type of " + uri + " to " + mimeType, e);
+        }
+    }
+
+    private void copyExif(@Nullable CropUtil.Progress progress, Uri destination) {
+        setMessage(progress, R.string.crop__saving_metadata);
+        try {
+            ExifUtil.copyExif(RealPathUtil.getPath(context, source), RealPathUtil.getPath(context, destination));
+        } catch (Exception e) {
+            Log.e("Error copying Exif data", e);
+        }
+    }
+
+    private void setMessage(@Nullable CropUtil.Progress progress, int resId) {
+        if (progress != null) {
+            progress.setMessage(context.getResources().getString(resId));
+        }
+    }
+
+    /**
+     * The crop screen maps its selection back from the preview with a float scale, so a
+     * selection of the whole image can come back a pixel short on any edge. Those count as
+     * the whole image too and are grown to it, so they can still be copied, at the cost of at
+     * most a pixel more on an edge than was asked for.
+     *
+     * @return true if the rectangle is the whole image, give or take a pixel on every edge
+     */
+    static boolean isWholeImage(Rect rect, int width, int height) {
+        return rect.left <= 1 && rect.top <= 1 && rect.right >= width - 1 && rect.bottom >= height - 1;
+    }
+
+    /**
+     * @return the largest rectangle with the aspect ratio in the middle of the image
+     */
+    static Rect centerAspect(int width, int height, int aspectX, int aspectY) {
+        final Box crop = new Box();
+        CropSize.centerAspect(width, height, aspectX, aspectY, crop);
+        return new Rect((int) crop.left, (int) crop.top, (int) crop.right, (int) crop.bottom);
+    }
+
+    /**
+     * @return the size of a crop scaled down to fit the max size, if there is one
+     */
+    static Point fitOutputSize(int width, int height, int maxWidth, int maxHeight) {
+        final Size size = new Size();
+        CropSize.fitOutputSize(width, height, maxWidth, maxHeight, size);
+        return new Point(size.width, size.height);
+    }
+
+    /**
+     * Maps a crop rectangle of the rotated image to the stored orientation of the source
+     *
+     * @param width  width of the stored source
+     * @param height height of the stored source
+     */
+    static Rect toSourceRect(Rect rect, int rotation, int width, int height) {
+        if (rotation == 0) {
+            return rect;
+        }
+        Box adjusted = new Box(rect.left, rect.top, rect.right, rect.bottom);
+        Rotation.toSource(adjusted, rotation, width, height, adjusted);
+        return new Rect((int) adjusted.left, (int) adjusted.top, (int) adjusted.right, (int) adjusted.bottom);
+    }
+}
@@ -0,0 +1,118 @@
+package com.soundcloud.android.crop;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Named crop area that is adjusted on the same preview as the other regions of a session
+ * and saved to its own Uri
+ */
+public class CropRegion {
+
+    private static final String EXTRA_NAMES = "regions_names";
+    private static final String EXTRA_URIS = "regions_uris";
+    private static final String EXTRA_ASPECTS = "regions_aspects";
+    private static final String EXTRA_MAX_SIZES = "regions_max_sizes";
+
+    private final String name;
+    private final Uri uri;
+    private final int aspectX;
+    private final int aspectY;
+    private final int maxWidth;
+    private final int maxHeight;
+
+    /**
+     * @param name    Name the region is reported back with
+     * @param uri     Uri for saving the region
+     * @param aspectX Aspect X, 0 for a free aspect ratio
+     * @param aspectY Aspect Y, 0 for a free aspect ratio
+     */
+    public CropRegion(String name, Uri uri, int aspectX, int aspectY) {
+        this(name, uri, aspectX, aspectY, 0, 0);
+    }
+
+    /**
+     * @param name      Name the region is reported back with
+     * @param uri       Uri for saving the region
+     * @param aspectX   Aspect X, 0 for a free aspect ratio
+     * @param aspectY   Aspect Y, 0 for a free aspect ratio
+     * @param maxWidth  Max width
+     * @param maxHeight Max height
+     */
+    public CropRegion(String name, Uri uri, int aspectX, int aspectY, int maxWidth, int maxHeight) {
+        this.name = name;
+        this.uri = uri;
+        this.aspectX = aspectX;
+        this.aspectY = aspectY;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    public int getAspectX() {
+        return aspectX;
+    }
+
+    public int getAspectY() {
+        return aspectY;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    static boolean hasExtras(Intent intent) {
+        return intent.hasExtra(EXTRA_URIS);
+    }
+
+    static void putExtras(Intent intent, CropRegion... regions) {
+        final String[] names = new String[regions.length];
+        final ArrayList<Uri> uris = new ArrayList<>();
+        final int[] aspects = new int[regions.length * 2];
+        final int[] maxSizes = new int[regions.length * 2];
+        for (int i = 0; i < regions.length; i++) {
+            names[i] = regions[i].name;
+            uris.add(regions[i].uri);
+            aspects[i * 2] = regions[i].aspectX;
+            aspects[i * 2 + 1] = regions[i].aspectY;
+            maxSizes[i * 2] = regions[i].maxWidth;
+            maxSizes[i * 2 + 1] = regions[i].maxHeight;
+        }
+        intent.putExtra(EXTRA_NAMES, names);
+        intent.putParcelableArrayListExtra(EXTRA_URIS, uris);
+        intent.putExtra(EXTRA_ASPECTS, aspects);
+        intent.putExtra(EXTRA_MAX_SIZES, maxSizes);
+    }
+
+    static List<CropRegion> fromExtras(Bundle extras) {
+        final String[] names = extras.getStringArray(EXTRA_NAMES);
+        if (names == null) {
+            return Collections.emptyList();
+        }
+        final ArrayList<Uri> uris = extras.getParcelableArrayList(EXTRA_URIS);
+        final int[] aspects = extras.getIntArray(EXTRA_ASPECTS);
+        final int[] maxSizes = extras.getIntArray(EXTRA_MAX_SIZES);
+        final List<CropRegion> regions = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            regions.add(new CropRegion(names[i], uris.get(i), aspects[i * 2], aspects[i * 2 + 1],
+                    maxSizes[i * 2], maxSizes[i * 2 + 1]));
+        }
+        return regions;
+    }
+}
@@ -33,12 +33,17 @@ import android.provider.MediaStore;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
+import com.soundcloud.android.crop.geometry.CropSize;
+
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 /*
  * Modified from original in AOSP.
@@ -92,6 +97,14 @@ class CropUtil {
         }
     }
 
+    /**
+     * Largest power of two sample size that still decodes a region of the given size
+     * to at least the requested output size
+     */
+    public static int calculateRegionSampleSize(int width, int height, int outWidth, int outHeight) {
+        return CropSize.regionSampleSize(width, height, outWidth, outHeight);
+    }
+
     @TargetApi(Build.VERSION_CODES.KITKAT)
     public static Uri getPath(final Context context, final Uri uri) {
 
@@ -284,11 +297,133 @@ class CropUtil {
         return null;
     }
 
+    /**
+     * Deletes a file Uri, or asks the provider of a content Uri to delete it
+     *
+     * @return true if it was deleted
+     */
+    public static boolean delete(ContentResolver resolver, Uri uri) {
+        if (SCHEME_FILE.equals(uri.getScheme())) {
+            return new File(uri.getPath()).delete();
+        }
+        try {
+            return resolver.delete(uri, null, null) > 0;
+        } catch (RuntimeException e) {
+            // Not every provider supports deleting, or lets us
+            Log.e("Cannot delete " + uri, e);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if both Uris are known to point to the same file: they are equal, or both
+     * are file Uris of the same canonical path
+     */
+    public static boolean isSameFile(Uri a, Uri b) {
+        if (a.equals(b)) {
+            return true;
+        }
+        if (!SCHEME_FILE.equals(a.getScheme()) || !SCHEME_FILE.equals(b.getScheme())) {
+            return false;
+        }
+        try {
+            return new File(a.getPath()).getCanonicalPath().equals(new File(b.getPath()).getCanonicalPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies the bytes of one Uri to another, in the kernel with {@link FileChannel#transferTo}
+     * when both are backed by file descriptors
+     *
+     * @return number of bytes copied
+     */
+    public static long copy(ContentResolver resolver, Uri source, Uri destination) throws IOException {
+        InputStream input = null;
+        OutputStream output = null;
+        try {
+            input = resolver.openInputStream(source);
+            output = resolver.openOutputStream(destination);
+            if (input == null || output == null) {
+                throw new IOException("Cannot copy " + source + " to " + destination);
+            }
+            if (input instanceof FileInputStream && output instanceof FileOutputStream) {
+                long copied = transfer(((FileInputStream) input).getChannel(), ((FileOutputStream) output).getChannel());
+                if (copied >= 0) {
+                    return copied;
+                }
+            }
+            long copied = 0;
+            int read;
+            byte[] bytes = new byte[64 * 1024];
+            while ((read = input.read(bytes)) != -1) {
+                output.write(bytes, 0, read);
+                copied += read;
+            }
+            return copied;
+        } finally {
+            closeSilently(input);
+            closeSilently(output);
+        }
+    }
+
+    /**
+     * @return number of bytes transferred, or -1 if the source is not a regular file, like a pipe
+     */
+    private static long transfer(FileChannel input, FileChannel output) throws IOException {
+        final long size;
+        final long start;
+        try {
+            size = input.size();
+            start = input.position();
+        } catch (IOException e) {
+            return -1;
+        }
+        if (size <= 0) {
+            return -1;
+        }
+        long position = start;
+        while (position < size) {
+            long transferred = input.transferTo(position, size - position, output);
+            if (transferred <= 0) {
+                throw new IOException("Copy stopped after " + (position - start) + " of " + (size - start) + " bytes");
+            }
+            position += transferred;
+        }
+        // Providers may hand out existing files without truncating them
+        output.truncate(output.position());
+        return position - start;
+    }
+
+    // Lets a background job update the message of its progress dialog
+    interface Progress {
+        void setMessage(String message);
+    }
+
+    interface ProgressJob {
+        void run(Progress progress);
+    }
+
+    public static void startBackgroundJob(
+            MonitoredActivity activity,
+            String title,
+            String message,
+            final Runnable job,
+            Handler handler
+    ) {
+        startBackgroundJob(activity, title, message, new ProgressJob() {
+            public void run(Progress progress) {
+                job.run();
+            }
+        }, handler);
+    }
+
     public static void startBackgroundJob(
             MonitoredActivity activity,
             String title,
             String message,
-            Runnable job,
+            ProgressJob job,
             Handler handler
     ) {
         // Make the progress dialog uncancelable, so that we can guarantee
@@ -297,11 +432,11 @@ class CropUtil {
         new Thread(new BackgroundJob(activity, job, dialog, handler)).start();
     }
 
-    private static class BackgroundJob extends MonitoredActivity.LifeCycleAdapter implements Runnable {
+    private static class BackgroundJob extends MonitoredActivity.LifeCycleAdapter implements Runnable, Progress {
 
         private final MonitoredActivity activity;
         private final ProgressDialog dialog;
-        private final Runnable job;
+        private final ProgressJob job;
         private final Handler handler;
         private final Runnable cleanupRunner = new Runnable() {
             public void run() {
@@ -310,7 +445,7 @@ class CropUtil {
             }
         };
 
-        public BackgroundJob(MonitoredActivity activity, Runnable job,
+        public BackgroundJob(MonitoredActivity activity, ProgressJob job,
                              ProgressDialog dialog, Handler handler) {
             this.activity = activity;
             this.dialog = dialog;
@@ -321,12 +456,20 @@ class CropUtil {
 
         public void run() {
             try {
-                job.run();
+                job.run(this);
             } finally {
                 handler.post(cleanupRunner);
             }
         }
 
+        public void setMessage(final String message) {
+            handler.post(new Runnable() {
+                public void run() {
+                    if (dialog.getWindow() != null) dialog.setMessage(message);
+                }
+            });
+        }
+
         @Override
         public void onActivityDestroyed(MonitoredActivity activity) {
             // We get here only when the onDestroyed being called before
@@ -0,0 +1,177 @@
+package com.soundcloud.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.support.annotation.Nullable;
+
+import com.soundcloud.android.crop.geometry.Affine;
+import com.soundcloud.android.crop.geometry.CropSize;
+
+import java.io.IOException;
+
+/**
+ * Decodes a region of an image source, scaled down to a maximum size and rotated, and
+ * retries with cheaper settings whenever it runs out of memory: a doubled sample size,
+ * then RGB_565 for opaque sources, then strip-wise decoding straight into the result.
+ * Every rung keeps the savings of the rungs above it.
+ */
+class DecodeLadder {
+
+    enum Rung {
+        NONE(Crop.FALLBACK_NONE),
+        SAMPLE_SIZE(Crop.FALLBACK_SAMPLE_SIZE),
+        RGB_565(Crop.FALLBACK_RGB_565),
+        STRIPS(Crop.FALLBACK_STRIPS);
+
+        final String value;
+
+        Rung(String value) {
+            this.value = value;
+        }
+
+        static Rung max(Rung a, Rung b) {
+            return a.ordinal() >= b.ordinal() ? a : b;
+        }
+
+        static Rung of(String value) {
+            for (Rung rung : values()) {
+                if (rung.value.equals(value)) {
+                    return rung;
+                }
+            }
+            return NONE;
+        }
+    }
+
+    private final ImageSource source;
+    private final int threads;
+    private Rung rung = Rung.NONE;
+
+    /**
+     * Decodes on the calling thread only, for previews that are sampled down anyway
+     */
+    public DecodeLadder(ImageSource source) {
+        this(source, 1);
+    }
+
+    /**
+     * @param threads large regions are decoded in tiles on up to this many threads
+     */
+    public DecodeLadder(ImageSource source, int threads) {
+        this.source = source;
+        this.threads = threads;
+    }
+
+    /**
+     * @return the rung the last decode succeeded on
+     */
+    public Rung getRung() {
+        return rung;
+    }
+
+    /**
+     * Decodes a region without scaling or rotating it
+     */
+    @Nullable
+    public Bitmap decode(Rect rect, BitmapFactory.Options options) throws IOException {
+        return decode(rect, options, Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * @param options   sample size and config to start with, updated as the ladder is descended
+     * @param maxWidth  the decoded region is scaled down to this width before rotating
+     * @param maxHeight the decoded region is scaled down to this height before rotating
+     * @param rotation  rotation in degrees applied after scaling
+     * @throws OutOfMemoryError if even the last rung runs out of memory
+     */
+    @Nullable
+    public Bitmap decode(Rect rect, BitmapFactory.Options options, int maxWidth, int maxHeight, int rotation)
+            throws IOException {
+        while (true) {
+            try {
+                if (rung == Rung.STRIPS) {
+                    return source.decodeRegionInStrips(rect, options,
+                            getSampledTransform(rect, options, maxWidth, maxHeight, rotation));
+                }
+                return decodeWhole(rect, options, maxWidth, maxHeight, rotation);
+            } catch (OutOfMemoryError e) {
+                final Rung next = next(options, getSampledTransform(rect, options, maxWidth, maxHeight, rotation));
+                if (next == null) {
+                    throw e;
+                }
+                Log.e("OOM decoding " + rect + " at " + rung + ", falling back to " + next, e);
+                releasePooled();
+                rung = next;
+                BitmapPool.clearInBitmap(options);
+                if (next == Rung.SAMPLE_SIZE) {
+                    options.inSampleSize = Math.max(1, options.inSampleSize) << 1;
+                } else if (next == Rung.RGB_565) {
+                    options.inPreferredConfig = Bitmap.Config.RGB_565;
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private Bitmap decodeWhole(Rect rect, BitmapFactory.Options options, int maxWidth, int maxHeight, int rotation)
+            throws IOException {
+        final Matrix matrix = getSampledTransform(rect, options, maxWidth, maxHeight, rotation);
+        if (matrix.isIdentity()) {
+            return source.decodeRegionParallel(rect, options, threads);
+        }
+        // Scaled and rotated while decoding, without a full size copy of the region
+        return source.decodeRegionTransformed(rect, options, matrix, threads);
+    }
+
+    @Nullable
+    private Rung next(BitmapFactory.Options options, Matrix matrix) {
+        switch (rung) {
+            case NONE:
+                return Rung.SAMPLE_SIZE;
+            case SAMPLE_SIZE:
+                // Sources with alpha would lose it, and a budget may have picked RGB_565 already
+                if (source.isOpaque() && options.inPreferredConfig != Bitmap.Config.RGB_565) {
+                    return Rung.RGB_565;
+                }
+                return strips(matrix);
+            case RGB_565:
+                return strips(matrix);
+            default:
+                return null;
+        }
+    }
+
+    // Strips only save the full size copy of a region that is scaled or rotated, and need a region decoder
+    @Nullable
+    private Rung strips(Matrix matrix) {
+        return !matrix.isIdentity() && source.canDecodeInStrips() ? Rung.STRIPS : null;
+    }
+
+    // Pooled bitmaps are the first thing to give up before trying again
+    private void releasePooled() {
+        final BitmapPool pool = source.getBitmapPool();
+        if (pool != null) {
+            pool.clear();
+        }
+    }
+
+    private static Matrix getSampledTransform(Rect rect, BitmapFactory.Options options,
+                                              int maxWidth, int maxHeight, int rotation) {
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        return getTransform(TransformTarget.getSampledSize(rect.width(), sampleSize),
+                TransformTarget.getSampledSize(rect.height(), sampleSize), maxWidth, maxHeight, rotation);
+    }
+
+    /**
+     * @return the matrix that scales a region of the given size down to the maximum size, then rotates it
+     */
+    static Matrix getTransform(int width, int height, int maxWidth, int maxHeight, int rotation) {
+        final Affine transform = new Affine();
+        CropSize.setTransform(transform, width, height, maxWidth, maxHeight, rotation);
+        final Matrix matrix = new Matrix();
+        matrix.setValues(transform.getValues(new float[9]));
+        return matrix;
+    }
+}
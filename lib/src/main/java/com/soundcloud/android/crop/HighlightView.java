@@ -31,22 +31,27 @@ import android.os.Build;
 import android.util.TypedValue;
 import android.view.View;
 
+import com.soundcloud.android.crop.geometry.Affine;
+import com.soundcloud.android.crop.geometry.Box;
+import com.soundcloud.android.crop.geometry.CropMath;
+
 /*
  * Modified from version in AOSP.
  *
  * This class is used to display a highlighted cropping rectangle
  * overlayed on the image. There are two coordinate spaces in use. One is
  * image, another is screen. computeLayout() uses matrix to map from image
- * space to screen space.
+ * space to screen space. The geometry itself is done by CropMath, on reused
+ * boxes so that dragging does not allocate.
  */
 class HighlightView {
 
-    public static final int GROW_NONE        = (1 << 0);
-    public static final int GROW_LEFT_EDGE   = (1 << 1);
-    public static final int GROW_RIGHT_EDGE  = (1 << 2);
-    public static final int GROW_TOP_EDGE    = (1 << 3);
-    public static final int GROW_BOTTOM_EDGE = (1 << 4);
-    public static final int MOVE             = (1 << 5);
+    public static final int GROW_NONE        = CropMath.GROW_NONE;
+    public static final int GROW_LEFT_EDGE   = CropMath.GROW_LEFT_EDGE;
+    public static final int GROW_RIGHT_EDGE  = CropMath.GROW_RIGHT_EDGE;
+    public static final int GROW_TOP_EDGE    = CropMath.GROW_TOP_EDGE;
+    public static final int GROW_BOTTOM_EDGE = CropMath.GROW_BOTTOM_EDGE;
+    public static final int MOVE             = CropMath.MOVE;
 
     private static final int DEFAULT_HIGHLIGHT_COLOR = 0xFF33B5E5;
     private static final float HANDLE_RADIUS_DP = 12f;
@@ -56,9 +61,16 @@ class HighlightView {
     enum HandleMode { Changing, Always, Never }
 
     RectF cropRect; // Image space
-    Rect drawRect; // Screen space
+    final Rect drawRect = new Rect(); // Screen space
     Matrix matrix;
-    private RectF imageRect; // Image space
+    private final Box imageBox = new Box(); // Image space
+
+    // Scratch state of the geometry, reused for every motion event
+    private final Box cropBox = new Box();
+    private final Box layoutBox = new Box();
+    private final Affine affine = new Affine();
+    private final float[] matrixValues = new float[9];
+    private final Rect invalRect = new Rect();
 
     private final Paint outsidePaint = new Paint();
     private final Paint outlinePaint = new Paint();
@@ -101,11 +113,11 @@ class HighlightView {
         matrix = new Matrix(m);
 
         this.cropRect = cropRect;
-        this.imageRect = new RectF(imageRect);
+        this.imageBox.set(imageRect.left, imageRect.top, imageRect.right, imageRect.bottom);
         this.maintainAspectRatio = maintainAspectRatio;
 
         initialAspectRatio = this.cropRect.width() / this.cropRect.height();
-        drawRect = computeLayout();
+        computeLayout(drawRect);
 
         outsidePaint.setARGB(125, 50, 50, 50);
         outlinePaint.setStyle(Paint.Style.STROKE);
@@ -120,6 +132,16 @@ class HighlightView {
         modifyMode = ModifyMode.None;
     }
 
+    // Moves the highlight onto a preview of another resolution, keeping it in place on screen
+    public void rescale(Matrix m, Rect imageRect, float scaleX, float scaleY) {
+        matrix.set(m);
+        imageBox.set(imageRect.left, imageRect.top, imageRect.right, imageRect.bottom);
+        cropRect.set(cropRect.left * scaleX, cropRect.top * scaleY,
+                cropRect.right * scaleX, cropRect.bottom * scaleY);
+        cropRect.intersect(imageBox.left, imageBox.top, imageBox.right, imageBox.bottom);
+        computeLayout(drawRect);
+    }
+
     private float dpToPx(float dp) {
         return dp * viewContext.getResources().getDisplayMetrics().density;
     }
@@ -229,140 +251,53 @@ class HighlightView {
 
     // Determines which edges are hit by touching at (x, y)
     public int getHit(float x, float y) {
-        Rect r = computeLayout();
-        final float hysteresis = 20F;
-        int retval = GROW_NONE;
-
-        // verticalCheck makes sure the position is between the top and
-        // the bottom edge (with some tolerance). Similar for horizCheck.
-        boolean verticalCheck = (y >= r.top - hysteresis)
-                && (y < r.bottom + hysteresis);
-        boolean horizCheck = (x >= r.left - hysteresis)
-                && (x < r.right + hysteresis);
-
-        // Check whether the position is near some edge(s)
-        if ((Math.abs(r.left - x)     < hysteresis)  &&  verticalCheck) {
-            retval |= GROW_LEFT_EDGE;
-        }
-        if ((Math.abs(r.right - x)    < hysteresis)  &&  verticalCheck) {
-            retval |= GROW_RIGHT_EDGE;
-        }
-        if ((Math.abs(r.top - y)      < hysteresis)  &&  horizCheck) {
-            retval |= GROW_TOP_EDGE;
-        }
-        if ((Math.abs(r.bottom - y)   < hysteresis)  &&  horizCheck) {
-            retval |= GROW_BOTTOM_EDGE;
-        }
-
-        // Not near any edge but inside the rectangle: move
-        if (retval == GROW_NONE && r.contains((int) x, (int) y)) {
-            retval = MOVE;
-        }
-        return retval;
+        computeLayout(layoutBox);
+        return CropMath.getHit(layoutBox.left, layoutBox.top, layoutBox.right, layoutBox.bottom, x, y);
     }
 
     // Handles motion (dx, dy) in screen space.
     // The "edge" parameter specifies which edges the user is dragging.
     void handleMotion(int edge, float dx, float dy) {
-        Rect r = computeLayout();
-        if (edge == MOVE) {
-            // Convert to image space before sending to moveBy()
-            moveBy(dx * (cropRect.width() / r.width()),
-                   dy * (cropRect.height() / r.height()));
-        } else {
-            if (((GROW_LEFT_EDGE | GROW_RIGHT_EDGE) & edge) == 0) {
-                dx = 0;
-            }
-
-            if (((GROW_TOP_EDGE | GROW_BOTTOM_EDGE) & edge) == 0) {
-                dy = 0;
-            }
-
-            // Convert to image space before sending to growBy()
-            float xDelta = dx * (cropRect.width() / r.width());
-            float yDelta = dy * (cropRect.height() / r.height());
-            growBy((((edge & GROW_LEFT_EDGE) != 0) ? -1 : 1) * xDelta,
-                    (((edge & GROW_TOP_EDGE) != 0) ? -1 : 1) * yDelta);
-        }
+        computeLayout(layoutBox);
+        invalRect.set(drawRect);
+        CropMath.handleMotion(edge, dx, dy, layoutBox.width(), layoutBox.height(),
+                toCropBox(), imageBox, getAspectRatio());
+        onCropChanged(edge == MOVE);
     }
 
-    // Grows the cropping rectangle by (dx, dy) in image space
+    // Moves the cropping rectangle by (dx, dy) in image space
     void moveBy(float dx, float dy) {
-        Rect invalRect = new Rect(drawRect);
-
-        cropRect.offset(dx, dy);
-
-        // Put the cropping rectangle inside image rectangle
-        cropRect.offset(
-                Math.max(0, imageRect.left - cropRect.left),
-                Math.max(0, imageRect.top  - cropRect.top));
-
-        cropRect.offset(
-                Math.min(0, imageRect.right  - cropRect.right),
-                Math.min(0, imageRect.bottom - cropRect.bottom));
-
-        drawRect = computeLayout();
-        invalRect.union(drawRect);
-        invalRect.inset(-(int) handleRadius, -(int) handleRadius);
-        viewContext.invalidate(invalRect);
+        invalRect.set(drawRect);
+        CropMath.moveBy(toCropBox(), imageBox, dx, dy);
+        onCropChanged(true);
     }
 
     // Grows the cropping rectangle by (dx, dy) in image space.
     void growBy(float dx, float dy) {
-        if (maintainAspectRatio) {
-            if (dx != 0) {
-                dy = dx / initialAspectRatio;
-            } else if (dy != 0) {
-                dx = dy * initialAspectRatio;
-            }
-        }
-
-        // Don't let the cropping rectangle grow too fast.
-        // Grow at most half of the difference between the image rectangle and
-        // the cropping rectangle.
-        RectF r = new RectF(cropRect);
-        if (dx > 0F && r.width() + 2 * dx > imageRect.width()) {
-            dx = (imageRect.width() - r.width()) / 2F;
-            if (maintainAspectRatio) {
-                dy = dx / initialAspectRatio;
-            }
-        }
-        if (dy > 0F && r.height() + 2 * dy > imageRect.height()) {
-            dy = (imageRect.height() - r.height()) / 2F;
-            if (maintainAspectRatio) {
-                dx = dy * initialAspectRatio;
-            }
-        }
+        CropMath.growBy(toCropBox(), imageBox, dx, dy, getAspectRatio());
+        onCropChanged(false);
+    }
 
-        r.inset(-dx, -dy);
+    private float getAspectRatio() {
+        return maintainAspectRatio ? initialAspectRatio : 0f;
+    }
 
-        // Don't let the cropping rectangle shrink too fast
-        final float widthCap = 25F;
-        if (r.width() < widthCap) {
-            r.inset(-(widthCap - r.width()) / 2F, 0F);
-        }
-        float heightCap = maintainAspectRatio
-                ? (widthCap / initialAspectRatio)
-                : widthCap;
-        if (r.height() < heightCap) {
-            r.inset(0F, -(heightCap - r.height()) / 2F);
-        }
+    private Box toCropBox() {
+        return cropBox.set(cropRect.left, cropRect.top, cropRect.right, cropRect.bottom);
+    }
 
-        // Put the cropping rectangle inside the image rectangle
-        if (r.left < imageRect.left) {
-            r.offset(imageRect.left - r.left, 0F);
-        } else if (r.right > imageRect.right) {
-            r.offset(-(r.right - imageRect.right), 0F);
-        }
-        if (r.top < imageRect.top) {
-            r.offset(0F, imageRect.top - r.top);
-        } else if (r.bottom > imageRect.bottom) {
-            r.offset(0F, -(r.bottom - imageRect.bottom));
+    // Applies the changed crop box and invalidates what was drawn
+    private void onCropChanged(boolean moved) {
+        cropRect.set(cropBox.left, cropBox.top, cropBox.right, cropBox.bottom);
+        computeLayout(drawRect);
+        if (moved) {
+            // Only the old and the new position need drawing
+            invalRect.union(drawRect);
+            invalRect.inset(-(int) handleRadius, -(int) handleRadius);
+            viewContext.invalidate(invalRect);
+        } else {
+            viewContext.invalidate();
         }
-
-        cropRect.set(r);
-        drawRect = computeLayout();
-        viewContext.invalidate();
     }
 
     // Returns the cropping rectangle in image space with specified scale
@@ -372,16 +307,18 @@ class HighlightView {
     }
 
     // Maps the cropping rectangle from image space to screen space
-    private Rect computeLayout() {
-        RectF r = new RectF(cropRect.left, cropRect.top,
-                            cropRect.right, cropRect.bottom);
-        matrix.mapRect(r);
-        return new Rect(Math.round(r.left), Math.round(r.top),
-                        Math.round(r.right), Math.round(r.bottom));
+    private void computeLayout(Box screen) {
+        matrix.getValues(matrixValues);
+        CropMath.computeLayout(affine.setValues(matrixValues), toCropBox(), screen);
+    }
+
+    private void computeLayout(Rect screen) {
+        computeLayout(layoutBox);
+        screen.set((int) layoutBox.left, (int) layoutBox.top, (int) layoutBox.right, (int) layoutBox.bottom);
     }
 
     public void invalidate() {
-        drawRect = computeLayout();
+        computeLayout(drawRect);
     }
 
     public boolean hasFocus() {
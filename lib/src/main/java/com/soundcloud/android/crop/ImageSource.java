@@ -0,0 +1,517 @@
+package com.soundcloud.android.crop;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import org.bonnyfone.brdcompat.BitmapRegionDecoderCompat;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Source image of a crop session. The Uri is opened once: the Exif orientation is
+ * parsed from the buffered header and the same stream is handed on to the region
+ * decoder, which then serves the bounds, the preview and the final crop region
+ * until {@link #release()}. Formats the region decoder cannot handle fall back to
+ * full stream decodes.
+ */
+class ImageSource {
+
+    private static final int HEADER_BUFFER_SIZE = 16 * 1024;
+    private static final int HEADER_LIMIT = 256 * 1024;
+
+    // Previews smaller than this are decoded fast enough without a coarse stage
+    private static final int COARSE_THRESHOLD_PIXELS = 1024 * 1024;
+    private static final int COARSE_FACTOR = 4;
+    private static final float THUMBNAIL_ASPECT_TOLERANCE = 0.02f;
+
+    // Height of strips in decoded pixels
+    private static final int STRIP_HEIGHT = 256;
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private BitmapRegionDecoderCompat decoder;
+    private int width;
+    private int height;
+    private int exifRotation;
+    private boolean jpeg;
+    private byte[] thumbnail;
+    private BitmapPool bitmapPool;
+    private MemoryBudget memoryBudget;
+    private ParallelRegionDecoder parallelDecoder;
+
+    private ImageSource(ContentResolver resolver, Uri uri) {
+        this.resolver = resolver;
+        this.uri = uri;
+    }
+
+    public static ImageSource open(ContentResolver resolver, Uri uri) throws IOException {
+        ImageSource source = new ImageSource(resolver, uri);
+        source.openDecoder();
+        return source;
+    }
+
+    private void openDecoder() throws IOException {
+        InputStream is = null;
+        try {
+            is = resolver.openInputStream(uri);
+            if (is == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            // Buffer the header so the orientation can be read before the decoder gets the stream
+            is = new BufferedInputStream(is, HEADER_BUFFER_SIZE);
+            is.mark(HEADER_LIMIT);
+            JpegHeaderParser header = JpegHeaderParser.parse(is);
+            exifRotation = header.getRotation();
+            jpeg = header.isJpeg();
+            thumbnail = header.getThumbnail();
+            try {
+                is.reset();
+            } catch (IOException e) {
+                // Header larger than the mark limit, start over
+                CropUtil.closeSilently(is);
+                is = resolver.openInputStream(uri);
+            }
+            decoder = BitmapRegionDecoderCompat.newInstance(is, false);
+        } catch (IOException e) {
+            // Not supported by the region decoder, decode whole streams instead
+            decoder = null;
+        } finally {
+            CropUtil.closeSilently(is);
+        }
+
+        if (decoder != null) {
+            width = decoder.getWidth();
+            height = decoder.getHeight();
+        } else {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decodeStream(options);
+            width = options.outWidth;
+            height = options.outHeight;
+        }
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Cannot decode image bounds of " + uri);
+        }
+    }
+
+    /**
+     * Pool the decodes of this source reuse bitmaps from
+     */
+    public void setBitmapPool(@Nullable BitmapPool bitmapPool) {
+        this.bitmapPool = bitmapPool;
+    }
+
+    @Nullable
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * Budget every bitmap decoded from this source is tracked against
+     */
+    public void setMemoryBudget(@Nullable MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    @Nullable
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    /**
+     * @return the Exif rotation in degrees found in the header of the source
+     */
+    public int getExifRotation() {
+        return exifRotation;
+    }
+
+    /**
+     * @return true if the source has no alpha channel, so it can be decoded as RGB_565
+     */
+    public boolean isOpaque() {
+        return jpeg;
+    }
+
+    public boolean isJpeg() {
+        return jpeg;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Decodes the whole image with the given sample size
+     */
+    @Nullable
+    public Bitmap decodePreview(int sampleSize) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        return decodeRegion(new Rect(0, 0, width, height), options);
+    }
+
+    /**
+     * Decodes a low resolution preview that is quick to get: the Exif thumbnail when it
+     * shows the whole image, else the whole image at a larger sample size.
+     *
+     * @param sampleSize sample size of the full preview that will follow
+     * @return the coarse preview, or null if the full preview is cheap enough by itself
+     */
+    @Nullable
+    public Bitmap decodeCoarsePreview(int sampleSize) throws IOException {
+        Bitmap bitmap = decodeThumbnail();
+        if (bitmap != null) {
+            return bitmap;
+        }
+        if ((long) (width / sampleSize) * (height / sampleSize) <= COARSE_THRESHOLD_PIXELS) {
+            return null;
+        }
+        return decodePreview(sampleSize * COARSE_FACTOR);
+    }
+
+    @Nullable
+    private Bitmap decodeThumbnail() {
+        if (thumbnail == null) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length);
+        if (bitmap == null) {
+            return null;
+        }
+        // Some cameras letterbox the thumbnail, which would not line up with the image
+        float aspect = (float) width / height;
+        float thumbnailAspect = (float) bitmap.getWidth() / bitmap.getHeight();
+        if (Math.abs(thumbnailAspect - aspect) / aspect > THUMBNAIL_ASPECT_TOLERANCE) {
+            bitmap.recycle();
+            return null;
+        }
+        return track(bitmap);
+    }
+
+    /**
+     * Decodes a region given in source coordinates, honouring options.inSampleSize
+     */
+    @Nullable
+    public Bitmap decodeRegion(Rect rect, BitmapFactory.Options options) throws IOException {
+        return track(decodeUntracked(rect, options));
+    }
+
+    /**
+     * @return false if strips would decode the whole stream again, for sources without region decoder
+     */
+    public synchronized boolean canDecodeInStrips() {
+        return decoder != null;
+    }
+
+    /**
+     * Decodes a region in horizontal strips that are drawn through the matrix into a single
+     * bitmap, so no more than a strip of the untransformed region is held at a time.
+     *
+     * @param matrix maps the region, sampled by options.inSampleSize, to the result
+     */
+    @Nullable
+    public Bitmap decodeRegionInStrips(Rect rect, BitmapFactory.Options options, Matrix matrix) throws IOException {
+        synchronized (this) {
+            if (decoder == null) {
+                // Every strip would decode the whole stream again
+                return decodeStreamTransformed(rect, options, matrix);
+            }
+        }
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        final Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        final TransformTarget target = new TransformTarget(this, rect, sampleSize, config, matrix);
+        final int stripSpan = STRIP_HEIGHT * sampleSize;
+        boolean complete = false;
+        try {
+            for (int top = rect.top; top < rect.bottom; top += stripSpan) {
+                final Rect strip = new Rect(rect.left, top, rect.right, Math.min(top + stripSpan, rect.bottom));
+                final Rect piece = target.withMargin(strip);
+                final BitmapFactory.Options stripOptions = new BitmapFactory.Options();
+                stripOptions.inSampleSize = sampleSize;
+                stripOptions.inPreferredConfig = config;
+                final Bitmap bitmap = decodeRegion(piece, stripOptions);
+                if (bitmap == null) {
+                    return null;
+                }
+                target.draw(bitmap, piece, strip);
+                recycle(bitmap);
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                recycle(target.getBitmap());
+            }
+        }
+        return target.getBitmap();
+    }
+
+    /**
+     * Decodes a region scaled and rotated by the matrix in a single pass: pieces of the region
+     * are drawn straight into the preallocated result, in tiles across cores for large regions.
+     * Sources without region decoder are decoded whole and drawn into the result directly.
+     *
+     * @param matrix maps the region, sampled by options.inSampleSize, to the result
+     */
+    @Nullable
+    public Bitmap decodeRegionTransformed(Rect rect, BitmapFactory.Options options, Matrix matrix, int threads)
+            throws IOException {
+        ParallelRegionDecoder parallel = null;
+        synchronized (this) {
+            if (decoder == null) {
+                return decodeStreamTransformed(rect, options, matrix);
+            }
+            if (threads > 1 && ParallelRegionDecoder.isWorthSplitting(rect, options)) {
+                parallel = getParallelDecoder();
+            }
+        }
+        if (parallel != null) {
+            threads = parallel.fitThreads(rect, options, threads);
+            if (threads > 1) {
+                return parallel.decode(rect, options, matrix, threads);
+            }
+        }
+        return decodeRegionInStrips(rect, options, matrix);
+    }
+
+    private Bitmap decodeStreamTransformed(Rect rect, BitmapFactory.Options options, Matrix matrix) throws IOException {
+        final Bitmap image = track(decodeStream(options));
+        if (image == null) {
+            return null;
+        }
+        try {
+            final int sampleSize = Math.max(1, options.inSampleSize);
+            final Bitmap.Config config = image.getConfig() != null ? image.getConfig() : Bitmap.Config.ARGB_8888;
+            final TransformTarget target = new TransformTarget(this, rect, sampleSize, config, matrix);
+            target.draw(image, new Rect(0, 0, width, height), rect);
+            return target.getBitmap();
+        } finally {
+            recycle(image);
+        }
+    }
+
+    /**
+     * @return a transparent bitmap, from the pool if there is one
+     */
+    public Bitmap createBitmap(int width, int height, Bitmap.Config config) {
+        if (bitmapPool != null) {
+            return bitmapPool.obtain(width, height, config);
+        }
+        return track(Bitmap.createBitmap(width, height, config));
+    }
+
+    /**
+     * Hands a bitmap decoded from this source back to the pool, or recycles it
+     */
+    public void recycle(Bitmap bitmap) {
+        if (bitmapPool != null) {
+            bitmapPool.put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    private Bitmap track(Bitmap bitmap) {
+        if (memoryBudget != null) {
+            memoryBudget.track(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes a region like {@link #decodeRegion(Rect, BitmapFactory.Options)}, split into tiles
+     * that are decoded concurrently by one region decoder per thread. Small regions and sources
+     * without region decoder are decoded in a single call.
+     */
+    @Nullable
+    public Bitmap decodeRegionParallel(Rect rect, BitmapFactory.Options options, int threads) throws IOException {
+        ParallelRegionDecoder parallel = null;
+        synchronized (this) {
+            if (decoder != null && threads > 1 && ParallelRegionDecoder.isWorthSplitting(rect, options)) {
+                parallel = getParallelDecoder();
+            }
+        }
+        if (parallel != null) {
+            threads = parallel.fitThreads(rect, options, threads);
+            if (threads > 1) {
+                return parallel.decode(rect, options, new Matrix(), threads);
+            }
+        }
+        return decodeRegion(rect, options);
+    }
+
+    private ParallelRegionDecoder getParallelDecoder() throws IOException {
+        if (decoder.isRecycled()) {
+            throw new IOException("Image source already released: " + uri);
+        }
+        if (parallelDecoder == null) {
+            parallelDecoder = new ParallelRegionDecoder(this);
+        }
+        return parallelDecoder;
+    }
+
+    /**
+     * Decodes a region with another region decoder of this source, reusing a pooled bitmap when possible
+     */
+    @Nullable
+    public Bitmap decodeRegion(BitmapRegionDecoderCompat regionDecoder, Rect rect, BitmapFactory.Options options) {
+        return track(decodeWith(regionDecoder, rect, options));
+    }
+
+    /**
+     * Opens another region decoder on the source, for decoding on several threads at once
+     */
+    public BitmapRegionDecoderCompat openRegionDecoder() throws IOException {
+        InputStream is = null;
+        try {
+            is = resolver.openInputStream(uri);
+            if (is == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            return BitmapRegionDecoderCompat.newInstance(is, false);
+        } finally {
+            CropUtil.closeSilently(is);
+        }
+    }
+
+    private Bitmap decodeWith(BitmapRegionDecoderCompat regionDecoder, Rect rect, BitmapFactory.Options options) {
+        if (bitmapPool != null) {
+            bitmapPool.setInBitmap(options, rect);
+        }
+        final Bitmap inBitmap = BitmapPool.getInBitmap(options);
+        if (inBitmap != null) {
+            try {
+                return regionDecoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException e) {
+                // The pooled bitmap could not be decoded into, use a new one
+                bitmapPool.put(inBitmap);
+                BitmapPool.clearInBitmap(options);
+            }
+        }
+        return regionDecoder.decodeRegion(rect, options);
+    }
+
+    private synchronized Bitmap decodeUntracked(Rect rect, BitmapFactory.Options options) throws IOException {
+        if (decoder != null) {
+            if (decoder.isRecycled()) {
+                throw new IOException("Image source already released: " + uri);
+            }
+            return decodeWith(decoder, rect, options);
+        }
+
+        Bitmap image = decodeStream(options);
+        if (image == null) {
+            return null;
+        }
+        int sampleSize = Math.max(1, options.inSampleSize);
+        if (rect.left == 0 && rect.top == 0 && rect.right == width && rect.bottom == height) {
+            return image;
+        }
+        int left = Math.min(rect.left / sampleSize, image.getWidth() - 1);
+        int top = Math.min(rect.top / sampleSize, image.getHeight() - 1);
+        int regionWidth = Math.max(1, Math.min(rect.width() / sampleSize, image.getWidth() - left));
+        int regionHeight = Math.max(1, Math.min(rect.height() / sampleSize, image.getHeight() - top));
+        Bitmap region = Bitmap.createBitmap(image, left, top, regionWidth, regionHeight);
+        if (region != image) {
+            image.recycle();
+        }
+        return region;
+    }
+
+    private Bitmap decodeStream(BitmapFactory.Options options) throws IOException {
+        InputStream is = null;
+        try {
+            is = resolver.openInputStream(uri);
+            if (is == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            return BitmapFactory.decodeStream(is, null, options);
+        } finally {
+            CropUtil.closeSilently(is);
+        }
+    }
+
+    /**
+     * Reads the encoded source, for transcoding it without decoding pixels
+     *
+     * @param maxBytes the most memory the encoded source may take
+     * @throws IOException if the source is larger than that
+     */
+    public byte[] readBytes(long maxBytes) throws IOException {
+        final long length = getLength();
+        if (length > maxBytes) {
+            throw new IOException(uri + " has " + length + " bytes, more than " + maxBytes);
+        }
+        InputStream is = null;
+        try {
+            is = resolver.openInputStream(uri);
+            if (is == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            // Sized up front when the length is known, so the buffer is not grown and copied
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? (int) length : 64 * 1024);
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+                if (out.size() > maxBytes) {
+                    throw new IOException(uri + " has more than " + maxBytes + " bytes");
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            CropUtil.closeSilently(is);
+        }
+    }
+
+    // Length of the encoded source, -1 if the provider does not tell
+    private long getLength() {
+        AssetFileDescriptor fd = null;
+        try {
+            fd = resolver.openAssetFileDescriptor(uri, "r");
+            if (fd == null) {
+                return -1;
+            }
+            final long length = fd.getLength();
+            return length >= 0 ? length : fd.getParcelFileDescriptor().getStatSize();
+        } catch (IOException e) {
+            return -1;
+        } catch (SecurityException e) {
+            return -1;
+        } finally {
+            if (fd != null) {
+                try {
+                    fd.close();
+                } catch (IOException e) {
+                    // Do nothing
+                }
+            }
+        }
+    }
+
+    public synchronized void release() {
+        if (decoder != null && !decoder.isRecycled()) {
+            decoder.recycle();
+        }
+        if (parallelDecoder != null) {
+            parallelDecoder.release();
+        }
+    }
+}
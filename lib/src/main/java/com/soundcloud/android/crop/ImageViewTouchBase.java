@@ -19,13 +19,17 @@ package com.soundcloud.android.crop;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
-import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.util.AttributeSet;
 import android.view.KeyEvent;
 import android.widget.ImageView;
 
+import com.soundcloud.android.crop.geometry.Affine;
+import com.soundcloud.android.crop.geometry.Box;
+import com.soundcloud.android.crop.geometry.Rotation;
+import com.soundcloud.android.crop.geometry.ViewLayout;
+
 /*
  * Modified from original in AOSP.
  */
@@ -55,10 +59,16 @@ abstract class ImageViewTouchBase extends ImageView {
 
     // Temporary buffer used for getting the values out of a matrix.
     private final float[] matrixValues = new float[9];
+    private final Affine affine = new Affine();
+    private final Box bounds = new Box();
 
     // The current bitmap being displayed.
     protected final RotateBitmap bitmapDisplayed = new RotateBitmap(null, 0);
 
+    // Size of the stored image the bitmaps are previews of, 0 to fit the bitmaps by their own size
+    private int contentWidth;
+    private int contentHeight;
+
     int thisWidth = -1;
     int thisHeight = -1;
 
@@ -154,6 +164,18 @@ abstract class ImageViewTouchBase extends ImageView {
         }
     }
 
+    /**
+     * Fits the bitmaps as previews of an image of this size, so that swapping in a preview of
+     * another sample size leaves the image where it is on screen
+     *
+     * @param width  width of the stored image, before its rotation
+     * @param height height of the stored image, before its rotation
+     */
+    public void setContentSize(int width, int height) {
+        contentWidth = width;
+        contentHeight = height;
+    }
+
     public void clear() {
         setImageBitmapResetBase(null, true);
     }
@@ -200,47 +222,16 @@ abstract class ImageViewTouchBase extends ImageView {
         if (bitmap == null) {
             return;
         }
-        Matrix m = getImageViewMatrix();
+        getImageViewMatrix().getValues(matrixValues);
+        affine.setValues(matrixValues).mapRect(bounds.set(0, 0, bitmap.getWidth(), bitmap.getHeight()), bounds);
 
-        RectF rect = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
-        m.mapRect(rect);
-
-        float height = rect.height();
-        float width  = rect.width();
-
-        float deltaX = 0, deltaY = 0;
-
-        deltaY = centerVertical(rect, height, deltaY);
-        deltaX = centerHorizontal(rect, width, deltaX);
+        float deltaX = ViewLayout.centerDelta(bounds.left, bounds.right, getWidth());
+        float deltaY = ViewLayout.centerDelta(bounds.top, bounds.bottom, getHeight());
 
         postTranslate(deltaX, deltaY);
         setImageMatrix(getImageViewMatrix());
     }
 
-    private float centerVertical(RectF rect, float height, float deltaY) {
-        int viewHeight = getHeight();
-        if (height < viewHeight) {
-            deltaY = (viewHeight - height) / 2 - rect.top;
-        } else if (rect.top > 0) {
-            deltaY = -rect.top;
-        } else if (rect.bottom < viewHeight) {
-            deltaY = getHeight() - rect.bottom;
-        }
-        return deltaY;
-    }
-
-    private float centerHorizontal(RectF rect, float width, float deltaX) {
-        int viewWidth = getWidth();
-        if (width < viewWidth) {
-            deltaX = (viewWidth - width) / 2 - rect.left;
-        } else if (rect.left > 0) {
-            deltaX = -rect.left;
-        } else if (rect.right < viewWidth) {
-            deltaX = viewWidth - rect.right;
-        }
-        return deltaX;
-    }
-
     private void init() {
         setScaleType(ImageView.ScaleType.MATRIX);
     }
@@ -261,23 +252,18 @@ abstract class ImageViewTouchBase extends ImageView {
 
     // Setup the base matrix so that the image is centered and scaled properly.
     private void getProperBaseMatrix(RotateBitmap bitmap, Matrix matrix, boolean includeRotation) {
-        float viewWidth = getWidth();
-        float viewHeight = getHeight();
-
-        float w = bitmap.getWidth();
-        float h = bitmap.getHeight();
-        matrix.reset();
-
-        // We limit up-scaling to 3x otherwise the result may look bad if it's a small icon
-        float widthScale = Math.min(viewWidth / w, 3.0f);
-        float heightScale = Math.min(viewHeight / h, 3.0f);
-        float scale = Math.min(widthScale, heightScale);
-
-        if (includeRotation) {
-            matrix.postConcat(bitmap.getRotateMatrix());
+        final Bitmap raw = bitmap.getBitmap();
+        float width = bitmap.getWidth();
+        float height = bitmap.getHeight();
+        if (contentWidth > 0 && contentHeight > 0) {
+            final boolean transposed = Rotation.isTransposed(bitmap.getRotation());
+            width = transposed ? contentHeight : contentWidth;
+            height = transposed ? contentWidth : contentHeight;
         }
-        matrix.postScale(scale, scale);
-        matrix.postTranslate((viewWidth  - w * scale) / 2F, (viewHeight - h * scale) / 2F);
+        ViewLayout.setBaseMatrix(affine, getWidth(), getHeight(), bitmap.getWidth(), bitmap.getHeight(),
+                includeRotation ? bitmap.getRotation() : 0,
+                raw != null ? raw.getWidth() : 0, raw != null ? raw.getHeight() : 0, width, height);
+        matrix.setValues(affine.getValues(matrixValues));
     }
 
     // Combine the base matrix and the supp matrix to make the final matrix
@@ -0,0 +1,151 @@
+package com.soundcloud.android.crop;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes Huffman coded blocks of quantized DCT coefficients with the standard tables
+ * of {@link JpegTables}, and the marker segments around them.
+ */
+class JpegEntropyWriter {
+
+    static final HuffmanTable DC_LUMINANCE = new HuffmanTable(JpegTables.DC_LUMINANCE_BITS, JpegTables.DC_VALUES);
+    static final HuffmanTable AC_LUMINANCE = new HuffmanTable(JpegTables.AC_LUMINANCE_BITS, JpegTables.AC_LUMINANCE_VALUES);
+    static final HuffmanTable DC_CHROMINANCE = new HuffmanTable(JpegTables.DC_CHROMINANCE_BITS, JpegTables.DC_VALUES);
+    static final HuffmanTable AC_CHROMINANCE = new HuffmanTable(JpegTables.AC_CHROMINANCE_BITS, JpegTables.AC_CHROMINANCE_VALUES);
+
+    private final OutputStream out;
+    private int bitBuffer;
+    private int bitCount;
+
+    public JpegEntropyWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * @param coefficients quantized coefficients in natural (row major) order
+     * @param lastDc       DC coefficient of the previous block of the component
+     * @return the DC coefficient of this block
+     */
+    public int writeBlock(int[] coefficients, int lastDc, HuffmanTable dc, HuffmanTable ac) throws IOException {
+        int dcValue = coefficients[0];
+        int diff = dcValue - lastDc;
+        int size = bitLength(diff);
+        dc.write(this, size);
+        writeValue(diff, size);
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = coefficients[JpegTables.ZIGZAG[k]];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                ac.write(this, 0xF0);
+                run -= 16;
+            }
+            size = bitLength(value);
+            ac.write(this, (run << 4) | size);
+            writeValue(value, size);
+            run = 0;
+        }
+        if (run > 0) {
+            ac.write(this, 0x00);
+        }
+        return dcValue;
+    }
+
+    /**
+     * Pads the last byte of entropy coded data with ones
+     */
+    public void flush() throws IOException {
+        if (bitCount > 0) {
+            writeBits(0x7F, 8 - bitCount);
+        }
+    }
+
+    public void writeMarker(int marker, int payloadLength) throws IOException {
+        out.write(0xFF);
+        out.write(marker);
+        writeShort(payloadLength + 2);
+    }
+
+    public void writeShort(int value) throws IOException {
+        out.write((value >> 8) & 0xFF);
+        out.write(value & 0xFF);
+    }
+
+    /**
+     * Writes a DHT segment with the four standard tables, luminance as table 0 and chrominance as table 1
+     */
+    public void writeHuffmanTables() throws IOException {
+        writeMarker(0xC4, 4 * 17 + JpegTables.DC_VALUES.length * 2
+                + JpegTables.AC_LUMINANCE_VALUES.length + JpegTables.AC_CHROMINANCE_VALUES.length);
+        writeHuffmanTable(0x00, JpegTables.DC_LUMINANCE_BITS, JpegTables.DC_VALUES);
+        writeHuffmanTable(0x10, JpegTables.AC_LUMINANCE_BITS, JpegTables.AC_LUMINANCE_VALUES);
+        writeHuffmanTable(0x01, JpegTables.DC_CHROMINANCE_BITS, JpegTables.DC_VALUES);
+        writeHuffmanTable(0x11, JpegTables.AC_CHROMINANCE_BITS, JpegTables.AC_CHROMINANCE_VALUES);
+    }
+
+    private void writeHuffmanTable(int classAndId, int[] bits, int[] values) throws IOException {
+        out.write(classAndId);
+        for (int count : bits) {
+            out.write(count);
+        }
+        for (int value : values) {
+            out.write(value);
+        }
+    }
+
+    private void writeValue(int value, int size) throws IOException {
+        if (size > 0) {
+            writeBits(value < 0 ? value - 1 : value, size);
+        }
+    }
+
+    private static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    private void writeBits(int bits, int count) throws IOException {
+        bitBuffer = (bitBuffer << count) | (bits & ((1 << count) - 1));
+        bitCount += count;
+        while (bitCount >= 8) {
+            int b = (bitBuffer >> (bitCount - 8)) & 0xFF;
+            out.write(b);
+            if (b == 0xFF) {
+                out.write(0); // Byte stuffing
+            }
+            bitCount -= 8;
+        }
+        bitBuffer &= (1 << bitCount) - 1;
+    }
+
+    /**
+     * Canonical Huffman codes built from a DHT style definition
+     */
+    static class HuffmanTable {
+
+        final int[] codes = new int[256];
+        final int[] lengths = new int[256];
+
+        HuffmanTable(int[] bits, int[] values) {
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < bits[length - 1]; i++) {
+                    codes[values[k]] = code;
+                    lengths[values[k]] = length;
+                    code++;
+                    k++;
+                }
+                code <<= 1;
+            }
+        }
+
+        void write(JpegEntropyWriter writer, int symbol) throws IOException {
+            writer.writeBits(codes[symbol], lengths[symbol]);
+        }
+    }
+}
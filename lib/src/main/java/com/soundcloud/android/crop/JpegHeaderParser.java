@@ -0,0 +1,246 @@
+package com.soundcloud.android.crop;
+
+import android.support.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the Exif orientation and the embedded thumbnail straight from the APP1
+ * segment of a JPEG stream, so no file path or ExifInterface is needed. Stops at
+ * the first frame or scan header and never reads image data.
+ */
+class JpegHeaderParser {
+
+    private static final int MARKER_PREFIX = 0xFF;
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private static final int ORIENTATION_ROTATE_180 = 3;
+    private static final int ORIENTATION_ROTATE_90 = 6;
+    private static final int ORIENTATION_ROTATE_270 = 8;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private boolean jpeg;
+    private int rotation;
+    private byte[] thumbnail;
+
+    /**
+     * Parses the header of the given stream. The stream is left somewhere inside the header.
+     */
+    public static JpegHeaderParser parse(InputStream is) throws IOException {
+        JpegHeaderParser parser = new JpegHeaderParser();
+        parser.readSegments(new DataInputStream(is));
+        return parser;
+    }
+
+    /**
+     * @return true if the stream starts like a JPEG
+     */
+    public boolean isJpeg() {
+        return jpeg;
+    }
+
+    /**
+     * @return the Exif rotation in degrees (0, 90, 180 or 270)
+     */
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * @return the JPEG thumbnail stored in the Exif data, or null if there is none
+     */
+    @Nullable
+    public byte[] getThumbnail() {
+        return thumbnail;
+    }
+
+    private void readSegments(DataInputStream in) throws IOException {
+        if (in.read() != MARKER_PREFIX || in.read() != MARKER_SOI) {
+            return; // Not a JPEG
+        }
+        jpeg = true;
+        try {
+            while (true) {
+                int marker = readMarker(in);
+                if (marker == MARKER_SOS || marker == MARKER_EOI || isFrameMarker(marker)) {
+                    return;
+                }
+                int length = in.readUnsignedShort() - 2;
+                if (length < 0) {
+                    return;
+                }
+                if (marker == MARKER_APP1) {
+                    byte[] segment = new byte[length];
+                    in.readFully(segment);
+                    if (parseExif(segment)) {
+                        return;
+                    }
+                } else {
+                    skipFully(in, length);
+                }
+            }
+        } catch (EOFException e) {
+            // Truncated header, keep what was found so far
+        }
+    }
+
+    private static int readMarker(DataInputStream in) throws IOException {
+        int b = in.readUnsignedByte();
+        while (b != MARKER_PREFIX) {
+            b = in.readUnsignedByte();
+        }
+        // Markers may be padded with any number of fill bytes
+        while (b == MARKER_PREFIX) {
+            b = in.readUnsignedByte();
+        }
+        return b;
+    }
+
+    private static boolean isFrameMarker(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static void skipFully(InputStream in, int count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * @return true if the segment was an Exif segment
+     */
+    private boolean parseExif(byte[] segment) {
+        if (segment.length < EXIF_HEADER.length + 8) {
+            return false;
+        }
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (segment[i] != EXIF_HEADER[i]) {
+                return false;
+            }
+        }
+        TiffReader tiff = new TiffReader(segment, EXIF_HEADER.length);
+        if (!tiff.isValid()) {
+            return true;
+        }
+        int ifd0 = tiff.readInt(4);
+        int entries = tiff.readShort(ifd0);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd0 + 2 + i * 12;
+            if (tiff.readShort(entry) == TAG_ORIENTATION) {
+                rotation = toRotation(tiff.readShort(entry + 8));
+                break;
+            }
+        }
+
+        // IFD1 describes the thumbnail
+        int ifd1 = tiff.readInt(ifd0 + 2 + entries * 12);
+        if (ifd1 > 0) {
+            readThumbnail(tiff, ifd1);
+        }
+        return true;
+    }
+
+    private void readThumbnail(TiffReader tiff, int ifd) {
+        int offset = -1;
+        int length = -1;
+        int entries = tiff.readShort(ifd);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            int tag = tiff.readShort(entry);
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                offset = tiff.readInt(entry + 8);
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                length = tiff.readInt(entry + 8);
+            }
+        }
+        if (offset > 0 && length > 0) {
+            thumbnail = tiff.readBytes(offset, length);
+        }
+    }
+
+    private static int toRotation(int orientation) {
+        // We only recognize a subset of orientation tag values
+        switch (orientation) {
+            case ORIENTATION_ROTATE_90:
+                return 90;
+            case ORIENTATION_ROTATE_180:
+                return 180;
+            case ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Bounds-checked access to a TIFF structure embedded in a byte array
+     */
+    private static class TiffReader {
+
+        private final byte[] data;
+        private final int start;
+        private final boolean littleEndian;
+        private final boolean valid;
+
+        TiffReader(byte[] data, int start) {
+            this.data = data;
+            this.start = start;
+            littleEndian = data[start] == 'I' && data[start + 1] == 'I';
+            boolean bigEndian = data[start] == 'M' && data[start + 1] == 'M';
+            valid = (littleEndian || bigEndian) && readShort(2) == 42;
+        }
+
+        boolean isValid() {
+            return valid;
+        }
+
+        int readShort(int offset) {
+            int pos = start + offset;
+            if (offset < 0 || pos + 2 > data.length) {
+                return 0;
+            }
+            int b0 = data[pos] & 0xFF;
+            int b1 = data[pos + 1] & 0xFF;
+            return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+        }
+
+        @Nullable
+        byte[] readBytes(int offset, int length) {
+            int pos = start + offset;
+            if (offset < 0 || length < 0 || pos + length > data.length || pos + length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            System.arraycopy(data, pos, bytes, 0, length);
+            return bytes;
+        }
+
+        int readInt(int offset) {
+            int pos = start + offset;
+            if (offset < 0 || pos + 4 > data.length) {
+                return -1;
+            }
+            int hi = readShort(littleEndian ? offset + 2 : offset);
+            int lo = readShort(littleEndian ? offset : offset + 2);
+            return (hi << 16) | lo;
+        }
+    }
+}
@@ -0,0 +1,672 @@
+package com.soundcloud.android.crop;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Crops baseline JPEGs without decoding them to pixels. The Huffman coded DCT blocks inside
+ * the crop rectangle are decoded to quantized coefficients and written into a new JPEG as
+ * they are, so there is no generation loss. Rotations by multiples of 90 degrees are applied
+ * to the blocks by transposing and negating coefficients, as jpegtran does.
+ *
+ * Only whole MCUs (8 or 16 pixels, depending on chroma subsampling) can be copied, so crop
+ * rectangles have to be snapped to the MCU grid with {@link #snap} first. Progressive and
+ * multi-scan JPEGs are not supported.
+ */
+class JpegLosslessCrop {
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_DQT = 0xDB;
+    private static final int MARKER_DRI = 0xDD;
+    private static final int MARKER_DHT = 0xC4;
+    private static final int MARKER_SOF0 = 0xC0;
+    private static final int MARKER_SOF1 = 0xC1;
+    private static final int MARKER_RST0 = 0xD0;
+    private static final int MARKER_RST7 = 0xD7;
+
+    private final byte[] data;
+    private int frameMarker;
+    private int width;
+    private int height;
+    private Component[] components;
+    private int maxH;
+    private int maxV;
+    private final int[][] quantization = new int[4][];
+    private final int[] quantizationPrecision = new int[4];
+    private final HuffmanDecoder[] dcTables = new HuffmanDecoder[4];
+    private final HuffmanDecoder[] acTables = new HuffmanDecoder[4];
+    private int restartInterval;
+    private int scanStart;
+
+    private JpegLosslessCrop(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Reads the headers of a JPEG file
+     *
+     * @throws IOException if the data is not a baseline, single scan JPEG
+     */
+    public static JpegLosslessCrop parse(byte[] data) throws IOException {
+        JpegLosslessCrop crop = new JpegLosslessCrop(data);
+        crop.readHeaders();
+        return crop;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMcuWidth() {
+        return 8 * maxH;
+    }
+
+    public int getMcuHeight() {
+        return 8 * maxV;
+    }
+
+    /**
+     * @return the memory {@link #write} needs for the coefficients of a crop of the given size
+     */
+    public long getCoefficientBytes(int cropWidth, int cropHeight) {
+        final long mcus = (long) ((cropWidth + getMcuWidth() - 1) / getMcuWidth())
+                * ((cropHeight + getMcuHeight() - 1) / getMcuHeight());
+        long bytes = 0;
+        for (Component component : components) {
+            bytes += mcus * component.h * component.v * 64 * 2;
+        }
+        return bytes;
+    }
+
+    /**
+     * Grows a crop rectangle to whole MCUs. Edges that end up leading after the rotation
+     * must be whole MCUs, so partial MCUs at the right or bottom of the image are left out
+     * of rotated crops.
+     *
+     * @return {left, top, right, bottom} of the snapped rectangle, or null if it would be empty
+     */
+    @Nullable
+    public int[] snap(int left, int top, int right, int bottom, int rotation) {
+        final int mcuWidth = getMcuWidth();
+        final int mcuHeight = getMcuHeight();
+        left = Math.max(0, left / mcuWidth * mcuWidth);
+        top = Math.max(0, top / mcuHeight * mcuHeight);
+        right = Math.min(width, (right + mcuWidth - 1) / mcuWidth * mcuWidth);
+        bottom = Math.min(height, (bottom + mcuHeight - 1) / mcuHeight * mcuHeight);
+        if (rotation == 180 || rotation == 270) {
+            right = right / mcuWidth * mcuWidth;
+        }
+        if (rotation == 90 || rotation == 180) {
+            bottom = bottom / mcuHeight * mcuHeight;
+        }
+        if (right <= left || bottom <= top) {
+            return null;
+        }
+        return new int[]{left, top, right, bottom};
+    }
+
+    /**
+     * Writes the blocks of a snapped crop rectangle as a new JPEG, rotated clockwise
+     *
+     * @param rotation 0, 90, 180 or 270
+     */
+    public void write(int left, int top, int right, int bottom, int rotation, OutputStream out) throws IOException {
+        final int mcuWidth = getMcuWidth();
+        final int mcuHeight = getMcuHeight();
+        if (left % mcuWidth != 0 || top % mcuHeight != 0 || right > width || bottom > height
+                || right <= left || bottom <= top) {
+            throw new IllegalArgumentException("Crop rectangle is not snapped to the MCU grid");
+        }
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+            throw new IllegalArgumentException("Cannot rotate losslessly by " + rotation);
+        }
+        final int firstMcuX = left / mcuWidth;
+        final int firstMcuY = top / mcuHeight;
+        final int mcusX = (right - left + mcuWidth - 1) / mcuWidth;
+        final int mcusY = (bottom - top + mcuHeight - 1) / mcuHeight;
+        readBlocks(firstMcuX, firstMcuY, mcusX, mcusY);
+
+        final boolean transposed = rotation == 90 || rotation == 270;
+        final int outWidth = transposed ? bottom - top : right - left;
+        final int outHeight = transposed ? right - left : bottom - top;
+        final JpegEntropyWriter writer = new JpegEntropyWriter(out);
+        writeHeaders(writer, out, outWidth, outHeight, transposed);
+        writeBlocks(writer, transposed ? mcusY : mcusX, transposed ? mcusX : mcusY, rotation);
+        writer.flush();
+        out.write(0xFF);
+        out.write(MARKER_EOI);
+        out.flush();
+
+        for (Component component : components) {
+            component.coefficients = null;
+        }
+    }
+
+    private void readHeaders() throws IOException {
+        if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != MARKER_SOI) {
+            throw new IOException("Not a JPEG");
+        }
+        int pos = 2;
+        while (true) {
+            // Markers may be padded with any number of fill bytes
+            while (pos < data.length && (data[pos] & 0xFF) != 0xFF) {
+                pos++;
+            }
+            while (pos < data.length && (data[pos] & 0xFF) == 0xFF) {
+                pos++;
+            }
+            if (pos + 2 >= data.length) {
+                throw new IOException("No image data");
+            }
+            final int marker = data[pos++] & 0xFF;
+            if (marker == MARKER_EOI) {
+                throw new IOException("No image data");
+            }
+            if (marker == 0x01 || (marker >= MARKER_RST0 && marker <= MARKER_RST7)) {
+                continue; // No length
+            }
+            final int length = readShort(pos);
+            final int start = pos + 2;
+            final int end = pos + length;
+            if (length < 2 || end > data.length) {
+                throw new IOException("Truncated JPEG");
+            }
+            if (marker == MARKER_DQT) {
+                readQuantizationTables(start, end);
+            } else if (marker == MARKER_DHT) {
+                readHuffmanTables(start, end);
+            } else if (marker == MARKER_DRI) {
+                restartInterval = readShort(start);
+            } else if (marker == MARKER_SOF0 || marker == MARKER_SOF1) {
+                readFrame(marker, start);
+            } else if (marker >= 0xC2 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                throw new IOException("Not a baseline JPEG");
+            } else if (marker == MARKER_SOS) {
+                readScan(start);
+                scanStart = end;
+                return;
+            }
+            pos = end;
+        }
+    }
+
+    private void readQuantizationTables(int pos, int end) throws IOException {
+        while (pos < end) {
+            final int precision = (data[pos] & 0xFF) >> 4;
+            final int id = data[pos++] & 0x0F;
+            if (id > 3 || pos + 64 * (precision + 1) > end) {
+                throw new IOException("Invalid quantization table");
+            }
+            final int[] table = new int[64];
+            for (int k = 0; k < 64; k++) {
+                final int value;
+                if (precision == 0) {
+                    value = data[pos++] & 0xFF;
+                } else {
+                    value = readShort(pos);
+                    pos += 2;
+                }
+                table[JpegTables.ZIGZAG[k]] = value;
+            }
+            quantization[id] = table;
+            quantizationPrecision[id] = precision;
+        }
+    }
+
+    private void readHuffmanTables(int pos, int end) throws IOException {
+        while (pos < end) {
+            final int tableClass = (data[pos] & 0xFF) >> 4;
+            final int id = data[pos++] & 0x0F;
+            if (id > 3 || pos + 16 > end) {
+                throw new IOException("Invalid Huffman table");
+            }
+            final int[] bits = new int[16];
+            int count = 0;
+            for (int i = 0; i < 16; i++) {
+                bits[i] = data[pos++] & 0xFF;
+                count += bits[i];
+            }
+            if (count > 256 || pos + count > end) {
+                throw new IOException("Invalid Huffman table");
+            }
+            final int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = data[pos++] & 0xFF;
+            }
+            if (tableClass == 0) {
+                dcTables[id] = new HuffmanDecoder(bits, values);
+            } else {
+                acTables[id] = new HuffmanDecoder(bits, values);
+            }
+        }
+    }
+
+    private void readFrame(int marker, int pos) throws IOException {
+        if ((data[pos] & 0xFF) != 8) {
+            throw new IOException("Only 8 bit JPEGs are supported");
+        }
+        frameMarker = marker;
+        height = readShort(pos + 1);
+        width = readShort(pos + 3);
+        final int count = data[pos + 5] & 0xFF;
+        if (width == 0 || height == 0 || count == 0 || count > 4) {
+            throw new IOException("Unsupported JPEG frame");
+        }
+        components = new Component[count];
+        pos += 6;
+        for (int i = 0; i < count; i++) {
+            final Component component = new Component();
+            component.id = data[pos] & 0xFF;
+            component.h = (data[pos + 1] & 0xFF) >> 4;
+            component.v = data[pos + 1] & 0x0F;
+            component.tq = data[pos + 2] & 0x03;
+            if (component.h < 1 || component.h > 4 || component.v < 1 || component.v > 4) {
+                throw new IOException("Invalid sampling factors");
+            }
+            components[i] = component;
+            pos += 3;
+        }
+        if (count == 1) {
+            // A single component is not interleaved, its MCU is one block whatever the sampling factors say
+            components[0].h = 1;
+            components[0].v = 1;
+        }
+        for (Component component : components) {
+            maxH = Math.max(maxH, component.h);
+            maxV = Math.max(maxV, component.v);
+        }
+    }
+
+    private void readScan(int pos) throws IOException {
+        if (components == null) {
+            throw new IOException("Scan before frame header");
+        }
+        final int count = data[pos++] & 0xFF;
+        if (count != components.length) {
+            throw new IOException("Multi-scan JPEGs are not supported");
+        }
+        // Keep the components in scan order
+        final Component[] ordered = new Component[count];
+        for (int i = 0; i < count; i++) {
+            final int id = data[pos] & 0xFF;
+            final int tables = data[pos + 1] & 0xFF;
+            pos += 2;
+            for (Component component : components) {
+                if (component.id == id) {
+                    component.td = tables >> 4;
+                    component.ta = tables & 0x0F;
+                    ordered[i] = component;
+                }
+            }
+            if (ordered[i] == null || dcTables[ordered[i].td & 3] == null || acTables[ordered[i].ta & 3] == null
+                    || quantization[ordered[i].tq] == null) {
+                throw new IOException("Missing tables for component " + id);
+            }
+        }
+        if ((data[pos] & 0xFF) != 0 || (data[pos + 1] & 0xFF) != 63 || (data[pos + 2] & 0xFF) != 0) {
+            throw new IOException("Not a baseline JPEG");
+        }
+        components = ordered;
+    }
+
+    /**
+     * Decodes the scan up to the last MCU row of the crop and keeps the coefficients of the crop blocks
+     */
+    private void readBlocks(int firstMcuX, int firstMcuY, int mcusX, int mcusY) throws IOException {
+        final int totalMcusX = (width + getMcuWidth() - 1) / getMcuWidth();
+        for (Component component : components) {
+            component.blocksX = mcusX * component.h;
+            component.blocksY = mcusY * component.v;
+            component.coefficients = new short[component.blocksX * component.blocksY * 64];
+            component.prediction = 0;
+        }
+
+        final BitReader reader = new BitReader(data, scanStart);
+        final int[] block = new int[64];
+        int mcu = 0;
+        for (int mcuY = 0; mcuY < firstMcuY + mcusY; mcuY++) {
+            for (int mcuX = 0; mcuX < totalMcusX; mcuX++) {
+                if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                    reader.restart();
+                    for (Component component : components) {
+                        component.prediction = 0;
+                    }
+                }
+                mcu++;
+                final boolean inCrop = mcuY >= firstMcuY && mcuX >= firstMcuX && mcuX < firstMcuX + mcusX;
+                for (Component component : components) {
+                    for (int y = 0; y < component.v; y++) {
+                        for (int x = 0; x < component.h; x++) {
+                            readBlock(reader, component, block);
+                            if (inCrop) {
+                                final int blockX = (mcuX - firstMcuX) * component.h + x;
+                                final int blockY = (mcuY - firstMcuY) * component.v + y;
+                                final int offset = (blockY * component.blocksX + blockX) * 64;
+                                for (int i = 0; i < 64; i++) {
+                                    component.coefficients[offset + i] = (short) block[i];
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void readBlock(BitReader reader, Component component, int[] block) throws IOException {
+        for (int i = 0; i < 64; i++) {
+            block[i] = 0;
+        }
+        final int dcSize = dcTables[component.td].decode(reader);
+        component.prediction += reader.receiveExtend(dcSize);
+        block[0] = component.prediction;
+
+        final HuffmanDecoder ac = acTables[component.ta];
+        for (int k = 1; k < 64; ) {
+            final int symbol = ac.decode(reader);
+            final int run = symbol >> 4;
+            final int size = symbol & 0x0F;
+            if (size == 0) {
+                if (run != 15) {
+                    break; // End of block
+                }
+                k += 16;
+                continue;
+            }
+            k += run;
+            if (k > 63) {
+                throw new IOException("Corrupt JPEG data");
+            }
+            block[JpegTables.ZIGZAG[k]] = reader.receiveExtend(size);
+            k++;
+        }
+    }
+
+    private void writeHeaders(JpegEntropyWriter writer, OutputStream out, int outWidth, int outHeight,
+                              boolean transposed) throws IOException {
+        out.write(0xFF);
+        out.write(MARKER_SOI);
+
+        for (int id = 0; id < 4; id++) {
+            if (quantization[id] == null || !isQuantizationTableUsed(id)) {
+                continue;
+            }
+            final int precision = quantizationPrecision[id];
+            writer.writeMarker(MARKER_DQT, 1 + 64 * (precision + 1));
+            out.write((precision << 4) | id);
+            for (int k = 0; k < 64; k++) {
+                int index = JpegTables.ZIGZAG[k];
+                if (transposed) {
+                    index = (index % 8) * 8 + index / 8;
+                }
+                if (precision == 0) {
+                    out.write(quantization[id][index]);
+                } else {
+                    writer.writeShort(quantization[id][index]);
+                }
+            }
+        }
+
+        writer.writeMarker(frameMarker, 6 + 3 * components.length);
+        out.write(8);
+        writer.writeShort(outHeight);
+        writer.writeShort(outWidth);
+        out.write(components.length);
+        for (Component component : components) {
+            out.write(component.id);
+            out.write(transposed ? (component.v << 4) | component.h : (component.h << 4) | component.v);
+            out.write(component.tq);
+        }
+
+        // The coefficients are the same, but the standard tables can code any of them
+        writer.writeHuffmanTables();
+
+        writer.writeMarker(MARKER_SOS, 4 + 2 * components.length);
+        out.write(components.length);
+        for (int i = 0; i < components.length; i++) {
+            out.write(components[i].id);
+            out.write(i == 0 ? 0x00 : 0x11);
+        }
+        out.write(0);
+        out.write(63);
+        out.write(0);
+    }
+
+    private boolean isQuantizationTableUsed(int id) {
+        for (Component component : components) {
+            if (component.tq == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeBlocks(JpegEntropyWriter writer, int outMcusX, int outMcusY, int rotation) throws IOException {
+        final boolean transposed = rotation == 90 || rotation == 270;
+        final int[] block = new int[64];
+        final int[] lastDc = new int[components.length];
+        for (int mcuY = 0; mcuY < outMcusY; mcuY++) {
+            for (int mcuX = 0; mcuX < outMcusX; mcuX++) {
+                for (int c = 0; c < components.length; c++) {
+                    final Component component = components[c];
+                    final int h = transposed ? component.v : component.h;
+                    final int v = transposed ? component.h : component.v;
+                    for (int y = 0; y < v; y++) {
+                        for (int x = 0; x < h; x++) {
+                            transformBlock(component, mcuX * h + x, mcuY * v + y, rotation, block);
+                            lastDc[c] = c == 0
+                                    ? writer.writeBlock(block, lastDc[c], JpegEntropyWriter.DC_LUMINANCE, JpegEntropyWriter.AC_LUMINANCE)
+                                    : writer.writeBlock(block, lastDc[c], JpegEntropyWriter.DC_CHROMINANCE, JpegEntropyWriter.AC_CHROMINANCE);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the rotated coefficients of an output block, in natural order
+     */
+    private static void transformBlock(Component component, int outX, int outY, int rotation, int[] block) {
+        final int lastX = component.blocksX - 1;
+        final int lastY = component.blocksY - 1;
+        final int sourceX;
+        final int sourceY;
+        switch (rotation) {
+            case 90:
+                sourceX = outY;
+                sourceY = lastY - outX;
+                break;
+            case 180:
+                sourceX = lastX - outX;
+                sourceY = lastY - outY;
+                break;
+            case 270:
+                sourceX = lastX - outY;
+                sourceY = outX;
+                break;
+            default:
+                sourceX = outX;
+                sourceY = outY;
+                break;
+        }
+        final short[] coefficients = component.coefficients;
+        final int offset = (sourceY * component.blocksX + sourceX) * 64;
+        for (int v = 0; v < 8; v++) {
+            for (int u = 0; u < 8; u++) {
+                final int value;
+                switch (rotation) {
+                    case 90:
+                        // Transpose, then flip horizontally
+                        value = (u & 1) == 0 ? coefficients[offset + u * 8 + v] : -coefficients[offset + u * 8 + v];
+                        break;
+                    case 180:
+                        value = ((u + v) & 1) == 0 ? coefficients[offset + v * 8 + u] : -coefficients[offset + v * 8 + u];
+                        break;
+                    case 270:
+                        // Transpose, then flip vertically
+                        value = (v & 1) == 0 ? coefficients[offset + u * 8 + v] : -coefficients[offset + u * 8 + v];
+                        break;
+                    default:
+                        value = coefficients[offset + v * 8 + u];
+                        break;
+                }
+                block[v * 8 + u] = value;
+            }
+        }
+    }
+
+    private int readShort(int pos) {
+        return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+    }
+
+    private static class Component {
+        int id;
+        int h;
+        int v;
+        int tq;
+        int td;
+        int ta;
+        int prediction;
+        // Coefficients of the crop blocks in natural order, block after block in raster order
+        short[] coefficients;
+        int blocksX;
+        int blocksY;
+    }
+
+    /**
+     * Reads entropy coded data, removing stuffed zero bytes and stopping at markers
+     */
+    private static class BitReader {
+
+        private final byte[] data;
+        private int pos;
+        private int buffer;
+        private int bits;
+        private boolean atMarker;
+
+        BitReader(byte[] data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        private void fill() {
+            while (bits <= 24) {
+                int b = 0;
+                if (!atMarker && pos < data.length) {
+                    b = data[pos] & 0xFF;
+                    if (b == 0xFF) {
+                        final int next = pos + 1 < data.length ? data[pos + 1] & 0xFF : MARKER_EOI;
+                        if (next == 0) {
+                            pos += 2;
+                        } else {
+                            // Past the end of the segment, the decoder sees zeros
+                            atMarker = true;
+                            b = 0;
+                        }
+                    } else {
+                        pos++;
+                    }
+                }
+                buffer = (buffer << 8) | b;
+                bits += 8;
+            }
+        }
+
+        int peek(int count) {
+            fill();
+            return (buffer >>> (bits - count)) & ((1 << count) - 1);
+        }
+
+        void skip(int count) {
+            bits -= count;
+        }
+
+        int receiveExtend(int size) {
+            if (size == 0) {
+                return 0;
+            }
+            final int value = peek(size);
+            skip(size);
+            return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+        }
+
+        /**
+         * Skips to the data after the next restart marker
+         */
+        void restart() {
+            bits = 0;
+            buffer = 0;
+            atMarker = false;
+            while (pos + 1 < data.length) {
+                if ((data[pos] & 0xFF) == 0xFF) {
+                    final int marker = data[pos + 1] & 0xFF;
+                    if (marker >= MARKER_RST0 && marker <= MARKER_RST7) {
+                        pos += 2;
+                        return;
+                    }
+                }
+                pos++;
+            }
+        }
+    }
+
+    /**
+     * Decodes Huffman codes of up to 9 bits with a lookup table, longer ones code length by code length
+     */
+    private static class HuffmanDecoder {
+
+        private static final int LOOKUP_BITS = 9;
+
+        private final int[] lookup = new int[1 << LOOKUP_BITS];
+        private final int[] maxCode = new int[17];
+        private final int[] valueOffset = new int[17];
+        private final int[] values;
+
+        HuffmanDecoder(int[] bits, int[] values) {
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                valueOffset[length] = k - code;
+                final int count = bits[length - 1];
+                for (int i = 0; i < count; i++) {
+                    if (length <= LOOKUP_BITS) {
+                        final int shift = LOOKUP_BITS - length;
+                        for (int fill = 0; fill < (1 << shift); fill++) {
+                            lookup[(code << shift) | fill] = (length << 8) | values[k];
+                        }
+                    }
+                    code++;
+                    k++;
+                }
+                maxCode[length] = count > 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+        }
+
+        int decode(BitReader reader) throws IOException {
+            final int entry = lookup[reader.peek(LOOKUP_BITS)];
+            if (entry != 0) {
+                reader.skip(entry >> 8);
+                return entry & 0xFF;
+            }
+            for (int length = LOOKUP_BITS + 1; length <= 16; length++) {
+                final int code = reader.peek(length);
+                if (code <= maxCode[length]) {
+                    reader.skip(length);
+                    return values[valueOffset[length] + code];
+                }
+            }
+            throw new IOException("Corrupt JPEG data");
+        }
+    }
+}
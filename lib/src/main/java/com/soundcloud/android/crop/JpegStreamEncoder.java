@@ -0,0 +1,294 @@
+package com.soundcloud.android.crop;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Baseline JPEG encoder that takes the image a few rows at a time, so images far larger
+ * than the heap can be written as long as their rows are produced incrementally.
+ * Encodes YCbCr with 4:2:0 chroma subsampling and the standard Huffman tables, like
+ * {@link android.graphics.Bitmap#compress} does. Only one MCU row (16 rows) is buffered.
+ */
+class JpegStreamEncoder {
+
+    private static final int MCU_SIZE = 16;
+
+    // Scale factors of the AAN forward DCT
+    private static final double[] AAN_SCALE = {
+            1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379
+    };
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final int paddedWidth;
+
+    private final int[] luminanceQuantization;
+    private final int[] chrominanceQuantization;
+    private final float[] luminanceDivisors;
+    private final float[] chrominanceDivisors;
+    private final JpegEntropyWriter writer;
+
+    // One MCU row of level shifted samples at full resolution
+    private final float[] yRows;
+    private final float[] cbRows;
+    private final float[] crRows;
+    private int bufferedRows;
+    private int writtenRows;
+
+    private final float[] block = new float[64];
+    private final int[] coefficients = new int[64];
+    private int lastY;
+    private int lastCb;
+    private int lastCr;
+
+    private boolean finished;
+
+    /**
+     * Writes the JPEG headers right away
+     *
+     * @param quality 0 - 100, as for {@link android.graphics.Bitmap#compress}
+     */
+    public JpegStreamEncoder(OutputStream out, int width, int height, int quality) throws IOException {
+        if (width <= 0 || height <= 0 || width > 0xFFFF || height > 0xFFFF) {
+            throw new IOException("JPEG cannot be " + width + "x" + height);
+        }
+        this.out = out;
+        this.writer = new JpegEntropyWriter(out);
+        this.width = width;
+        this.height = height;
+        this.paddedWidth = (width + MCU_SIZE - 1) / MCU_SIZE * MCU_SIZE;
+
+        luminanceQuantization = scaleQuantization(JpegTables.LUMINANCE_QUANTIZATION, quality);
+        chrominanceQuantization = scaleQuantization(JpegTables.CHROMINANCE_QUANTIZATION, quality);
+        luminanceDivisors = divisors(luminanceQuantization);
+        chrominanceDivisors = divisors(chrominanceQuantization);
+
+        yRows = new float[paddedWidth * MCU_SIZE];
+        cbRows = new float[paddedWidth * MCU_SIZE];
+        crRows = new float[paddedWidth * MCU_SIZE];
+
+        writeHeaders();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Appends rows of ARGB pixels, alpha is ignored
+     *
+     * @param pixels ARGB pixels as returned by {@link android.graphics.Bitmap#getPixels}
+     * @param offset index of the first pixel of the first row
+     * @param stride number of entries between the starts of two rows
+     * @param rows   number of rows to append
+     */
+    public void writeRows(int[] pixels, int offset, int stride, int rows) throws IOException {
+        if (finished || writtenRows + bufferedRows + rows > height) {
+            throw new IllegalStateException("More rows than the image height of " + height);
+        }
+        for (int row = 0; row < rows; row++) {
+            int source = offset + row * stride;
+            int target = bufferedRows * paddedWidth;
+            for (int x = 0; x < width; x++) {
+                int color = pixels[source + x];
+                int r = (color >> 16) & 0xFF;
+                int g = (color >> 8) & 0xFF;
+                int b = color & 0xFF;
+                yRows[target + x] = 0.299f * r + 0.587f * g + 0.114f * b - 128f;
+                cbRows[target + x] = -0.168736f * r - 0.331264f * g + 0.5f * b;
+                crRows[target + x] = 0.5f * r - 0.418688f * g - 0.081312f * b;
+            }
+            // Pad to whole MCUs by repeating the last column
+            for (int x = width; x < paddedWidth; x++) {
+                yRows[target + x] = yRows[target + width - 1];
+                cbRows[target + x] = cbRows[target + width - 1];
+                crRows[target + x] = crRows[target + width - 1];
+            }
+            if (++bufferedRows == MCU_SIZE) {
+                encodeMcuRow();
+            }
+        }
+    }
+
+    /**
+     * Flushes the last MCU row and writes the end of image marker. Does not close the stream.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (writtenRows + bufferedRows != height) {
+            throw new IllegalStateException("Only " + (writtenRows + bufferedRows) + " of " + height + " rows written");
+        }
+        if (bufferedRows > 0) {
+            // Pad to a whole MCU row by repeating the last row
+            int last = (bufferedRows - 1) * paddedWidth;
+            for (int row = bufferedRows; row < MCU_SIZE; row++) {
+                System.arraycopy(yRows, last, yRows, row * paddedWidth, paddedWidth);
+                System.arraycopy(cbRows, last, cbRows, row * paddedWidth, paddedWidth);
+                System.arraycopy(crRows, last, crRows, row * paddedWidth, paddedWidth);
+            }
+            encodeMcuRow();
+        }
+        writer.flush();
+        out.write(0xFF);
+        out.write(0xD9);
+        out.flush();
+        finished = true;
+    }
+
+    private void encodeMcuRow() throws IOException {
+        for (int x = 0; x < paddedWidth; x += MCU_SIZE) {
+            lastY = encodeLuminance(loadBlock(yRows, x, 0), lastY);
+            lastY = encodeLuminance(loadBlock(yRows, x + 8, 0), lastY);
+            lastY = encodeLuminance(loadBlock(yRows, x, 8), lastY);
+            lastY = encodeLuminance(loadBlock(yRows, x + 8, 8), lastY);
+            lastCb = encodeChrominance(loadSubsampledBlock(cbRows, x), lastCb);
+            lastCr = encodeChrominance(loadSubsampledBlock(crRows, x), lastCr);
+        }
+        writtenRows += bufferedRows;
+        bufferedRows = 0;
+    }
+
+    private float[] loadBlock(float[] rows, int left, int top) {
+        for (int y = 0; y < 8; y++) {
+            System.arraycopy(rows, (top + y) * paddedWidth + left, block, y * 8, 8);
+        }
+        return block;
+    }
+
+    private float[] loadSubsampledBlock(float[] rows, int left) {
+        for (int y = 0; y < 8; y++) {
+            int top = y * 2 * paddedWidth + left;
+            int bottom = top + paddedWidth;
+            for (int x = 0; x < 8; x++) {
+                int i = x * 2;
+                block[y * 8 + x] = (rows[top + i] + rows[top + i + 1] + rows[bottom + i] + rows[bottom + i + 1]) * 0.25f;
+            }
+        }
+        return block;
+    }
+
+    private int encodeLuminance(float[] data, int lastDc) throws IOException {
+        quantize(data, luminanceDivisors);
+        return writer.writeBlock(coefficients, lastDc, JpegEntropyWriter.DC_LUMINANCE, JpegEntropyWriter.AC_LUMINANCE);
+    }
+
+    private int encodeChrominance(float[] data, int lastDc) throws IOException {
+        quantize(data, chrominanceDivisors);
+        return writer.writeBlock(coefficients, lastDc, JpegEntropyWriter.DC_CHROMINANCE, JpegEntropyWriter.AC_CHROMINANCE);
+    }
+
+    private void quantize(float[] data, float[] divisors) {
+        forwardDct(data);
+        for (int i = 0; i < 64; i++) {
+            coefficients[i] = Math.round(data[i] * divisors[i]);
+        }
+    }
+
+    /**
+     * In place AAN forward DCT, output is scaled by the AAN factors and eight
+     */
+    private static void forwardDct(float[] data) {
+        for (int i = 0; i < 64; i += 8) {
+            dct8(data, i, 1);
+        }
+        for (int i = 0; i < 8; i++) {
+            dct8(data, i, 8);
+        }
+    }
+
+    private static void dct8(float[] d, int o, int s) {
+        float tmp0 = d[o] + d[o + 7 * s];
+        float tmp7 = d[o] - d[o + 7 * s];
+        float tmp1 = d[o + s] + d[o + 6 * s];
+        float tmp6 = d[o + s] - d[o + 6 * s];
+        float tmp2 = d[o + 2 * s] + d[o + 5 * s];
+        float tmp5 = d[o + 2 * s] - d[o + 5 * s];
+        float tmp3 = d[o + 3 * s] + d[o + 4 * s];
+        float tmp4 = d[o + 3 * s] - d[o + 4 * s];
+
+        float tmp10 = tmp0 + tmp3;
+        float tmp13 = tmp0 - tmp3;
+        float tmp11 = tmp1 + tmp2;
+        float tmp12 = tmp1 - tmp2;
+
+        d[o] = tmp10 + tmp11;
+        d[o + 4 * s] = tmp10 - tmp11;
+        float z1 = (tmp12 + tmp13) * 0.707106781f;
+        d[o + 2 * s] = tmp13 + z1;
+        d[o + 6 * s] = tmp13 - z1;
+
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+        float z5 = (tmp10 - tmp12) * 0.382683433f;
+        float z2 = 0.541196100f * tmp10 + z5;
+        float z4 = 1.306562965f * tmp12 + z5;
+        float z3 = tmp11 * 0.707106781f;
+        float z11 = tmp7 + z3;
+        float z13 = tmp7 - z3;
+
+        d[o + 5 * s] = z13 + z2;
+        d[o + 3 * s] = z13 - z2;
+        d[o + s] = z11 + z4;
+        d[o + 7 * s] = z11 - z4;
+    }
+
+    private static int[] scaleQuantization(int[] table, int quality) {
+        // Same scaling as libjpeg, which Bitmap.compress uses
+        quality = Math.max(1, Math.min(100, quality));
+        int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+        int[] scaled = new int[64];
+        for (int i = 0; i < 64; i++) {
+            scaled[i] = Math.max(1, Math.min(255, (table[i] * scale + 50) / 100));
+        }
+        return scaled;
+    }
+
+    private static float[] divisors(int[] quantization) {
+        float[] divisors = new float[64];
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                divisors[y * 8 + x] = (float) (1.0 / (quantization[y * 8 + x] * AAN_SCALE[y] * AAN_SCALE[x] * 8.0));
+            }
+        }
+        return divisors;
+    }
+
+    private void writeHeaders() throws IOException {
+        // SOI and a JFIF APP0 segment
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xD8,
+                (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+
+        // DQT, in zigzag order
+        writer.writeMarker(0xDB, 2 * 65);
+        out.write(0);
+        for (int k = 0; k < 64; k++) {
+            out.write(luminanceQuantization[JpegTables.ZIGZAG[k]]);
+        }
+        out.write(1);
+        for (int k = 0; k < 64; k++) {
+            out.write(chrominanceQuantization[JpegTables.ZIGZAG[k]]);
+        }
+
+        // SOF0, luminance sampled 2x2 relative to chrominance
+        writer.writeMarker(0xC0, 15);
+        out.write(8);
+        writer.writeShort(height);
+        writer.writeShort(width);
+        out.write(3);
+        out.write(new byte[]{1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1});
+
+        writer.writeHuffmanTables();
+
+        // SOS
+        writer.writeMarker(0xDA, 10);
+        out.write(new byte[]{3, 1, 0x00, 2, 0x11, 3, 0x11, 0, 63, 0});
+    }
+}
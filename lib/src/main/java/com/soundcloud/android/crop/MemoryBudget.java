@@ -0,0 +1,183 @@
+package com.soundcloud.android.crop;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Memory budget of a crop session. Every bitmap the session owns (previews, zoom tiles,
+ * crop region, output and pooled bitmaps) is tracked against a budget derived from the
+ * memory class of the app, so sample sizes and configs are chosen up front to fit
+ * instead of running into an OutOfMemoryError.
+ */
+class MemoryBudget {
+
+    private static final long MB = 1024 * 1024;
+    private static final int VERSION_CODES_O = 26;
+
+    private final long budgetBytes;
+    private final Map<Bitmap, Integer> tracked = new WeakHashMap<>();
+    private BitmapPool bitmapPool;
+    private long currentBytes;
+    private long reservedBytes;
+    private long peakBytes;
+
+    public MemoryBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    public static MemoryBudget fromContext(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long memoryClass = activityManager.getMemoryClass() * MB;
+        long budget;
+        if (Build.VERSION.SDK_INT < VERSION_CODES_O) {
+            // Bitmaps share the Java heap with the app, leave a quarter of it alone
+            budget = memoryClass * 3 / 4;
+        } else {
+            // Bitmaps are allocated natively, so they are bounded by free memory rather than the heap
+            ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+            activityManager.getMemoryInfo(memoryInfo);
+            budget = Math.max(memoryClass * 3 / 4, Math.min(memoryClass * 2, memoryInfo.availMem / 4));
+        }
+        return new MemoryBudget(budget);
+    }
+
+    /**
+     * Pool that is trimmed when a new allocation would not fit otherwise
+     */
+    public void setBitmapPool(@Nullable BitmapPool bitmapPool) {
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     * Counts a bitmap against the budget until it is recycled or collected
+     */
+    public synchronized void track(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || tracked.containsKey(bitmap)) {
+            return;
+        }
+        // Drop recycled bitmaps first, they would inflate the peak
+        sweep();
+        int size = BitmapPool.getAllocationByteCount(bitmap);
+        tracked.put(bitmap, size);
+        currentBytes += size;
+        peakBytes = Math.max(peakBytes, currentBytes);
+    }
+
+    /**
+     * @return true if the given number of bytes can be allocated without exceeding the budget,
+     * after dropping pooled bitmaps if needed
+     */
+    public boolean fits(long bytes) {
+        if (bytes <= getAvailableBytes()) {
+            return true;
+        }
+        BitmapPool pool = bitmapPool;
+        if (pool != null) {
+            pool.clear();
+        }
+        return bytes <= getAvailableBytes();
+    }
+
+    /**
+     * Holds the given number of bytes for an allocation about to be made, until they are
+     * released, so other threads sharing the budget do not plan with them too. Checking and
+     * holding is one step, unlike {@link #fits(long)} followed by the allocation.
+     *
+     * @return true if the bytes fit; they are held either way
+     */
+    public boolean reserve(long bytes) {
+        // Trims the pool outside of the lock, if needed
+        fits(bytes);
+        synchronized (this) {
+            final boolean fits = bytes <= getAvailableBytes();
+            reservedBytes += bytes;
+            return fits;
+        }
+    }
+
+    /**
+     * Gives back bytes held by {@link #reserve(long)}, once the allocation is tracked or failed
+     */
+    public synchronized void release(long bytes) {
+        reservedBytes = Math.max(0, reservedBytes - bytes);
+    }
+
+    /**
+     * @return true if the given number of copies of the sampled image fit
+     */
+    public boolean fits(int width, int height, int sampleSize, Bitmap.Config config, int copies) {
+        return fits(getByteCount(width, height, sampleSize, config) * copies);
+    }
+
+    /**
+     * Doubles the sample size until the given number of copies of the sampled image fit
+     */
+    public int fitSampleSize(int width, int height, int sampleSize, Bitmap.Config config, int copies) {
+        while (!fits(width, height, sampleSize, config, copies)
+                && (width / sampleSize > 1 || height / sampleSize > 1)) {
+            sampleSize = sampleSize << 1;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return ARGB_8888, or RGB_565 for opaque images if ARGB_8888 would not fit
+     */
+    public Bitmap.Config fitConfig(int width, int height, int sampleSize, boolean opaque, int copies) {
+        if (!opaque || fits(getByteCount(width, height, sampleSize, Bitmap.Config.ARGB_8888) * copies)) {
+            return Bitmap.Config.ARGB_8888;
+        }
+        return Bitmap.Config.RGB_565;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        sweep();
+        return currentBytes;
+    }
+
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * @return the bytes neither held by bitmaps nor reserved
+     */
+    public synchronized long getAvailableBytes() {
+        return Math.max(0, budgetBytes - getCurrentBytes() - reservedBytes);
+    }
+
+    // Forget recycled bitmaps
+    private void sweep() {
+        long bytes = 0;
+        for (Iterator<Map.Entry<Bitmap, Integer>> it = tracked.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Bitmap, Integer> entry = it.next();
+            if (entry.getKey().isRecycled()) {
+                it.remove();
+            } else {
+                bytes += entry.getValue();
+            }
+        }
+        currentBytes = bytes;
+    }
+
+    private static long getByteCount(int width, int height, int sampleSize, Bitmap.Config config) {
+        return (long) (width / sampleSize) * (height / sampleSize) * BitmapPool.getBytesPerPixel(config);
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryBudget{budget=" + budgetBytes / MB + "MB, current=" + getCurrentBytes() / MB
+                + "MB, peak=" + getPeakBytes() / MB + "MB}";
+    }
+}
@@ -0,0 +1,112 @@
+package com.soundcloud.android.crop;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * Formats a crop can be saved in. Formats the device cannot encode fall back to the closest
+ * one it can: lossy WebP to JPEG before Ice Cream Sandwich, lossless WebP to PNG before Q.
+ */
+public enum OutputFormat {
+    JPEG,
+    PNG,
+    WEBP,
+    WEBP_LOSSLESS;
+
+    /**
+     * Trade-off between encoding time and file size of lossless WebP, the only format whose
+     * platform encoder has an effort setting, from Android R on. Every other format, and
+     * lossless WebP on older devices, encodes the same bytes with every profile.
+     */
+    public enum Profile {
+        FAST,
+        BALANCED,
+        SMALL
+    }
+
+    // Build.VERSION_CODES.Q and R, newer than the SDK the library compiles against
+    private static final int SDK_Q = 29;
+    private static final int SDK_R = 30;
+
+    /**
+     * @return true if the saved image keeps every pixel of the crop
+     */
+    public boolean isLossless() {
+        return this == PNG || this == WEBP_LOSSLESS;
+    }
+
+    /**
+     * @return the platform format the crop is encoded with on this device
+     */
+    Bitmap.CompressFormat getCompressFormat() {
+        switch (this) {
+            case PNG:
+                return Bitmap.CompressFormat.PNG;
+            case WEBP:
+                if (Build.VERSION.SDK_INT >= SDK_R) {
+                    // Plain WEBP turns lossless at quality 100 from Q on
+                    return Bitmap.CompressFormat.valueOf("WEBP_LOSSY");
+                }
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH
+                        ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.JPEG;
+            case WEBP_LOSSLESS:
+                if (Build.VERSION.SDK_INT >= SDK_R) {
+                    return Bitmap.CompressFormat.valueOf("WEBP_LOSSLESS");
+                }
+                return Build.VERSION.SDK_INT >= SDK_Q ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.PNG;
+            default:
+                return Bitmap.CompressFormat.JPEG;
+        }
+    }
+
+    /**
+     * @param quality quality of lossy formats, 0 - 100
+     * @return the quality argument for {@link Bitmap#compress}, lossless WebP at the balanced effort
+     */
+    int getCompressQuality(int quality) {
+        return getCompressQuality(quality, Profile.BALANCED);
+    }
+
+    /**
+     * @param quality quality of lossy formats, 0 - 100
+     * @return the quality argument for {@link Bitmap#compress}, which lossless WebP takes as effort
+     */
+    int getCompressQuality(int quality, Profile profile) {
+        final Bitmap.CompressFormat format = getCompressFormat();
+        if (this == WEBP_LOSSLESS && format != Bitmap.CompressFormat.PNG) {
+            if (format == Bitmap.CompressFormat.WEBP) {
+                return 100; // Lossless on Q, without an effort setting
+            }
+            switch (profile) {
+                case FAST:
+                    return 10;
+                case SMALL:
+                    return 100;
+                default:
+                    return 75;
+            }
+        }
+        if (this == WEBP && format == Bitmap.CompressFormat.WEBP && Build.VERSION.SDK_INT >= SDK_Q) {
+            return Math.min(quality, 99);
+        }
+        return quality;
+    }
+
+    /**
+     * @return the MIME type of what {@link #getCompressFormat()} encodes
+     */
+    String getMimeType() {
+        return getMimeType(getCompressFormat());
+    }
+
+    static String getMimeType(Bitmap.CompressFormat format) {
+        switch (format) {
+            case JPEG:
+                return "image/jpeg";
+            case PNG:
+                return "image/png";
+            default:
+                return "image/webp";
+        }
+    }
+}
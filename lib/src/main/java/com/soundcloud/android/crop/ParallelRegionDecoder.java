@@ -0,0 +1,200 @@
+package com.soundcloud.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+
+import org.bonnyfone.brdcompat.BitmapRegionDecoderCompat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Decodes large regions of an image source in tiles on several threads. A region decoder
+ * only decodes one region at a time, so every thread gets its own decoder opened from the
+ * same source. Decoders and threads are created on first use and kept for the session
+ * until {@link #release()}. Decoded tiles are drawn into a {@link TransformTarget} as they
+ * come in.
+ */
+class ParallelRegionDecoder {
+
+    // Regions with fewer decoded pixels than this are decoded faster in one go
+    private static final int MIN_PIXELS = 2 * 1024 * 1024;
+    // Tile size in decoded pixels
+    private static final int TILE_SIZE = 1024;
+    // A region decoder holds the encoded stream, estimated at 4 bits per source pixel
+    private static final int DECODER_BITS_PER_PIXEL = 4;
+
+    private final ImageSource source;
+    private final BlockingQueue<BitmapRegionDecoderCompat> idle = new LinkedBlockingQueue<>();
+    private ExecutorService executor;
+    private int poolSize;
+    private int opened;
+    private boolean released;
+
+    public ParallelRegionDecoder(ImageSource source) {
+        this.source = source;
+    }
+
+    public static boolean isWorthSplitting(Rect rect, BitmapFactory.Options options) {
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        return (long) (rect.width() / sampleSize) * (rect.height() / sampleSize) >= MIN_PIXELS;
+    }
+
+    /**
+     * @return how many of the given threads can decode at once within the memory budget, each
+     * holding a region decoder and a tile, 1 if splitting is not worth it
+     */
+    public int fitThreads(Rect rect, BitmapFactory.Options options, int threads) {
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        final int tileSpan = TILE_SIZE * sampleSize;
+        final int tiles = ((rect.width() + tileSpan - 1) / tileSpan) * ((rect.height() + tileSpan - 1) / tileSpan);
+        threads = Math.min(threads, tiles);
+        final MemoryBudget memoryBudget = source.getMemoryBudget();
+        if (memoryBudget == null) {
+            return threads;
+        }
+        final Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        final long tileBytes = BitmapPool.getByteCount(TILE_SIZE + 2, TILE_SIZE + 2, config);
+        final long decoderBytes = (long) source.getWidth() * source.getHeight() * DECODER_BITS_PER_PIXEL / 8;
+        while (threads > 1) {
+            // Decoders opened by earlier calls are still held, only new ones need room
+            final int newDecoders = Math.max(0, threads - getOpened());
+            if (memoryBudget.fits(newDecoders * decoderBytes + threads * tileBytes)) {
+                break;
+            }
+            threads--;
+        }
+        return threads;
+    }
+
+    /**
+     * @param matrix  maps the region, sampled by options.inSampleSize, to the result
+     * @param threads as returned by {@link #fitThreads}
+     */
+    public Bitmap decode(Rect rect, BitmapFactory.Options options, Matrix matrix, int threads) throws IOException {
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        final Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        final TransformTarget target = new TransformTarget(source, rect, sampleSize, config, matrix);
+        final Bitmap result = target.getBitmap();
+
+        final int tileSpan = TILE_SIZE * sampleSize;
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int top = rect.top; top < rect.bottom; top += tileSpan) {
+            for (int left = rect.left; left < rect.right; left += tileSpan) {
+                final Rect tile = new Rect(left, top, Math.min(left + tileSpan, rect.right), Math.min(top + tileSpan, rect.bottom));
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        decodeTile(tile, sampleSize, config, target);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        threads = Math.min(threads, tasks.size());
+        boolean complete = false;
+        try {
+            final ExecutorService pool = openDecoders(threads);
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+            complete = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted decoding " + rect);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            if (!complete) {
+                source.recycle(result);
+            }
+        }
+        return result;
+    }
+
+    private void decodeTile(Rect tile, int sampleSize, Bitmap.Config config, TransformTarget target)
+            throws IOException, InterruptedException {
+        final BitmapRegionDecoderCompat decoder = idle.take();
+        try {
+            final Rect piece = target.withMargin(tile);
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+            final Bitmap bitmap = source.decodeRegion(decoder, piece, options);
+            if (bitmap == null) {
+                throw new IOException("Cannot decode " + piece + " of " + source.getUri());
+            }
+            target.draw(bitmap, piece, tile);
+            source.recycle(bitmap);
+        } finally {
+            giveBack(decoder);
+        }
+    }
+
+    // Opens decoders up to the count and returns the pool the tiles are decoded on
+    private synchronized ExecutorService openDecoders(int count) throws IOException {
+        if (released) {
+            throw new IOException("Image source already released: " + source.getUri());
+        }
+        while (opened < count) {
+            idle.add(source.openRegionDecoder());
+            opened++;
+        }
+        if (executor == null || poolSize < count) {
+            // Tasks already queued on a smaller pool still finish before it shuts down
+            if (executor != null) {
+                executor.shutdown();
+            }
+            executor = Executors.newFixedThreadPool(count);
+            poolSize = count;
+        }
+        return executor;
+    }
+
+    private synchronized int getOpened() {
+        return opened;
+    }
+
+    private synchronized void giveBack(BitmapRegionDecoderCompat decoder) {
+        if (released) {
+            decoder.recycle();
+        } else {
+            idle.add(decoder);
+        }
+    }
+
+    /**
+     * Recycles the decoders and stops the threads, the decoders still decoding are recycled when they are done
+     */
+    public synchronized void release() {
+        released = true;
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        BitmapRegionDecoderCompat decoder;
+        while ((decoder = idle.poll()) != null) {
+            decoder.recycle();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.soundcloud.android.crop;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Finds the highest encoder quality that keeps an image under a byte budget. The encoded
+ * size is assumed to grow with the quality. A first guess comes from {@link Trials#guess};
+ * the full size trials then gallop from the guess to the boundary and bisect it, so a good
+ * guess costs two encodes.
+ */
+class QualitySearch {
+
+    public static final int MIN_QUALITY = 10;
+    public static final int MAX_QUALITY = 100;
+
+    /**
+     * Encodes trials of one image
+     */
+    interface Trials {
+
+        /**
+         * @return the size of the image encoded at the quality
+         */
+        long getEncodedSize(int quality) throws IOException;
+
+        /**
+         * @return a cheap estimate of the highest quality that fits, or -1 without one
+         */
+        int guess(long targetBytes, int minQuality, int maxQuality) throws IOException;
+    }
+
+    /**
+     * The quality to encode with, and whether it fits the budget
+     */
+    static class Result {
+        private final int quality;
+        private final long bytes;
+        private final boolean fits;
+
+        Result(int quality, long bytes, boolean fits) {
+            this.quality = quality;
+            this.bytes = bytes;
+            this.fits = fits;
+        }
+
+        /**
+         * @return the highest fitting quality, or {@link #MIN_QUALITY} if none fits
+         */
+        public int getQuality() {
+            return quality;
+        }
+
+        /**
+         * @return the encoded size at the quality
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return false if even {@link #MIN_QUALITY} is larger than the budget
+         */
+        public boolean fits() {
+            return fits;
+        }
+    }
+
+    private final Trials trials;
+    private final long[] sizes = new long[MAX_QUALITY + 1];
+    private int trialCount;
+
+    public QualitySearch(Trials trials) {
+        this.trials = trials;
+        Arrays.fill(sizes, -1);
+    }
+
+    /**
+     * @param targetBytes the encoded size not to exceed
+     * @param maxQuality  the quality to use if it fits already
+     */
+    public Result search(long targetBytes, int maxQuality) throws IOException {
+        maxQuality = Math.max(MIN_QUALITY, Math.min(MAX_QUALITY, maxQuality));
+        int guess = trials.guess(targetBytes, MIN_QUALITY, maxQuality);
+        if (guess < 0) {
+            guess = (MIN_QUALITY + maxQuality) >>> 1;
+        }
+        guess = Math.max(MIN_QUALITY, Math.min(maxQuality, guess));
+
+        // Bracket the boundary: lo fits (or is below the range), hi does not (or is above it)
+        int lo;
+        int hi;
+        int step = 1;
+        if (fits(guess, targetBytes)) {
+            lo = guess;
+            while (true) {
+                final int quality = lo + step;
+                if (quality > maxQuality) {
+                    hi = maxQuality + 1;
+                    break;
+                }
+                if (!fits(quality, targetBytes)) {
+                    hi = quality;
+                    break;
+                }
+                lo = quality;
+                step <<= 1;
+            }
+        } else {
+            hi = guess;
+            while (true) {
+                final int quality = hi - step;
+                if (quality < MIN_QUALITY) {
+                    lo = MIN_QUALITY - 1;
+                    break;
+                }
+                if (fits(quality, targetBytes)) {
+                    lo = quality;
+                    break;
+                }
+                hi = quality;
+                step <<= 1;
+            }
+        }
+        while (hi - lo > 1) {
+            final int quality = (lo + hi) >>> 1;
+            if (fits(quality, targetBytes)) {
+                lo = quality;
+            } else {
+                hi = quality;
+            }
+        }
+        if (lo < MIN_QUALITY) {
+            // The lowest quality has been tried and is too large
+            return new Result(MIN_QUALITY, sizes[MIN_QUALITY], false);
+        }
+        return new Result(lo, sizes[lo], true);
+    }
+
+    /**
+     * @return how many qualities have been encoded so far
+     */
+    public int getTrialCount() {
+        return trialCount;
+    }
+
+    private boolean fits(int quality, long targetBytes) throws IOException {
+        if (sizes[quality] < 0) {
+            sizes[quality] = trials.getEncodedSize(quality);
+            trialCount++;
+        }
+        return sizes[quality] <= targetBytes;
+    }
+}
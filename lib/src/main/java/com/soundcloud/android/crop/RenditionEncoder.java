@@ -0,0 +1,204 @@
+package com.soundcloud.android.crop;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves several sizes of one decoded crop. Renditions are made largest first by successive
+ * halvings, each scaled from the nearest larger halving like a mipmap, so the full crop is
+ * only filtered once per halving. Every rendition is encoded on its own thread as soon as
+ * it has been scaled.
+ */
+class RenditionEncoder {
+
+    static class Rendition {
+        final Uri uri;
+        final int maxWidth;
+        final int maxHeight;
+        final Bitmap.CompressFormat format;
+        final int quality;
+
+        /**
+         * @param maxWidth  maximum width, 0 for the full crop
+         * @param maxHeight maximum height, 0 for the full crop
+         */
+        Rendition(Uri uri, int maxWidth, int maxHeight, Bitmap.CompressFormat format, int quality) {
+            this.uri = uri;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.format = format;
+            this.quality = quality;
+        }
+    }
+
+    static class Result {
+        final Uri uri;
+        final int width;
+        final int height;
+        final long bytes;
+
+        Result(Uri uri, int width, int height, long bytes) {
+            this.uri = uri;
+            this.width = width;
+            this.height = height;
+            this.bytes = bytes;
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final MemoryBudget memoryBudget;
+
+    public RenditionEncoder(ContentResolver resolver, @Nullable MemoryBudget memoryBudget) {
+        this.resolver = resolver;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Renditions are saved all or nothing: if one fails, the ones already written are deleted.
+     *
+     * @param crop the decoded crop, at least as large as the largest rendition; not recycled
+     * @return the saved renditions, in the order they were given
+     */
+    public List<Result> encode(Bitmap crop, final List<Rendition> renditions, int threads) throws IOException {
+        final Integer[] order = new Integer[renditions.size()];
+        final int[][] sizes = new int[renditions.size()][];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            sizes[i] = fit(crop.getWidth(), crop.getHeight(), renditions.get(i));
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return sizes[b][0] - sizes[a][0];
+            }
+        });
+
+        final List<Bitmap> scaled = new ArrayList<>();
+        final List<Uri> written = Collections.synchronizedList(new ArrayList<Uri>());
+        final List<Future<Result>> futures = new ArrayList<>(Collections.<Future<Result>>nCopies(order.length, null));
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, order.length)));
+        boolean complete = false;
+        try {
+            Bitmap level = crop;
+            for (final int index : order) {
+                final int width = sizes[index][0];
+                final int height = sizes[index][1];
+                while (level.getWidth() / 2 >= width && level.getHeight() / 2 >= height) {
+                    level = scale(level, level.getWidth() / 2, level.getHeight() / 2, scaled);
+                }
+                final Bitmap bitmap = level.getWidth() == width && level.getHeight() == height
+                        ? level : scale(level, width, height, scaled);
+                final Rendition rendition = renditions.get(index);
+                futures.set(index, executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws Exception {
+                        return save(bitmap, rendition, written);
+                    }
+                }));
+            }
+
+            final List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            complete = true;
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted saving renditions");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+            if (complete) {
+                for (Bitmap bitmap : scaled) {
+                    bitmap.recycle();
+                }
+            } else {
+                // Scaled bitmaps may still be read by other encodes, leave them to the garbage collector
+                deleteWritten(executor, written);
+            }
+        }
+    }
+
+    // Waits for the encodes still running, then deletes every rendition that was opened for writing
+    private void deleteWritten(ExecutorService executor, List<Uri> written) {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (written) {
+            for (Uri uri : written) {
+                Log.d("Deleting rendition " + uri + " of a failed crop");
+                CropUtil.delete(resolver, uri);
+            }
+        }
+    }
+
+    private Bitmap scale(Bitmap bitmap, int width, int height, List<Bitmap> scaled) {
+        final Bitmap result = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        if (memoryBudget != null) {
+            memoryBudget.track(result);
+        }
+        scaled.add(result);
+        return result;
+    }
+
+    private Result save(Bitmap bitmap, Rendition rendition, List<Uri> written) throws IOException {
+        OutputStream outputStream = null;
+        try {
+            outputStream = resolver.openOutputStream(rendition.uri);
+            if (outputStream == null) {
+                throw new IOException("Cannot open " + rendition.uri);
+            }
+            written.add(rendition.uri);
+            final CountingOutputStream counted = new CountingOutputStream(outputStream);
+            if (!bitmap.compress(rendition.format, rendition.quality, counted)) {
+                throw new IOException("Cannot encode " + rendition.format + " to " + rendition.uri);
+            }
+            return new Result(rendition.uri, bitmap.getWidth(), bitmap.getHeight(), counted.getCount());
+        } finally {
+            CropUtil.closeSilently(outputStream);
+        }
+    }
+
+    /**
+     * @return the size of a crop scaled down to fit a rendition, keeping its aspect ratio
+     */
+    static int[] fit(int width, int height, Rendition rendition) {
+        float scale = 1f;
+        if (rendition.maxWidth > 0 && width > rendition.maxWidth) {
+            scale = (float) rendition.maxWidth / width;
+        }
+        if (rendition.maxHeight > 0 && height * scale > rendition.maxHeight) {
+            scale = (float) rendition.maxHeight / height;
+        }
+        return new int[]{Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale))};
+    }
+}
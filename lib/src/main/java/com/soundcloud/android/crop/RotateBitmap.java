@@ -19,6 +19,8 @@ package com.soundcloud.android.crop;
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
 
+import com.soundcloud.android.crop.geometry.Affine;
+
 /*
  * Modified from original in AOSP.
  */
@@ -52,14 +54,9 @@ class RotateBitmap {
         // By default this is an identity matrix
         Matrix matrix = new Matrix();
         if (bitmap != null && rotation != 0) {
-            // We want to do the rotation at origin, but since the bounding
-            // rectangle will be changed after rotation, so the delta values
-            // are based on old & new width/height respectively.
-            int cx = bitmap.getWidth() / 2;
-            int cy = bitmap.getHeight() / 2;
-            matrix.preTranslate(-cx, -cy);
-            matrix.postRotate(rotation);
-            matrix.postTranslate(getWidth() / 2, getHeight() / 2);
+            // Rotated about the center, then moved back to the origin
+            matrix.setValues(new Affine().setRotate(rotation, bitmap.getWidth(), bitmap.getHeight())
+                    .getValues(new float[9]));
         }
         return matrix;
     }
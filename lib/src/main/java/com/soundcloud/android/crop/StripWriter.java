@@ -0,0 +1,109 @@
+package com.soundcloud.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a crop of an image source as JPEG without ever holding the cropped region as a
+ * whole. The output is produced in bands of rows: each band is decoded from the matching
+ * strip of the source, scaled and rotated into a band bitmap and its rows are streamed
+ * into a {@link JpegStreamEncoder}. Peak memory is a band and its source strip, whatever
+ * the size of the crop.
+ */
+class StripWriter {
+
+    // Approximate size of a band bitmap
+    private static final int BAND_BYTES = 1024 * 1024;
+    private static final int BAND_ROWS_MULTIPLE = 16;
+
+    private final ImageSource source;
+
+    public StripWriter(ImageSource source) {
+        this.source = source;
+    }
+
+    /**
+     * @param rect      crop rectangle in source coordinates
+     * @param options   sample size and config to decode the source strips with
+     * @param maxWidth  the sampled region is scaled down to this width before rotating
+     * @param maxHeight the sampled region is scaled down to this height before rotating
+     * @param rotation  rotation in degrees applied after scaling
+     * @param quality   JPEG quality, 0 - 100
+     * @return the size of the written image
+     */
+    public Point write(Rect rect, BitmapFactory.Options options, int maxWidth, int maxHeight, int rotation,
+                       int quality, OutputStream out) throws IOException {
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        final Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        final int sampledWidth = TransformTarget.getSampledSize(rect.width(), sampleSize);
+        final int sampledHeight = TransformTarget.getSampledSize(rect.height(), sampleSize);
+
+        // Maps the sampled region to the output
+        final Matrix matrix = DecodeLadder.getTransform(sampledWidth, sampledHeight, maxWidth, maxHeight, rotation);
+        final RectF bounds = new RectF(0, 0, sampledWidth, sampledHeight);
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        final Matrix inverse = new Matrix();
+        matrix.invert(inverse);
+        final int width = Math.max(1, Math.round(bounds.width()));
+        final int height = Math.max(1, Math.round(bounds.height()));
+
+        final int bandRows = Math.min(height, Math.max(BAND_ROWS_MULTIPLE,
+                BAND_BYTES / (width * BitmapPool.getBytesPerPixel(config)) / BAND_ROWS_MULTIPLE * BAND_ROWS_MULTIPLE));
+        final Bitmap band = source.createBitmap(width, bandRows, config);
+        final int[] pixels = new int[width * bandRows];
+        final Canvas canvas = new Canvas(band);
+        final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+        final JpegStreamEncoder encoder = new JpegStreamEncoder(out, width, height, quality);
+        try {
+            for (int top = 0; top < height; top += bandRows) {
+                final int rows = Math.min(bandRows, height - top);
+
+                // Part of the sampled region the band shows, with a pixel around it for filtering
+                final RectF area = new RectF(0, top, width, top + rows);
+                inverse.mapRect(area);
+                final int left = Math.max(0, (int) Math.floor(area.left) - 1);
+                final int stripTop = Math.max(0, (int) Math.floor(area.top) - 1);
+                final int right = Math.min(sampledWidth, (int) Math.ceil(area.right) + 1);
+                final int bottom = Math.min(sampledHeight, (int) Math.ceil(area.bottom) + 1);
+
+                band.eraseColor(Color.TRANSPARENT);
+                if (right > left && bottom > stripTop) {
+                    final Rect strip = new Rect(rect.left + left * sampleSize, rect.top + stripTop * sampleSize,
+                            Math.min(rect.right, rect.left + right * sampleSize),
+                            Math.min(rect.bottom, rect.top + bottom * sampleSize));
+                    final BitmapFactory.Options stripOptions = new BitmapFactory.Options();
+                    stripOptions.inSampleSize = sampleSize;
+                    stripOptions.inPreferredConfig = config;
+                    final Bitmap bitmap = source.decodeRegion(strip, stripOptions);
+                    if (bitmap == null) {
+                        throw new IOException("Cannot decode " + strip + " of " + source.getUri());
+                    }
+                    canvas.save();
+                    canvas.translate(0, -top);
+                    canvas.concat(matrix);
+                    canvas.drawBitmap(bitmap, left, stripTop, paint);
+                    canvas.restore();
+                    source.recycle(bitmap);
+                }
+
+                band.getPixels(pixels, 0, width, 0, 0, width, rows);
+                encoder.writeRows(pixels, 0, width, rows);
+            }
+            encoder.finish();
+        } finally {
+            source.recycle(band);
+        }
+        return new Point(width, height);
+    }
+}
@@ -0,0 +1,269 @@
+package com.soundcloud.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.v4.util.LruCache;
+import android.view.View;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Renders the visible part of a source image in tiles decoded on demand from the
+ * session region decoder, on top of the sampled preview that serves as base layer.
+ *
+ * Tiles are picked at the power of two sample size matching the current zoom level
+ * and kept in an LRU cache bounded in bytes. Decodes of tiles that scrolled off
+ * screen or belong to another zoom level are cancelled before they start.
+ */
+class TileRenderer {
+
+    private static final int TILE_SIZE = 256;
+
+    private final View view;
+    private final ImageSource source;
+    private final LruCache<Tile, Bitmap> cache;
+    private final Map<Tile, Subscription> pending = new HashMap<>();
+    private final Set<Tile> visible = new HashSet<>();
+    private final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+    private final Scheduler decodeScheduler = Schedulers.from(decodeExecutor);
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private boolean released;
+
+    public TileRenderer(View view, ImageSource source, int cacheBytes) {
+        this.view = view;
+        this.source = source;
+        this.cache = new LruCache<Tile, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(Tile key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Tile key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) {
+                    recycle(oldValue);
+                }
+            }
+        };
+    }
+
+    public ImageSource getSource() {
+        return source;
+    }
+
+    /**
+     * Works out the tiles needed for the current transformation, starts decoding the
+     * missing ones and cancels the ones that are no longer needed
+     *
+     * @param sourceMatrix maps source coordinates to the view
+     * @param previewSampleScale source pixels per pixel of the base layer
+     */
+    public void update(Matrix sourceMatrix, int viewWidth, int viewHeight, float previewSampleScale) {
+        if (released) {
+            return;
+        }
+        visible.clear();
+        int level = getLevel(sourceMatrix, previewSampleScale);
+        if (level > 0) {
+            collectVisibleTiles(sourceMatrix, viewWidth, viewHeight, level, visible);
+        }
+
+        // Cancel decodes that are not visible any more
+        Iterator<Map.Entry<Tile, Subscription>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Tile, Subscription> entry = it.next();
+            if (!visible.contains(entry.getKey())) {
+                entry.getValue().unsubscribe();
+                it.remove();
+            }
+        }
+
+        for (Tile tile : visible) {
+            if (cache.get(tile) == null && !pending.containsKey(tile)) {
+                pending.put(tile, decode(tile));
+            }
+        }
+    }
+
+    /**
+     * Draws the cached visible tiles, the canvas is expected in view coordinates
+     */
+    public void draw(Canvas canvas, Matrix sourceMatrix) {
+        if (released || visible.isEmpty()) {
+            return;
+        }
+        canvas.save();
+        canvas.concat(sourceMatrix);
+        for (Tile tile : visible) {
+            Bitmap bitmap = cache.get(tile);
+            if (bitmap != null) {
+                canvas.drawBitmap(bitmap, null, tile.rect, paint);
+            }
+        }
+        canvas.restore();
+    }
+
+    public void release() {
+        released = true;
+        for (Subscription subscription : pending.values()) {
+            subscription.unsubscribe();
+        }
+        pending.clear();
+        visible.clear();
+        cache.evictAll();
+        decodeExecutor.shutdown();
+    }
+
+    /**
+     * @return the tile sample size for the zoom level, or 0 if the base layer has enough pixels
+     */
+    private static int getLevel(Matrix sourceMatrix, float previewSampleScale) {
+        // Largest power of two sample size that still gives a source pixel per screen pixel
+        float screenPerSource = sourceMatrix.mapRadius(1f);
+        int sampleSize = 1;
+        while ((sampleSize << 1) * screenPerSource <= 1f) {
+            sampleSize = sampleSize << 1;
+        }
+        return sampleSize < previewSampleScale ? sampleSize : 0;
+    }
+
+    private void collectVisibleTiles(Matrix sourceMatrix, int viewWidth, int viewHeight, int sampleSize, Set<Tile> tiles) {
+        Matrix inverse = new Matrix();
+        if (!sourceMatrix.invert(inverse)) {
+            return;
+        }
+        RectF area = new RectF(0, 0, viewWidth, viewHeight);
+        inverse.mapRect(area);
+        if (!area.intersect(0, 0, source.getWidth(), source.getHeight())) {
+            return;
+        }
+
+        int tileSpan = TILE_SIZE * sampleSize;
+        int firstColumn = (int) (area.left / tileSpan);
+        int lastColumn = (int) ((area.right - 1) / tileSpan);
+        int firstRow = (int) (area.top / tileSpan);
+        int lastRow = (int) ((area.bottom - 1) / tileSpan);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Rect rect = new Rect(column * tileSpan, row * tileSpan,
+                        Math.min((column + 1) * tileSpan, source.getWidth()),
+                        Math.min((row + 1) * tileSpan, source.getHeight()));
+                if (!rect.isEmpty()) {
+                    tiles.add(new Tile(sampleSize, column, row, rect));
+                }
+            }
+        }
+    }
+
+    private Subscription decode(final Tile tile) {
+        return Observable.create(new Observable.OnSubscribe<Bitmap>() {
+            @Override
+            public void call(Subscriber<? super Bitmap> subscriber) {
+                if (subscriber.isUnsubscribed()) {
+                    return;
+                }
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = tile.sampleSize;
+                try {
+                    Bitmap bitmap = source.decodeRegion(tile.rect, options);
+                    if (subscriber.isUnsubscribed()) {
+                        recycle(bitmap);
+                        return;
+                    }
+                    subscriber.onNext(bitmap);
+                    subscriber.onCompleted();
+                } catch (IOException e) {
+                    subscriber.onError(e);
+                } catch (OutOfMemoryError e) {
+                    // The base layer is still shown for this tile
+                    subscriber.onError(e);
+                }
+            }
+        }).subscribeOn(decodeScheduler)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action1<Bitmap>() {
+                    @Override
+                    public void call(Bitmap bitmap) {
+                        pending.remove(tile);
+                        if (bitmap == null) {
+                            return;
+                        }
+                        if (released) {
+                            recycle(bitmap);
+                            return;
+                        }
+                        cache.put(tile, bitmap);
+                        if (visible.contains(tile)) {
+                            view.invalidate();
+                        }
+                    }
+                }, new Action1<Throwable>() {
+                    @Override
+                    public void call(Throwable e) {
+                        pending.remove(tile);
+                        Log.e("Error decoding tile: " + e.getMessage(), e);
+                    }
+                });
+    }
+
+    // Evicted tiles are mostly full size, so they are reused for the next tiles
+    private void recycle(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        BitmapPool pool = source.getBitmapPool();
+        if (pool != null) {
+            pool.put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    private static class Tile {
+
+        final int sampleSize;
+        final int column;
+        final int row;
+        final Rect rect; // Source space
+
+        Tile(int sampleSize, int column, int row, Rect rect) {
+            this.sampleSize = sampleSize;
+            this.column = column;
+            this.row = row;
+            this.rect = rect;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Tile)) return false;
+            Tile tile = (Tile) o;
+            return sampleSize == tile.sampleSize && column == tile.column && row == tile.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return (sampleSize * 31 + column) * 31 + row;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.soundcloud.android.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Preallocated destination of a region that is decoded in pieces. Every piece is scaled and
+ * rotated straight into its place in one pass, so there is never an untransformed copy of
+ * the whole region. Pieces are decoded with a pixel of margin and clipped back to their part,
+ * which keeps filtering seamless across the piece edges.
+ */
+class TransformTarget {
+
+    private final Rect region;
+    private final int sampleSize;
+    private final Bitmap bitmap;
+    private final Canvas canvas;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+
+    /**
+     * @param region     region in source coordinates
+     * @param sampleSize sample size the pieces are decoded with
+     * @param matrix     maps the sampled region to the destination
+     */
+    public TransformTarget(ImageSource source, Rect region, int sampleSize, Bitmap.Config config, Matrix matrix) {
+        this.region = region;
+        this.sampleSize = sampleSize;
+        final RectF bounds = new RectF(0, 0, getSampledSize(region.width(), sampleSize),
+                getSampledSize(region.height(), sampleSize));
+        matrix.mapRect(bounds);
+        bitmap = source.createBitmap(Math.max(1, Math.round(bounds.width())), Math.max(1, Math.round(bounds.height())), config);
+        canvas = new Canvas(bitmap);
+        canvas.translate(-bounds.left, -bounds.top);
+        canvas.concat(matrix);
+    }
+
+    public Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    /**
+     * @return the source rectangle to decode for a part of the region, a sampled pixel larger on every side
+     */
+    public Rect withMargin(Rect part) {
+        final Rect piece = new Rect(part.left - sampleSize, part.top - sampleSize,
+                part.right + sampleSize, part.bottom + sampleSize);
+        piece.intersect(region);
+        return piece;
+    }
+
+    /**
+     * Draws a decoded piece into the destination, clipped to the part of the region it stands for
+     *
+     * @param piece      the decoded bitmap
+     * @param pieceRect  source rectangle the piece was decoded from
+     * @param part       source rectangle the piece is drawn for
+     */
+    public synchronized void draw(Bitmap piece, Rect pieceRect, Rect part) {
+        final float scale = 1f / sampleSize;
+        canvas.save();
+        canvas.clipRect((part.left - region.left) * scale, (part.top - region.top) * scale,
+                (part.right - region.left) * scale, (part.bottom - region.top) * scale);
+        canvas.drawBitmap(piece, (pieceRect.left - region.left) * scale, (pieceRect.top - region.top) * scale, paint);
+        canvas.restore();
+    }
+
+    /**
+     * @return the size of a sampled dimension, rounded up like the region decoder does
+     */
+    public static int getSampledSize(int size, int sampleSize) {
+        return Math.max(1, (size + sampleSize - 1) / sampleSize);
+    }
+}
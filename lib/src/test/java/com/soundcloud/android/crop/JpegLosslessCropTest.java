@@ -0,0 +1,163 @@
+package com.soundcloud.android.crop;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+public class JpegLosslessCropTest {
+
+    // Not a whole number of 16 pixel MCUs either way
+    private static final int WIDTH = 88;
+    private static final int HEIGHT = 72;
+
+    @Test
+    public void readsSizeAndMcuOfChromaSubsampledJpeg() throws IOException {
+        final JpegLosslessCrop crop = JpegLosslessCrop.parse(encodeSource());
+
+        assertEquals(WIDTH, crop.getWidth());
+        assertEquals(HEIGHT, crop.getHeight());
+        assertEquals(16, crop.getMcuWidth());
+        assertEquals(16, crop.getMcuHeight());
+    }
+
+    @Test
+    public void snapsOutwardsToMcuGrid() throws IOException {
+        final JpegLosslessCrop crop = JpegLosslessCrop.parse(encodeSource());
+
+        assertArrayEquals(new int[]{0, 16, 48, 64}, crop.snap(5, 20, 37, 50, 0));
+        assertArrayEquals(new int[]{0, 0, WIDTH, HEIGHT}, crop.snap(0, 0, WIDTH, HEIGHT, 0));
+    }
+
+    @Test
+    public void dropsPartialMcusThatWouldLeadAfterRotating() throws IOException {
+        final JpegLosslessCrop crop = JpegLosslessCrop.parse(encodeSource());
+
+        assertArrayEquals(new int[]{0, 0, 88, 64}, crop.snap(0, 0, WIDTH, HEIGHT, 90));
+        assertArrayEquals(new int[]{0, 0, 80, 64}, crop.snap(0, 0, WIDTH, HEIGHT, 180));
+        assertArrayEquals(new int[]{0, 0, 80, 72}, crop.snap(0, 0, WIDTH, HEIGHT, 270));
+        assertNull(crop.snap(80, 0, WIDTH, 16, 180));
+    }
+
+    @Test
+    public void cropsLikeDecodingThenCropping() throws IOException {
+        assertCropsLikeReference(0);
+    }
+
+    @Test
+    public void cropsLikeDecodingThenRotating90() throws IOException {
+        assertCropsLikeReference(90);
+    }
+
+    @Test
+    public void cropsLikeDecodingThenRotating180() throws IOException {
+        assertCropsLikeReference(180);
+    }
+
+    @Test
+    public void cropsLikeDecodingThenRotating270() throws IOException {
+        assertCropsLikeReference(270);
+    }
+
+    private static void assertCropsLikeReference(int rotation) throws IOException {
+        final byte[] source = encodeSource();
+        final JpegLosslessCrop crop = JpegLosslessCrop.parse(source);
+        final int[] rect = crop.snap(16, 16, 64, 48, rotation);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        crop.write(rect[0], rect[1], rect[2], rect[3], rotation, out);
+
+        final BufferedImage cropped = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        final BufferedImage reference = rotate(ImageIO.read(new ByteArrayInputStream(source))
+                .getSubimage(rect[0], rect[1], rect[2] - rect[0], rect[3] - rect[1]), rotation);
+        assertEquals(reference.getWidth(), cropped.getWidth());
+        assertEquals(reference.getHeight(), cropped.getHeight());
+        // Same coefficients, only the chroma upsampling at the new edges differs
+        final double psnr = psnr(reference, cropped);
+        assertTrue("PSNR " + psnr + " at " + rotation, psnr > 40);
+    }
+
+    private static byte[] encodeSource() throws IOException {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final int r = x * 255 / WIDTH;
+                final int g = y * 255 / HEIGHT;
+                // A square that is not symmetric, so a wrong rotation shows
+                final int b = x > 20 && x < 40 && y > 24 && y < 36 ? 255 : 64;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ImageOutputStream out = ImageIO.createImageOutputStream(bytes);
+        try {
+            final ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.95f);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    // Rotates clockwise by a multiple of 90 degrees
+    private static BufferedImage rotate(BufferedImage image, int rotation) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final boolean transposed = rotation == 90 || rotation == 270;
+        final BufferedImage rotated = new BufferedImage(transposed ? height : width, transposed ? width : height,
+                BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int color = image.getRGB(x, y);
+                switch (rotation) {
+                    case 90:
+                        rotated.setRGB(height - 1 - y, x, color);
+                        break;
+                    case 180:
+                        rotated.setRGB(width - 1 - x, height - 1 - y, color);
+                        break;
+                    case 270:
+                        rotated.setRGB(y, width - 1 - x, color);
+                        break;
+                    default:
+                        rotated.setRGB(x, y, color);
+                }
+            }
+        }
+        return rotated;
+    }
+
+    private static double psnr(BufferedImage expected, BufferedImage actual) {
+        double squaredError = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                final int a = expected.getRGB(x, y);
+                final int b = actual.getRGB(x, y);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    final int difference = ((a >> shift) & 0xFF) - ((b >> shift) & 0xFF);
+                    squaredError += difference * difference;
+                }
+            }
+        }
+        final double mse = squaredError / (expected.getWidth() * expected.getHeight() * 3);
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+    }
+}
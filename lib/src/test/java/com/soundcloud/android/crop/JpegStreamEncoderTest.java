@@ -0,0 +1,107 @@
+package com.soundcloud.android.crop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+public class JpegStreamEncoderTest {
+
+    @Test
+    public void decodesToSameSize() throws IOException {
+        // Neither side is a whole number of MCUs
+        final int[] pixels = gradient(37, 23);
+
+        final BufferedImage decoded = decode(encode(pixels, 37, 23, 90, 23));
+
+        assertEquals(37, decoded.getWidth());
+        assertEquals(23, decoded.getHeight());
+    }
+
+    @Test
+    public void keepsPixelsAtHighQuality() throws IOException {
+        final int[] pixels = gradient(64, 48);
+
+        final BufferedImage decoded = decode(encode(pixels, 64, 48, 90, 48));
+
+        final double psnr = psnr(pixels, decoded);
+        assertTrue("PSNR " + psnr, psnr > 30);
+    }
+
+    @Test
+    public void losesMoreAtLowQuality() throws IOException {
+        final int[] pixels = gradient(64, 48);
+
+        final double high = psnr(pixels, decode(encode(pixels, 64, 48, 90, 48)));
+        final double low = psnr(pixels, decode(encode(pixels, 64, 48, 10, 48)));
+
+        assertTrue("PSNR " + low + " at 10, " + high + " at 90", low < high);
+    }
+
+    @Test
+    public void encodesSameBytesWhateverTheRowsPerCall() throws IOException {
+        final int[] pixels = gradient(40, 35);
+
+        final byte[] whole = encode(pixels, 40, 35, 80, 35);
+        final byte[] rowByRow = encode(pixels, 40, 35, 80, 1);
+        final byte[] uneven = encode(pixels, 40, 35, 80, 7);
+
+        assertTrue(Arrays.equals(whole, rowByRow));
+        assertTrue(Arrays.equals(whole, uneven));
+    }
+
+    private static byte[] encode(int[] pixels, int width, int height, int quality, int rowsPerCall)
+            throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final JpegStreamEncoder encoder = new JpegStreamEncoder(out, width, height, quality);
+        for (int top = 0; top < height; top += rowsPerCall) {
+            encoder.writeRows(pixels, top * width, width, Math.min(rowsPerCall, height - top));
+        }
+        encoder.finish();
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        if (image == null) {
+            throw new IOException("ImageIO cannot read the encoded JPEG");
+        }
+        return image;
+    }
+
+    // Smooth colors, which 4:2:0 subsampling keeps
+    private static int[] gradient(int width, int height) {
+        final int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int r = x * 255 / width;
+                final int g = y * 255 / height;
+                final int b = (x + y) * 127 / (width + height) + 64;
+                pixels[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static double psnr(int[] pixels, BufferedImage decoded) {
+        final int width = decoded.getWidth();
+        double squaredError = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            final int actual = decoded.getRGB(i % width, i / width);
+            for (int shift = 0; shift <= 16; shift += 8) {
+                final int difference = ((pixels[i] >> shift) & 0xFF) - ((actual >> shift) & 0xFF);
+                squaredError += difference * difference;
+            }
+        }
+        final double mse = squaredError / (pixels.length * 3);
+        return 10 * Math.log10(255 * 255 / mse);
+    }
+}
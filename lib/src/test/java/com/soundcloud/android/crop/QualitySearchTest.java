@@ -0,0 +1,87 @@
+package com.soundcloud.android.crop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class QualitySearchTest {
+
+    @Test
+    public void findsHighestQualityThatFits() throws IOException {
+        final QualitySearch.Result result = search(-1).search(size(73), 100);
+
+        assertEquals(73, result.getQuality());
+        assertEquals(size(73), result.getBytes());
+        assertTrue(result.fits());
+    }
+
+    @Test
+    public void staysBelowBoundaryByOneByte() throws IOException {
+        assertEquals(72, search(-1).search(size(73) - 1, 100).getQuality());
+    }
+
+    @Test
+    public void keepsMaxQualityIfItFits() throws IOException {
+        assertEquals(90, search(-1).search(size(100), 90).getQuality());
+        assertEquals(100, search(-1).search(size(100), 120).getQuality());
+    }
+
+    @Test
+    public void findsSameQualityWhateverTheGuess() throws IOException {
+        for (int guess : new int[]{-1, 0, 10, 11, 40, 73, 74, 99, 100, 200}) {
+            assertEquals("guess " + guess, 73, search(guess).search(size(73), 100).getQuality());
+        }
+    }
+
+    @Test
+    public void neverLowersQualityForLargerBudget() throws IOException {
+        int last = 0;
+        for (long target = size(QualitySearch.MIN_QUALITY); target <= size(100); target += 997) {
+            final int quality = search(-1).search(target, 100).getQuality();
+            assertTrue(quality + " for " + target + " after " + last, quality >= last);
+            assertTrue(size(quality) <= target);
+            last = quality;
+        }
+    }
+
+    @Test
+    public void costsTwoTrialsForRightGuess() throws IOException {
+        final QualitySearch search = search(73);
+
+        search.search(size(73), 100);
+
+        assertEquals(2, search.getTrialCount());
+    }
+
+    @Test
+    public void reportsUnreachableBudget() throws IOException {
+        final QualitySearch.Result result = search(-1).search(size(QualitySearch.MIN_QUALITY) - 1, 100);
+
+        assertFalse(result.fits());
+        assertEquals(QualitySearch.MIN_QUALITY, result.getQuality());
+        assertEquals(size(QualitySearch.MIN_QUALITY), result.getBytes());
+    }
+
+    // Grows faster towards the top, like JPEG does
+    private static long size(int quality) {
+        return 10000 + 20L * quality * quality;
+    }
+
+    private static QualitySearch search(final int guess) {
+        return new QualitySearch(new QualitySearch.Trials() {
+            @Override
+            public long getEncodedSize(int quality) {
+                return size(quality);
+            }
+
+            @Override
+            public int guess(long targetBytes, int minQuality, int maxQuality) {
+                return guess;
+            }
+        });
+    }
+}